@@ -0,0 +1,171 @@
+package ntu.mil.RealTimeDecibelRecorder;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.os.Build;
+import android.util.Log;
+
+import ntu.mil.RealTimeDecibelRecorder.core.AudioSource;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/** The device microphone, opened according to a {@link CaptureProfile}. */
+public class AudioRecordSource implements AudioSource {
+    private static final String TAG = AudioRecordSource.class.getSimpleName();
+    // The rate each profile last opened at, tried first so a restart doesn't probe again.
+    private static final HashMap<CaptureProfile, Integer> sNegotiatedRates = new HashMap<>();
+
+    private final AudioRecord mAudioRecord;
+    private final int mSampleRate;
+    private final int mChannels;
+    private final int mFrameSamples;
+    // Scratch buffer for float capture, converted to 16 bits on every read.
+    private float[] mFloats;
+    private final AudioTimestamp mTimestamp = new AudioTimestamp();
+    private long mFramesRead = 0;
+    private long mTimestampMillis;
+    private long mCaptureNanos;
+
+    private AudioRecordSource(AudioRecord audioRecord, int sampleRate, int channels, int frameSamples, boolean isFloat) {
+        mAudioRecord = audioRecord;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mFrameSamples = frameSamples;
+        mFloats = isFloat ? new float[frameSamples] : null;
+    }
+
+    /** Opens the microphone with the default profile, or returns null. */
+    public static AudioRecordSource create() {
+        return create(CaptureProfile.DEFAULT);
+    }
+
+    /** Opens the microphone at the first of the profile's sample rates the device accepts, or returns null. */
+    public static AudioRecordSource create(CaptureProfile profile) {
+        final int channelMask = profile.getChannels() == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+        final boolean isFloat = profile.getEncoding() == CaptureProfile.Encoding.PCM_FLOAT
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+        final int encoding = isFloat ? AudioFormat.ENCODING_PCM_FLOAT : AudioFormat.ENCODING_PCM_16BIT;
+        final int bytesPerSample = isFloat ? 4 : 2;
+        final int[] candidates = profile.getSampleRates();
+        synchronized (sNegotiatedRates) {
+            final Integer negotiated = sNegotiatedRates.get(profile);
+            if (negotiated != null) {
+                for (int i = 0; i < candidates.length; i++) {
+                    if (candidates[i] == negotiated) {
+                        candidates[i] = candidates[0];
+                        candidates[0] = negotiated;
+                    }
+                }
+            }
+        }
+        for (int sampleRate : candidates) {
+            final int minBufferSize = AudioRecord.getMinBufferSize(sampleRate, channelMask, encoding);
+            if (minBufferSize <= 0) {
+                continue;
+            }
+            final int bufferSize = minBufferSize * profile.getBufferMultiple();
+            final AudioRecord audioRecord = new AudioRecord(profile.getAudioSource(), sampleRate, channelMask, encoding, bufferSize);
+            if (audioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
+                final int channels = profile.getChannels();
+                final int frameSamples = profile.getReadMillis() > 0
+                        ? Math.max(1, sampleRate * profile.getReadMillis() / 1000) * channels
+                        : minBufferSize / bytesPerSample / channels * channels;
+                Log.d(TAG, "Opened " + sampleRate + " Hz, " + channels + " ch, " + (isFloat ? "float" : "16-bit")
+                        + ", buffer " + bufferSize + " bytes, read " + frameSamples + " samples");
+                synchronized (sNegotiatedRates) {
+                    sNegotiatedRates.put(profile, sampleRate);
+                }
+                return new AudioRecordSource(audioRecord, sampleRate, channels, frameSamples, isFloat);
+            } else
+                audioRecord.release();
+        }
+        return null;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public int getFrameSamples() {
+        return mFrameSamples;
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return true;
+    }
+
+    @Override
+    public void start() {
+        mFramesRead = 0;
+        mAudioRecord.startRecording();
+    }
+
+    @Override
+    public int read(short[] dest, int offset, int length) throws IOException {
+        final int read;
+        if (mFloats != null) {
+            if (mFloats.length < length) {
+                mFloats = new float[length];
+            }
+            read = mAudioRecord.read(mFloats, 0, length, AudioRecord.READ_BLOCKING);
+            for (int i = 0; i < read; i++) {
+                final float value = mFloats[i] * 32768f;
+                dest[offset + i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+            }
+        } else {
+            read = mAudioRecord.read(dest, offset, length);
+        }
+        if (read < 0) {
+            throw new IOException("AudioRecord.read() returned " + read);
+        }
+        mTimestampMillis = System.currentTimeMillis();
+        mFramesRead += read / mChannels;
+        mCaptureNanos = captureNanos();
+        return read;
+    }
+
+    // When the last frame read hit the ADC. Before Android N only the read's return time is known.
+    private long captureNanos() {
+        final long now = System.nanoTime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && mAudioRecord.getTimestamp(mTimestamp, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS) {
+            final long nanos = mTimestamp.nanoTime + (mFramesRead - 1 - mTimestamp.framePosition) * 1000000000L / mSampleRate;
+            // Some devices don't restart the frame position when a kept AudioRecord is restarted.
+            if (nanos <= now && now - nanos < 1000000000L) {
+                return nanos;
+            }
+        }
+        return now;
+    }
+
+    @Override
+    public long getTimestampMillis() {
+        return mTimestampMillis;
+    }
+
+    @Override
+    public long getCaptureNanos() {
+        return mCaptureNanos;
+    }
+
+    /** Stops capturing but keeps the AudioRecord, so the next start() begins without reopening it. */
+    public void stop() {
+        mAudioRecord.stop();
+    }
+
+    @Override
+    public void close() {
+        mAudioRecord.stop();
+        mAudioRecord.release();
+    }
+}
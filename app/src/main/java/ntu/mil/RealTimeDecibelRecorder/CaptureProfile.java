@@ -0,0 +1,116 @@
+package ntu.mil.RealTimeDecibelRecorder;
+
+import android.media.MediaRecorder;
+
+import java.util.Arrays;
+
+/**
+ * How the microphone is opened: sample rates to try in order, channel count, sample encoding,
+ * buffer size and read size. Whatever {@link AudioRecordSource} negotiates is what the writers
+ * and analyzers run at.
+ */
+public class CaptureProfile {
+    public enum Encoding {
+        PCM_16BIT,
+        /** Captured as float and converted to 16 bits on read; for devices whose native path is float. */
+        PCM_FLOAT
+    }
+
+    /** The original setup: 16 kHz if possible, mono, one minimum buffer per read. */
+    public static final CaptureProfile DEFAULT = new CaptureProfile(new int[]{16000, 11025, 22050, 44100},
+            1, Encoding.PCM_16BIT, 1, 0, MediaRecorder.AudioSource.MIC);
+
+    /**
+     * Short reads from a small buffer at the usual native rate, without the voice-call processing
+     * of the MIC source, so alerts react within a few tens of milliseconds.
+     */
+    public static final CaptureProfile LOW_LATENCY = new CaptureProfile(new int[]{48000, 44100, 16000},
+            1, Encoding.PCM_16BIT, 2, 5, MediaRecorder.AudioSource.VOICE_RECOGNITION);
+
+    /** Full band at 48 kHz with a large buffer, for measurement and archiving. */
+    public static final CaptureProfile HIGH_QUALITY = new CaptureProfile(new int[]{48000, 44100},
+            1, Encoding.PCM_FLOAT, 4, 0, MediaRecorder.AudioSource.VOICE_RECOGNITION);
+
+    private final int[] mSampleRates;
+    private final int mChannels;
+    private final Encoding mEncoding;
+    private final int mBufferMultiple;
+    private final int mReadMillis;
+    private final int mAudioSource;
+
+    /**
+     * @param sampleRates    tried in order until the device accepts one.
+     * @param channels       1 or 2; the analyzers see stereo mixed down to mono.
+     * @param bufferMultiple AudioRecord buffer size in multiples of getMinBufferSize().
+     * @param readMillis     audio per read, or 0 to read a whole minimum buffer at a time.
+     * @param audioSource    a {@link MediaRecorder.AudioSource} constant.
+     */
+    public CaptureProfile(int[] sampleRates, int channels, Encoding encoding, int bufferMultiple, int readMillis,
+                          int audioSource) {
+        if (channels != 1 && channels != 2)
+            throw new IllegalArgumentException("channels must be 1 or 2: " + channels);
+        mSampleRates = sampleRates.clone();
+        mChannels = channels;
+        mEncoding = encoding;
+        mBufferMultiple = Math.max(1, bufferMultiple);
+        mReadMillis = readMillis;
+        mAudioSource = audioSource;
+    }
+
+    /** The same profile reading from another {@link MediaRecorder.AudioSource}. */
+    public CaptureProfile withAudioSource(int audioSource) {
+        return new CaptureProfile(mSampleRates, mChannels, mEncoding, mBufferMultiple, mReadMillis, audioSource);
+    }
+
+    public int[] getSampleRates() {
+        return mSampleRates.clone();
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    public Encoding getEncoding() {
+        return mEncoding;
+    }
+
+    public int getBufferMultiple() {
+        return mBufferMultiple;
+    }
+
+    public int getReadMillis() {
+        return mReadMillis;
+    }
+
+    public int getAudioSource() {
+        return mAudioSource;
+    }
+
+    // By value, since withAudioSource() makes a new instance on every start.
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CaptureProfile)) return false;
+        final CaptureProfile other = (CaptureProfile) o;
+        return mChannels == other.mChannels && mEncoding == other.mEncoding
+                && mBufferMultiple == other.mBufferMultiple && mReadMillis == other.mReadMillis
+                && mAudioSource == other.mAudioSource && Arrays.equals(mSampleRates, other.mSampleRates);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Arrays.hashCode(mSampleRates);
+        result = 31 * result + mChannels;
+        result = 31 * result + mEncoding.hashCode();
+        result = 31 * result + mBufferMultiple;
+        result = 31 * result + mReadMillis;
+        result = 31 * result + mAudioSource;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(mSampleRates) + " Hz, " + mChannels + " ch, " + mEncoding + ", buffer x"
+                + mBufferMultiple + ", read " + (mReadMillis > 0 ? mReadMillis + " ms" : "buffer");
+    }
+}
@@ -1,19 +1,28 @@
 package ntu.mil.RealTimeDecibelRecorder;
 
 import android.Manifest;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.graphics.Color;
 import android.media.MediaActionSound;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 
+import com.github.mikephil.charting.charts.BarChart;
 import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.components.Legend;
 import com.github.mikephil.charting.components.XAxis;
 import com.github.mikephil.charting.components.YAxis;
+import com.github.mikephil.charting.data.BarData;
+import com.github.mikephil.charting.data.BarDataSet;
+import com.github.mikephil.charting.data.BarEntry;
 import com.github.mikephil.charting.data.Entry;
 import com.github.mikephil.charting.data.LineData;
 import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.formatter.ValueFormatter;
-import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
 
 
 
@@ -21,23 +30,49 @@ import com.github.mikephil.charting.interfaces.datasets.ILineDataSet;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+
+import ntu.mil.RealTimeDecibelRecorder.core.ChartFeed;
+import ntu.mil.RealTimeDecibelRecorder.core.PipelineMetrics;
+import ntu.mil.RealTimeDecibelRecorder.core.SummaryFeed;
+
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
     public final static String TAG = MainActivity.class.getSimpleName();
     private static final int REQUEST_PERMISSIONS = 786;
+    private static final String KEY_LOW_LATENCY = "low_latency";
+    // The display polls the recorder service's feed; capture never waits on the UI thread.
+    private static final long UI_REFRESH_MILLIS = 50;
+    private static final long METRICS_REFRESH_NANOS = 500 * 1000000L;
     private Button btnStartRecord, btnStopRecord;
-    public TextView txtDbValue, txtRecordFileName;
+    public TextView txtDbValue, txtRecordFileName, txtMetrics;
     private LineChart mLineChart;
-    private VoiceRecorder mVoiceRecorder;
+    private BarChart mBandChart;
+    private RecorderService mService;
+    private boolean isLowLatency = false;
     private MediaActionSound mMediaActionSound;
+    private final SummaryFeed.Summary mSummary = new SummaryFeed.Summary();
+    private Entry[] mEntryPool = new Entry[0];
+    private final ArrayList<Entry> mChartEntries = new ArrayList<>();
+    private float[] mChartXs = new float[0];
+    private float[] mChartYs = new float[0];
+    private LineDataSet mChartSet;
+
+    private float[] mBandFrequencies = new float[0];
+    private final ArrayList<BarEntry> mBandEntries = new ArrayList<>();
+    private BarDataSet mBandSet;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
+        isLowLatency = savedInstanceState != null && savedInstanceState.getBoolean(KEY_LOW_LATENCY);
         requestPermissions();
 
 
@@ -50,28 +85,81 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
         txtDbValue = (TextView) findViewById(R.id.txtDbValue);
         txtRecordFileName = findViewById(R.id.txtRecordFileName);
+        txtMetrics = findViewById(R.id.txtMetrics);
 
         mLineChart = findViewById(R.id.liveChart);
+        mBandChart = findViewById(R.id.bandChart);
 
-        mVoiceRecorder = new VoiceRecorder(this, voiceCallback);
         mMediaActionSound = new MediaActionSound();
         initChart();
+        initBandChart();
+
+    }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(KEY_LOW_LATENCY, isLowLatency);
+    }
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, RecorderService.class), mConnection, Context.BIND_AUTO_CREATE);
     }
+
+    @Override
+    protected void onStop() {
+        // The service keeps recording; only the display stops.
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        if (mService != null) {
+            unbindService(mConnection);
+            mService = null;
+        }
+        super.onStop();
+    }
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = ((RecorderService.LocalBinder) binder).getService();
+            // A running recording keeps its profile across rotation; otherwise the toggle applies.
+            if (mService.isRecording()) {
+                isLowLatency = CaptureProfile.LOW_LATENCY.equals(mService.getRecorder().getCaptureProfile());
+                invalidateOptionsMenu();
+            } else {
+                mService.getRecorder().setCaptureProfile(isLowLatency ? CaptureProfile.LOW_LATENCY : CaptureProfile.DEFAULT);
+            }
+            final int points = mService.getFeed().getHistory().getMaxPoints();
+            if (mEntryPool.length != points) {
+                mEntryPool = new Entry[points];
+                for (int i = 0; i < points; i++) {
+                    mEntryPool[i] = new Entry();
+                }
+                mChartXs = new float[points];
+                mChartYs = new float[points];
+            }
+            updateButtons(mService.isRecording());
+            scheduleFrame();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+            mService = null;
+        }
+    };
+
     @Override
     public void onClick(View v) {
         switch(v.getId()) {
             case R.id.btnStartRecord:
-                btnStartRecord.setVisibility(View.GONE);
-                btnStopRecord.setVisibility(View.VISIBLE);
+                updateButtons(true);
                 startVoiceRecorder();
                 break;
 
             case R.id.btnStopRecord:
-                btnStopRecord.setVisibility(View.GONE);
-                btnStartRecord.setVisibility(View.VISIBLE);
+                updateButtons(false);
                 stopVoiceRecorder();
-                txtDbValue.setText("Not hearing...");
                 break;
 
             default:
@@ -79,8 +167,49 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_main, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_low_latency).setChecked(isLowLatency);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_metrics) {
+            item.setChecked(!item.isChecked());
+            txtMetrics.setVisibility(item.isChecked() ? View.VISIBLE : View.GONE);
+            if (item.isChecked()) {
+                renderMetrics();
+            }
+            return true;
+        } else if (item.getItemId() == R.id.action_low_latency) {
+            item.setChecked(!item.isChecked());
+            isLowLatency = item.isChecked();
+            // Applies from the next recording.
+            if (mService != null) {
+                mService.getRecorder().setCaptureProfile(isLowLatency ? CaptureProfile.LOW_LATENCY : CaptureProfile.DEFAULT);
+            }
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    // The overlay is refreshed from the frame callback, so it costs nothing while hidden or idle.
+    private void renderMetrics(){
+        mMetricsText.setLength(0);
+        mService.getRecorder().formatMetrics(mMetricsText);
+        txtMetrics.setText(mMetricsText);
+        mMetricsRenderedNanos = System.nanoTime();
+    }
+
     private LineDataSet createSet(String SetName) {
-        LineDataSet set = new LineDataSet(null, SetName);
+        LineDataSet set = new LineDataSet(mChartEntries, SetName);
         set.setAxisDependency(YAxis.AxisDependency.LEFT);
         set.setColor(Color.GRAY);
         set.setLineWidth(2);
@@ -98,8 +227,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         mLineChart.setTouchEnabled(true);// Touchable
         mLineChart.setDragEnabled(true);// Interactive
 
-        // Set a basic line
-        LineData data = new LineData();
+        // Set a basic line. Its entries are recycled from mEntryPool on every frame.
+        mChartSet = createSet("DB_DATA");
+        LineData data = new LineData(mChartSet);
         data.setValueTextColor(Color.BLACK);
         mLineChart.setData(data);
 
@@ -126,28 +256,79 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         YAxis y = mLineChart.getAxisLeft();
         y.setTextColor(Color.BLACK);
         y.setDrawGridLines(true);
-        y.setAxisMaximum(16000);
+        y.setAxisMaximum(120);
         y.setAxisMinimum(0);
         mLineChart.getAxisRight().setEnabled(false);// Right YAxis invisible
-        mLineChart.setVisibleXRange(0,100);// Set visible range
     }
 
-    private void addData(int inputData){
-        LineData data =  mLineChart.getData();
+    private void initBandChart(){
+        mBandSet = new BarDataSet(mBandEntries, "1/3 OCTAVE");
+        mBandSet.setColor(Color.GRAY);
+        mBandSet.setDrawValues(false);
+        mBandChart.setData(new BarData(mBandSet));
+        mBandChart.getDescription().setEnabled(false);
+        mBandChart.setScaleEnabled(false);
+        mBandChart.setFitBars(true);
+
+        XAxis x = mBandChart.getXAxis();
+        x.setTextColor(Color.BLACK);
+        x.setPosition(XAxis.XAxisPosition.BOTTOM);
+        x.setDrawGridLines(false);
+        x.setGranularity(1);
+        x.setValueFormatter(new ValueFormatter() {
+            @Override
+            public String getFormattedValue(float value) {
+                int band = Math.round(value);
+                if (band < 0 || band >= mBandFrequencies.length) {
+                    return "";
+                }
+                float frequency = mBandFrequencies[band];
+                return frequency < 1000 ? String.valueOf(Math.round(frequency)) : Math.round(frequency / 100) / 10f + "k";
+            }
+        });
+
+        YAxis y = mBandChart.getAxisLeft();
+        y.setTextColor(Color.BLACK);
+        y.setAxisMaximum(120);
+        y.setAxisMinimum(0);
+        mBandChart.getAxisRight().setEnabled(false);
+    }
+
+    private void renderBands(){
+        final float[] levels = mSummary.getBandLevels();
+        mBandFrequencies = mSummary.getBandFrequencies();
+        // Bar entries are created once per band layout, then updated in place.
+        if (mBandEntries.size() != levels.length) {
+            mBandEntries.clear();
+            for (int i = 0; i < levels.length; i++) {
+                mBandEntries.add(new BarEntry(i, 0));
+            }
+        }
+        for (int i = 0; i < levels.length; i++) {
+            mBandEntries.get(i).setY(Math.max(0, levels[i]));
+        }
+        mBandSet.notifyDataSetChanged();
+        mBandChart.getData().notifyDataChanged();
+        mBandChart.notifyDataSetChanged();
+        mBandChart.invalidate();
+    }
 
-        // DB data only, set to 0. If other type of data be added, set to other int.
-        ILineDataSet set = data.getDataSetByIndex(0);
-        if (set == null){
-            set = createSet("DB_DATA");
-            data.addDataSet(set);
+    // Redraws the chart from the feed. The data set only ever holds the decimated window.
+    private void renderChart(ChartFeed history){
+        int points = history.pull(mChartXs, mChartYs);
+        mChartEntries.clear();
+        for (int i = 0; i < points; i++) {
+            Entry entry = mEntryPool[i];
+            entry.setX(mChartXs[i]);
+            entry.setY(mChartYs[i]);
+            mChartEntries.add(entry);
         }
-        data.addEntry(new Entry(set.getEntryCount(),inputData),0);
 
         // Renew plot
-        data.notifyDataChanged();
+        mChartSet.notifyDataSetChanged();
+        mLineChart.getData().notifyDataChanged();
         mLineChart.notifyDataSetChanged();
-        mLineChart.setVisibleXRange(0,100); // Visible range
-        mLineChart.moveViewToX(data.getEntryCount());// Whether track on the newest data point
+        mLineChart.invalidate();
     }
 
 
@@ -163,63 +344,105 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     }
 
     private void startVoiceRecorder(){
-        if(mVoiceRecorder != null){
-            mMediaActionSound.play(MediaActionSound.START_VIDEO_RECORDING);
-            mVoiceRecorder.start();
+        mMediaActionSound.play(MediaActionSound.START_VIDEO_RECORDING);
+        // Started, not just bound, so that recording carries on when the activity goes away.
+        Intent intent = new Intent(this, RecorderService.class).setAction(RecorderService.ACTION_START);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            startForegroundService(intent);
+        } else {
+            startService(intent);
         }
     }
 
     private void stopVoiceRecorder(){
-        if(mVoiceRecorder != null){
-            mMediaActionSound.play(MediaActionSound.STOP_VIDEO_RECORDING);
-            mVoiceRecorder.stop();
-        }
+        mMediaActionSound.play(MediaActionSound.STOP_VIDEO_RECORDING);
+        startService(new Intent(this, RecorderService.class).setAction(RecorderService.ACTION_STOP));
     }
-    private final VoiceRecorder.Callback voiceCallback = new VoiceRecorder.Callback() {
 
-        private String byteToDbValue(byte[] buffer, int size){
-            for (int i = 0; i < size - 1; i += 2) {
-                // The buffer has LINEAR16 in little endian.
-                int s = buffer[i + 1];
-                if (s < 0) s *= -1;
-                s <<= 8;
-                s += Math.abs(buffer[i]);
-                return Integer.toString(s);
-            }
-            return "";
+    private void updateButtons(boolean recording){
+        if (recording == (btnStopRecord.getVisibility() == View.VISIBLE)) {
+            return;
         }
-
-        @Override
-        public void onVoiceStart(final String recordFilename) {
-            Log.d(TAG, "onVoiceStart()");
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    txtRecordFileName.setText(recordFilename);
-                }
-            });
+        btnStartRecord.setVisibility(recording ? View.GONE : View.VISIBLE);
+        btnStopRecord.setVisibility(recording ? View.VISIBLE : View.GONE);
+        if (!recording) {
+            txtDbValue.setText("Not hearing...");
         }
+    }
 
-        @Override
-        public void onVoice(final byte[] data, final int size, boolean sentenceCompleted) {
-            Log.d(TAG, "onVoice()");
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    String db_value = byteToDbValue(data,size);
-                    addData(Integer.valueOf(db_value));
-                    txtDbValue.setText(db_value);
-                }
-            });
-        }
+    private void scheduleFrame(){
+        mFrameRequestedNanos = System.nanoTime();
+        Choreographer.getInstance().postFrameCallbackDelayed(mFrameCallback, UI_REFRESH_MILLIS);
+    }
 
+    // Polls the service's feed a few times a second while visible; levels in between are only
+    // kept in the decimated history, so drawing costs the same however fast audio arrives.
+    private long mFrameRequestedNanos;
+    private String mShownLabel;
+    private final StringBuilder mMetricsText = new StringBuilder();
+    private final StringBuilder mLevelText = new StringBuilder();
+    private char[] mLevelChars = new char[32];
+    private long mMetricsRenderedNanos;
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
         @Override
-        public void onVoiceEnd() {
-            Log.d(TAG, "onVoiceEnd()");
-            stopVoiceRecorder();
+        public void doFrame(long frameTimeNanos) {
+            if (mService == null) {
+                return;
+            }
+            final long now = System.nanoTime();
+            mService.getRecorder().getMetrics().record(PipelineMetrics.Metric.UI_FRAME_DELAY,
+                    Math.max(0, now - mFrameRequestedNanos - UI_REFRESH_MILLIS * 1000000L));
+            scheduleFrame();
+            updateButtons(mService.isRecording());
+            if (txtMetrics.getVisibility() == View.VISIBLE && now - mMetricsRenderedNanos > METRICS_REFRESH_NANOS) {
+                renderMetrics();
+            }
+            final SummaryFeed feed = mService.getFeed();
+            final String label = feed.getLabel();
+            if (label != null && !label.equals(mShownLabel)) {
+                mShownLabel = label;
+                txtRecordFileName.setText(label);
+            }
+            if (!feed.read(mSummary)) {
+                return;
+            }
+            if (mSummary.isBandsChanged()) {
+                renderBands();
+            }
+            if (feed.getHistory().hasNewData() && mService.isRecording()) {
+                renderLevel();
+                renderChart(feed.getHistory());
+            }
         }
     };
 
+    // "63.2 dB(A)  Leq 58.9", built in place so the 50 ms poll allocates nothing.
+    private void renderLevel() {
+        mLevelText.setLength(0);
+        appendTenths(mLevelText, mSummary.getLevel());
+        mLevelText.append(" dB(").append(mService.getRecorder().getFrequencyWeighting().name()).append(")  Leq ");
+        appendTenths(mLevelText, mSummary.getLeq());
+        final int length = mLevelText.length();
+        if (mLevelChars.length < length) {
+            mLevelChars = new char[length];
+        }
+        mLevelText.getChars(0, length, mLevelChars, 0);
+        txtDbValue.setText(mLevelChars, 0, length);
+    }
+
+    // Like %.1f with Locale.US: always a decimal point, whatever the device locale.
+    private static void appendTenths(StringBuilder out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append(value);
+            return;
+        }
+        long tenths = Math.round(value * 10);
+        if (tenths < 0) {
+            out.append('-');
+            tenths = -tenths;
+        }
+        out.append(tenths / 10).append('.').append(tenths % 10);
+    }
 
     @Override
     protected void onDestroy(){
@@ -0,0 +1,93 @@
+package ntu.mil.RealTimeDecibelRecorder;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+
+/**
+ * Registers finished recordings with MediaStore off the recording threads. Files are collected
+ * for a short while and inserted with one bulkInsert, so a burst of short event files costs a
+ * single provider round trip.
+ */
+public class MediaIndexer {
+    private static final String TAG = MediaIndexer.class.getSimpleName();
+    private static final long BATCH_DELAY_MILLIS = 2000;
+    private static final int MAX_BATCH = 32;
+
+    private final ContentResolver mResolver;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final ArrayList<File> mPending = new ArrayList<>();
+    private volatile long mIndexedFiles = 0;
+
+    public MediaIndexer(ContentResolver resolver) {
+        mResolver = resolver;
+        mThread = new HandlerThread("MediaIndexer", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /** Queues a finished file; it is indexed within {@link #BATCH_DELAY_MILLIS}. Safe from any thread. */
+    public void add(File file) {
+        synchronized (mPending) {
+            mPending.add(file);
+            if (mPending.size() >= MAX_BATCH) {
+                mHandler.removeCallbacks(mFlush);
+                mHandler.post(mFlush);
+            } else if (mPending.size() == 1) {
+                mHandler.postDelayed(mFlush, BATCH_DELAY_MILLIS);
+            }
+        }
+    }
+
+    /** Indexes whatever is queued without waiting for the batch delay. */
+    public void flush() {
+        mHandler.removeCallbacks(mFlush);
+        mHandler.post(mFlush);
+    }
+
+    public long getIndexedFiles() {
+        return mIndexedFiles;
+    }
+
+    /** Indexes what is queued, then stops the thread. */
+    public void close() {
+        flush();
+        mThread.quitSafely();
+    }
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            final ContentValues[] batch;
+            synchronized (mPending) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                batch = new ContentValues[mPending.size()];
+                for (int i = 0; i < batch.length; i++) {
+                    final File file = mPending.get(i);
+                    final ContentValues values = new ContentValues();
+                    values.put(MediaStore.Audio.Media.MIME_TYPE, VoiceRecorder.getMIMEType(file.getAbsolutePath()));
+                    values.put(MediaStore.Audio.Media.TITLE, file.getName());
+                    values.put(MediaStore.Audio.Media.DATA, file.getAbsolutePath());
+                    batch[i] = values;
+                }
+                mPending.clear();
+            }
+            try {
+                mIndexedFiles += mResolver.bulkInsert(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, batch);
+            } catch (RuntimeException e) {
+                // The provider may refuse e.g. while storage is unmounted; the files stay on disk.
+                Log.w(TAG, "Indexing " + batch.length + " files failed: " + e.getMessage());
+            }
+        }
+    };
+}
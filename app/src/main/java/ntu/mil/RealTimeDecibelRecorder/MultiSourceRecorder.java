@@ -0,0 +1,113 @@
+package ntu.mil.RealTimeDecibelRecorder;
+
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import ntu.mil.RealTimeDecibelRecorder.core.CaptureSession;
+import ntu.mil.RealTimeDecibelRecorder.core.SessionManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Records several inputs at once, e.g. MIC, CAMCORDER and UNPROCESSED, one WAV file each, to
+ * compare how the device's input presets treat the same sound. Files are named, written and
+ * indexed by the {@link VoiceRecorder} that made this, e.g. {@code 20240131_142500_mic.wav}.
+ * Every input is an independent {@link CaptureSession}; they share a small pool of writer threads
+ * and of metering threads.
+ *
+ * Whether inputs may be captured concurrently is up to the device (generally from Android 10);
+ * inputs that cannot be opened are skipped.
+ */
+public class MultiSourceRecorder {
+    private static final String TAG = MultiSourceRecorder.class.getSimpleName();
+    private static final int IO_THREADS = 2;
+
+    private final VoiceRecorder mRecorder;
+    private final SessionManager mManager;
+
+    /** See {@link VoiceRecorder#newMultiSourceRecorder()}. */
+    MultiSourceRecorder(VoiceRecorder recorder) {
+        mRecorder = recorder;
+        mManager = new SessionManager(IO_THREADS, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public void setCalibrationOffset(double offsetDb) {
+        mManager.setCalibrationOffset(offsetDb);
+    }
+
+    /**
+     * Opens {@code profile} once for each of {@code audioSources} and starts them together.
+     *
+     * @return the number of inputs recording.
+     */
+    public int start(CaptureProfile profile, int... audioSources) {
+        final long startMillis = System.currentTimeMillis();
+        for (int audioSource : audioSources) {
+            final AudioRecordSource source = AudioRecordSource.create(profile.withAudioSource(audioSource));
+            if (source == null) {
+                Log.w(TAG, "Cannot open " + sourceName(audioSource));
+                continue;
+            }
+            final String name = sourceName(audioSource);
+            mManager.add(name, source,
+                    mRecorder.sinkFactory(source.getSampleRate(), source.getChannels(), source.getFrameSamples()),
+                    mRecorder.fileFor(startMillis, name), null);
+        }
+        try {
+            mManager.startAll();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        int running = 0;
+        for (CaptureSession session : mManager.getSessions()) {
+            if (session.isRunning()) {
+                running++;
+            }
+        }
+        return running;
+    }
+
+    /** Stops every input, finishes its file and hands it to MediaStore. */
+    public void stop() {
+        final List<CaptureSession> sessions = mManager.getSessions();
+        mManager.stopAll();
+        for (CaptureSession session : sessions) {
+            // Inputs that never delivered a block have no file.
+            if (session.getFile().exists()) {
+                mRecorder.onRecordingFinished(session.getFile());
+            }
+        }
+    }
+
+    public List<CaptureSession> getSessions() {
+        return mManager.getSessions();
+    }
+
+    /** Per input: speed against real time, samples, writer and metering backlog, drops, errors. */
+    public void formatMetrics(StringBuilder out) {
+        mManager.formatMetrics(out);
+    }
+
+    /** Stops and frees the worker threads; not usable afterwards. */
+    public void release() {
+        stop();
+        mManager.close();
+    }
+
+    private static String sourceName(int audioSource) {
+        switch (audioSource) {
+            case MediaRecorder.AudioSource.MIC:
+                return "mic";
+            case MediaRecorder.AudioSource.CAMCORDER:
+                return "camcorder";
+            case MediaRecorder.AudioSource.VOICE_RECOGNITION:
+                return "voice_recognition";
+            case MediaRecorder.AudioSource.UNPROCESSED:
+                return "unprocessed";
+            default:
+                return "source" + audioSource;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package ntu.mil.RealTimeDecibelRecorder;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.util.Log;
+
+import ntu.mil.RealTimeDecibelRecorder.core.SummaryFeed;
+
+/**
+ * Owns the {@link VoiceRecorder} so that monitoring outlives the activity: it keeps running with
+ * the screen off, in the background and across rotation. Recording is started and stopped with
+ * {@link #ACTION_START} / {@link #ACTION_STOP} intents; while recording the service is in the
+ * foreground and holds a partial wake lock.
+ *
+ * Activities bind to it and poll {@link #getFeed()} at their own frame rate. The pipeline never
+ * waits on, or posts to, the UI thread.
+ */
+public class RecorderService extends Service {
+    private static final String TAG = RecorderService.class.getSimpleName();
+    public static final String ACTION_START = "ntu.mil.RealTimeDecibelRecorder.action.START";
+    public static final String ACTION_STOP = "ntu.mil.RealTimeDecibelRecorder.action.STOP";
+    private static final String CHANNEL_ID = "monitoring";
+    private static final int NOTIFICATION_ID = 1;
+    // Levels kept for the live chart, and how many min/max buckets they are drawn as.
+    private static final int CHART_HISTORY = 512;
+    private static final int CHART_BUCKETS = 128;
+
+    private final IBinder mBinder = new LocalBinder();
+    private final SummaryFeed mFeed = new SummaryFeed(CHART_HISTORY, CHART_BUCKETS);
+    // Recording starts and stops on the main thread only.
+    private VoiceRecorder mVoiceRecorder;
+    private PowerManager.WakeLock mWakeLock;
+    private volatile boolean isRecording = false;
+
+    public class LocalBinder extends Binder {
+        public RecorderService getService() {
+            return RecorderService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mVoiceRecorder = new VoiceRecorder(getApplicationContext(), mCallback);
+        // Keep the microphone open between recordings so starting one begins capturing at once.
+        mVoiceRecorder.setWarmSession(true);
+        final PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "RealTimeDecibelRecorder:capture");
+        mWakeLock.setReferenceCounted(false);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        final String action = intent == null ? null : intent.getAction();
+        if (ACTION_START.equals(action)) {
+            startRecording();
+        } else if (ACTION_STOP.equals(action)) {
+            stopRecording();
+        }
+        // Capture may only begin from the foreground, so there is nothing to resume after a kill.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        mVoiceRecorder.release();
+        if (mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
+        super.onDestroy();
+    }
+
+    public VoiceRecorder getRecorder() {
+        return mVoiceRecorder;
+    }
+
+    /** Latest levels and a decimated history, for display. */
+    public SummaryFeed getFeed() {
+        return mFeed;
+    }
+
+    public boolean isRecording() {
+        return isRecording;
+    }
+
+    private void startRecording() {
+        if (isRecording) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            startForeground(NOTIFICATION_ID, buildNotification(), ServiceInfo.FOREGROUND_SERVICE_TYPE_MICROPHONE);
+        } else {
+            startForeground(NOTIFICATION_ID, buildNotification());
+        }
+        mWakeLock.acquire();
+        mFeed.clear();
+        try {
+            mVoiceRecorder.start();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot start recording: " + e.getMessage());
+            mWakeLock.release();
+            stopForeground(true);
+            stopSelf();
+            return;
+        }
+        isRecording = true;
+    }
+
+    private void stopRecording() {
+        if (isRecording) {
+            isRecording = false;
+            mVoiceRecorder.stop();
+            if (mWakeLock.isHeld()) {
+                mWakeLock.release();
+            }
+            stopForeground(true);
+        }
+        // Stays alive while an activity is bound.
+        stopSelf();
+    }
+
+    private Notification buildNotification() {
+        final Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            final NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL_ID,
+                    getString(R.string.notification_channel), NotificationManager.IMPORTANCE_LOW));
+            builder = new Notification.Builder(this, CHANNEL_ID);
+        } else {
+            builder = new Notification.Builder(this);
+        }
+        final PendingIntent contentIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        return builder.setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.notification_monitoring))
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setOngoing(true)
+                .setContentIntent(contentIntent)
+                .build();
+    }
+
+    private final VoiceRecorder.Callback mCallback = new VoiceRecorder.Callback() {
+        @Override
+        public void onVoiceStart(String recordFilename) {
+            Log.d(TAG, "onVoiceStart()");
+            mFeed.setLabel(recordFilename);
+        }
+
+        @Override
+        public void onSoundLevel(float level, float leq, float maxLevel) {
+            mFeed.pushLevel(level, leq, maxLevel);
+        }
+
+        @Override
+        public void onBandLevels(float[] octaveFrequencies, float[] octaveLevels,
+                                 float[] thirdOctaveFrequencies, float[] thirdOctaveLevels) {
+            mFeed.pushBands(thirdOctaveFrequencies, thirdOctaveLevels);
+        }
+
+        @Override
+        public void onVoiceEnd() {
+            // Monitoring carries on; the next utterance simply starts again.
+            Log.d(TAG, "onVoiceEnd()");
+        }
+    };
+}
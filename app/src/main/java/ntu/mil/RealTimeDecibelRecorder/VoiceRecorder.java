@@ -1,61 +1,197 @@
 package ntu.mil.RealTimeDecibelRecorder;
 
 
-import android.content.ContentValues;
 import android.content.Context;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
+import android.os.Debug;
 import android.os.Environment;
-import android.provider.MediaStore;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
 import androidx.annotation.NonNull;
 
+import ntu.mil.RealTimeDecibelRecorder.core.AlertEngine;
+import ntu.mil.RealTimeDecibelRecorder.core.AlertRule;
+import ntu.mil.RealTimeDecibelRecorder.core.AudioFrame;
+import ntu.mil.RealTimeDecibelRecorder.core.AudioFramePool;
+import ntu.mil.RealTimeDecibelRecorder.core.AudioSink;
+import ntu.mil.RealTimeDecibelRecorder.core.AudioSource;
+import ntu.mil.RealTimeDecibelRecorder.core.DutyCycleScheduler;
+import ntu.mil.RealTimeDecibelRecorder.core.BatchAnalyzer;
+import ntu.mil.RealTimeDecibelRecorder.core.EventRecorder;
+import ntu.mil.RealTimeDecibelRecorder.core.EventTrigger;
+import ntu.mil.RealTimeDecibelRecorder.core.FrameBus;
+import ntu.mil.RealTimeDecibelRecorder.core.FrameListener;
+import ntu.mil.RealTimeDecibelRecorder.core.FrequencyWeighting;
+import ntu.mil.RealTimeDecibelRecorder.core.ImaAdpcmWavWriter;
+import ntu.mil.RealTimeDecibelRecorder.core.LevelAccumulator;
+import ntu.mil.RealTimeDecibelRecorder.core.LevelHistogram;
+import ntu.mil.RealTimeDecibelRecorder.core.LevelHistory;
+import ntu.mil.RealTimeDecibelRecorder.core.LevelLogReader;
+import ntu.mil.RealTimeDecibelRecorder.core.LevelPyramid;
+import ntu.mil.RealTimeDecibelRecorder.core.LevelStatistics;
+import ntu.mil.RealTimeDecibelRecorder.core.LevelTrigger;
+import ntu.mil.RealTimeDecibelRecorder.core.LevelMeter;
+import ntu.mil.RealTimeDecibelRecorder.core.MetricHistogram;
+import ntu.mil.RealTimeDecibelRecorder.core.PeakFile;
+import ntu.mil.RealTimeDecibelRecorder.core.PeakReader;
+import ntu.mil.RealTimeDecibelRecorder.core.PeakWriter;
+import ntu.mil.RealTimeDecibelRecorder.core.PipelineMetrics;
+import ntu.mil.RealTimeDecibelRecorder.core.SegmentedRecorder;
+import ntu.mil.RealTimeDecibelRecorder.core.SoundLevelMeter;
+import ntu.mil.RealTimeDecibelRecorder.core.SpectrumAnalyzer;
+import ntu.mil.RealTimeDecibelRecorder.core.VoiceActivityDetector;
+import ntu.mil.RealTimeDecibelRecorder.core.WavWriter;
+
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 public class VoiceRecorder {
     private static final String TAG = VoiceRecorder.class.getSimpleName();
-    private static final int[] SAMPLE_RATE_CANDIDATES = new int[]{16000, 11025, 22050, 44100};
-    private static final int SAMPLE_RATE = 16000;
-    private static final int RECORDER_BPP = 16;
-
-    private static final int CHANNEL = AudioFormat.CHANNEL_IN_MONO;
-    private static final int ENCODING = AudioFormat.ENCODING_PCM_16BIT;
-
-    private static final int AMPLITUDE_THRESHOLD = 1500;
     private static final int SPEECH_TIMEOUT_MILLIS = 3000;
     private static final int MAX_SPEECH_LENGTH_MILLIS = 30 * 1000;
 
+    // Frames of slack between the capture thread and each consumer thread.
+    private static final int QUEUE_FRAMES = 64;
+    private static final long CONSUMER_WAIT_MILLIS = 100;
+    // While quiet, the capture thread reads this many blocks at a time.
+    private static final int QUIET_READ_BLOCKS = 4;
+
+    private static final int DEFAULT_PRE_ROLL_MILLIS = 5000;
+    private static final int DEFAULT_POST_ROLL_MILLIS = 3000;
+    private static final double DEFAULT_EVENT_LEVEL_DB = 70;
+
+    private static final int DEFAULT_LEVEL_LOG_INTERVAL_MILLIS = 1000;
+    private static final String LEVEL_LOG_FOLDER = "levels";
+
     private static final String AUDIO_RECORDER_FILE_EXT_WAV = ".wav";
     private static final String AUDIO_RECORDER_FOLDER = "Music";
-    private static final String AUDIO_RECORDER_TEMP_FILE = "record_temp.wav";
+    // yyyyMMdd_HHmmss, then the input for multi-source recordings, then a counter if that was
+    // taken; older builds wrote dd_HH_mm_ss.
+    private static final String AUDIO_RECORDER_FILE_PATTERN =
+            "(\\d{8}_\\d{6}(_[a-z][a-z0-9_]*)?(_\\d+)?|\\d\\d_\\d\\d_\\d\\d_\\d\\d)\\.wav";
+
+    /** What the writer thread saves: everything, or only events picked out by a trigger. */
+    public enum CaptureMode {
+        CONTINUOUS,
+        /** Events start when the level reaches the event threshold. */
+        EVENT_LEVEL,
+        /** Events start when the voice activity detector fires. */
+        EVENT_VOICE
+    }
+
+    /** Encoding of the saved WAV files. */
+    public enum RecordingFormat {
+        PCM_16BIT,
+        /** 4-bit IMA ADPCM, a quarter of the size; playable by standard WAV decoders. */
+        IMA_ADPCM
+    }
 
     public static abstract class Callback {
         public void onVoiceStart(String recordFilename) {
         }
-        public void onVoice(byte[] data, int size, boolean sentenceCompleted) {
+        /**
+         * {@code data} is a pooled frame that is reused once the call returns; copy it, or use
+         * {@link #addFrameListener(FrameListener)} and retain the frame, to keep the audio.
+         */
+        public void onVoice(short[] data, int size, boolean sentenceCompleted) {
+        }
+        /** Called from the analysis thread for every captured block. */
+        public void onLevel(float levelDb, float truePeakDbfs) {
+        }
+        /** Weighted level (e.g. LAF), running Leq and max level since start, in dB. */
+        public void onSoundLevel(float level, float leq, float maxLevel) {
+        }
+        /**
+         * Called from the spectrum thread once per report interval with octave and third-octave
+         * band levels in dB. The arrays are reused; copy anything kept past the call.
+         */
+        public void onBandLevels(float[] octaveFrequencies, float[] octaveLevels,
+                                 float[] thirdOctaveFrequencies, float[] thirdOctaveLevels) {
         }
         public void onVoiceEnd() {
         }
+        /**
+         * Called from the capture thread when a file or synthetic source has run out. Everything
+         * read so far is still being processed; stop(), which may be called from here, waits for it.
+         */
+        public void onSourceEnd() {
+        }
+        /** Called from a background thread once a recording file is complete and playable. */
+        public void onSegmentFinished(String recordFilename) {
+        }
+        /**
+         * Called from the analysis thread when a wall-clock minute, hour or day (UTC) ends, and
+         * for the open windows on stop(), with the weighted levels exceeded 10%, 50% and 90% of the time.
+         */
+        public void onStatisticalLevels(LevelStatistics.Window window, long startMillis, float l10, float l50, float l90) {
+        }
+        /**
+         * Called from the analysis thread when an alert rule's condition becomes true. {@code value}
+         * is the level in dB, or the crossing count for exceedance rules.
+         */
+        public void onAlert(AlertRule rule, long timeMillis, float value) {
+        }
     }
 
     private final Context mContext;
     private final Callback mCallback;
-    private Thread recordThread;
-    private AudioRecord mAudioRecord;
-    private boolean isRecording = false;
-    private byte[] mBuffer;
-    private int bufferSize;
+    private Thread recordThread, writerThread, analysisThread, spectrumThread;
+    private AudioSource mSource;
+    private AudioSource mReplaySource;
+    private CaptureProfile mCaptureProfile = CaptureProfile.DEFAULT;
+    private boolean isWarmSession = false;
+    // The microphone kept open between recordings in a warm session, and the profile it was opened with.
+    private AudioRecordSource mWarmSource;
+    private CaptureProfile mWarmProfile;
+    private final MediaIndexer mMediaIndexer;
+    private volatile File mRecordingFolder;
+    private long mStartNanos;
+    private volatile long mFirstSampleNanos = -1;
+    private volatile boolean isRecording = false;
+    private AudioFramePool mFramePool;
+    private FrameBus mBus;
+    private FrameBus.Subscription mWriterFrames, mAnalysisFrames, mSpectrumFrames;
+    private final CopyOnWriteArrayList<FrameListener> mFrameListeners = new CopyOnWriteArrayList<>();
+    private final ArrayList<ListenerThread> mListenerThreads = new ArrayList<>();
+    private volatile long mReadErrors = 0;
+    private final PipelineMetrics mMetrics = new PipelineMetrics();
+    private double mQuietFloorDb = Double.NEGATIVE_INFINITY;
+    private volatile DutyCycleScheduler mScheduler = new DutyCycleScheduler(1, Double.NEGATIVE_INFINITY);
+    private final LevelMeter mMeter = new LevelMeter();
+    private VoiceActivityDetector mVad;
+    private SpectrumAnalyzer mSpectrumAnalyzer;
+    private int mSpectrumReportMillis = SpectrumAnalyzer.DEFAULT_REPORT_MILLIS;
+    private int mVadHangoverMillis = VoiceActivityDetector.DEFAULT_HANGOVER_MILLIS;
+    private SoundLevelMeter mSoundLevelMeter;
+    private final LevelStatistics mStatistics;
+    private final CopyOnWriteArrayList<AlertRule> mAlertRules = new CopyOnWriteArrayList<>();
+    private volatile AlertEngine mAlertEngine;
+    private FrequencyWeighting mFrequencyWeighting = FrequencyWeighting.A;
+    private SoundLevelMeter.TimeWeighting mTimeWeighting = SoundLevelMeter.TimeWeighting.FAST;
+    private int mSampleRate;
+    private long mSegmentMillis = SegmentedRecorder.UNLIMITED;
+    private long mSegmentBytes = SegmentedRecorder.UNLIMITED;
+    private int mMaxSegments = (int) SegmentedRecorder.UNLIMITED;
+    private long mMaxTotalBytes = SegmentedRecorder.UNLIMITED;
+    private CaptureMode mCaptureMode = CaptureMode.CONTINUOUS;
+    private RecordingFormat mRecordingFormat = RecordingFormat.PCM_16BIT;
+    private int mPreRollMillis = DEFAULT_PRE_ROLL_MILLIS;
+    private int mPostRollMillis = DEFAULT_POST_ROLL_MILLIS;
+    private double mEventLevelDb = DEFAULT_EVENT_LEVEL_DB;
+    private int mLevelLogIntervalMillis = DEFAULT_LEVEL_LOG_INTERVAL_MILLIS;
     private final Object mLock = new Object();
-    private String mFilename, mTempFilename, mUIFilename;
+    private String mFilename;
+    private volatile String mUIFilename;
     private long mLastVoiceHeardMillis = Long.MAX_VALUE;
     private long mVoiceStartedMillis;
     private boolean sentenceCompleted ;
@@ -70,45 +206,508 @@ public class VoiceRecorder {
     public VoiceRecorder(Context context, @NonNull Callback callback) {
         mContext = context;
         mCallback = callback;
+        mMediaIndexer = new MediaIndexer(context.getContentResolver());
+        mStatistics = new LevelStatistics(new LevelStatistics.Listener() {
+            @Override
+            public void onWindowFinished(LevelStatistics.Window window, long startMillis, LevelHistogram histogram) {
+                mCallback.onStatisticalLevels(window, startMillis, (float) histogram.getExceededLevel(10),
+                        (float) histogram.getExceededLevel(50), (float) histogram.getExceededLevel(90));
+            }
+        });
     }
     public void start() {
         Log.d(TAG, "start()");
+        mStartNanos = System.nanoTime();
+        mFirstSampleNanos = -1;
 
-        // Try to create a new recording session.
-        mAudioRecord = createAudioRecord();
-        if (mAudioRecord == null)
+        // Reuse the warm microphone if there is one, otherwise open a new recording session.
+        if (mReplaySource != null) {
+            mSource = mReplaySource;
+        } else {
+            prepare();
+            mSource = mWarmSource != null ? mWarmSource : AudioRecordSource.create(mCaptureProfile);
+        }
+        if (mSource == null)
             throw new RuntimeException("Cannot instantiate VoiceRecorder");
+        mSampleRate = mSource.getSampleRate();
+
+        // Consumers subscribe before the first frame is published so they see the whole stream.
+        mScheduler = new DutyCycleScheduler(mSampleRate, mQuietFloorDb);
+        // Frames have room for the larger quiet reads.
+        final int frameCapacity = mSource.getFrameSamples() * (mScheduler.isEnabled() ? QUIET_READ_BLOCKS : 1);
+        mFramePool = new AudioFramePool(frameCapacity, mSampleRate, mSource.getChannels(), QUEUE_FRAMES);
+        mBus = new FrameBus();
+        // A replay runs as fast as the slowest consumer rather than dropping what it cannot keep up with.
+        mBus.setLossless(!mSource.isRealTime());
+        mWriterFrames = mBus.subscribe(QUEUE_FRAMES);
+        mAnalysisFrames = mBus.subscribe(QUEUE_FRAMES);
+        mSpectrumFrames = mBus.subscribe(QUEUE_FRAMES);
+        mReadErrors = 0;
+        mMetrics.reset();
+        mSoundLevelMeter = new SoundLevelMeter(mFrequencyWeighting, mTimeWeighting, mSampleRate);
+        mSoundLevelMeter.setCalibrationOffset(mMeter.getCalibrationOffset());
+        mVad = new VoiceActivityDetector(mSampleRate);
+        mVad.setHangoverMillis(mVadHangoverMillis);
+        synchronized (mAlertRules) {
+            mAlertEngine = new AlertEngine(mSampleRate, mAlertListener);
+            for (AlertRule rule : mAlertRules) {
+                mAlertEngine.addRule(rule);
+            }
+        }
+        mSpectrumAnalyzer = new SpectrumAnalyzer(mSampleRate, mSpectrumReportMillis);
+        mSpectrumAnalyzer.setCalibrationOffset(mMeter.getCalibrationOffset());
 
         // Start recording.
-        mAudioRecord.startRecording();
-        isRecording = true;
+        try {
+            mSource.start();
+        } catch (IOException e) {
+            closeQuietly(mSource);
+            if (mSource == mWarmSource) {
+                mWarmSource = null;
+            }
+            mSource = null;
+            throw new RuntimeException("Cannot start the audio source", e);
+        }
+        synchronized (mListenerThreads) {
+            isRecording = true;
+            for (FrameListener listener : mFrameListeners) {
+                startListener(listener);
+            }
+        }
 
-        recordThread = new Thread(new ProcessVoice());
+        recordThread = new Thread(new ProcessVoice(), "VoiceRecorder-capture");
+        writerThread = new Thread(new WriteVoice(), "VoiceRecorder-writer");
+        analysisThread = new Thread(new AnalyzeVoice(), "VoiceRecorder-analysis");
+        spectrumThread = new Thread(new AnalyzeSpectrum(), "VoiceRecorder-spectrum");
         recordThread.start();
+        writerThread.start();
+        analysisThread.start();
+        spectrumThread.start();
 
     }
     public void stop() {
         Log.d(TAG, "stop()");
 
-        isRecording = false;
-
+        // Only the first caller tears down. Don't hold mLock while joining: the analysis thread
+        // may itself be calling stop() from onVoiceEnd().
         synchronized (mLock) {
-            dismiss();
-            if (recordThread != null) {
-                recordThread.interrupt();
-                recordThread = null;
+            if (!isRecording) {
+                return;
             }
-            if (mAudioRecord != null) {
+            isRecording = false;
+        }
 
-                mAudioRecord.stop();
-                mAudioRecord.release();
-                mAudioRecord = null;
+        // The capture thread closes the bus once its last read returns; the consumers then drain it.
+        join(recordThread);
+        recordThread = null;
+        if (mSource != null && mSource == mWarmSource) {
+            mWarmSource.stop();
+            mSource = null;
+            if (!isWarmSession) {
+                releaseWarmSource();
+            }
+        } else if (mSource != null) {
+            closeQuietly(mSource);
+            mSource = null;
+        }
+        join(writerThread);
+        writerThread = null;
+        join(analysisThread);
+        analysisThread = null;
+        join(spectrumThread);
+        spectrumThread = null;
+        synchronized (mListenerThreads) {
+            for (ListenerThread listenerThread : mListenerThreads) {
+                join(listenerThread);
             }
-            mBuffer = null;
+            mListenerThreads.clear();
+        }
+        dismiss();
+
+        Log.d(TAG, "Captured frames: " + getCapturedFrames() + ", read errors: " + mReadErrors
+                + ", writer dropped: " + getWriterDroppedFrames()
+                + ", analysis dropped: " + getAnalysisDroppedFrames()
+                + ", spectrum dropped: " + getSpectrumDroppedFrames());
+        StringBuilder metrics = new StringBuilder();
+        mMetrics.format(metrics);
+        Log.d(TAG, metrics.toString());
+        // Whatever the writer finished last goes to MediaStore now rather than after the batch delay.
+        mMediaIndexer.flush();
+    }
+
+    /**
+     * In a warm session the microphone stays open between recordings with the negotiated
+     * configuration, so start() only has to resume it. Costs the microphone being held (though not
+     * read) while idle; turn it off or call release() when the recorder is not going to be used.
+     */
+    public void setWarmSession(boolean warm) {
+        isWarmSession = warm;
+        if (warm) {
+            prepare();
+        } else if (!isRecording) {
+            releaseWarmSource();
+        }
+    }
+
+    /**
+     * Does ahead of time what start() would otherwise do before the first read: creates the
+     * recording folder and, in a warm session, opens the microphone. Optional.
+     */
+    public void prepare() {
+        getRecordingFolder();
+        if (!isWarmSession || isRecording) {
+            return;
+        }
+        if (mWarmSource != null && !mWarmProfile.equals(mCaptureProfile)) {
+            releaseWarmSource();
+        }
+        if (mWarmSource == null) {
+            mWarmSource = AudioRecordSource.create(mCaptureProfile);
+            mWarmProfile = mCaptureProfile;
+        }
+    }
+
+    /** Stops recording and frees the microphone and the indexer thread; the recorder is not usable afterwards. */
+    public void release() {
+        stop();
+        releaseWarmSource();
+        mMediaIndexer.close();
+    }
+
+    private void releaseWarmSource() {
+        if (mWarmSource != null) {
+            closeQuietly(mWarmSource);
+            mWarmSource = null;
+            mWarmProfile = null;
+        }
+    }
+
+    /** From start() being called to the first captured block being published, or -1 before that. */
+    public double getTimeToFirstSampleMillis() {
+        final long nanos = mFirstSampleNanos;
+        return nanos < 0 ? -1 : nanos / 1e6;
+    }
+
+    private void join(Thread thread) {
+        // stop() may be reached from a callback running on one of our own threads.
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Delivers every captured frame to {@code listener} on a thread of its own, from the next
+     * start() or right away if recording. All listeners share the same pooled frames; a slow one
+     * only drops its own oldest frames.
+     */
+    public void addFrameListener(FrameListener listener) {
+        synchronized (mListenerThreads) {
+            mFrameListeners.add(listener);
+            if (isRecording) {
+                startListener(listener);
+            }
+        }
+    }
+
+    public void removeFrameListener(FrameListener listener) {
+        synchronized (mListenerThreads) {
+            mFrameListeners.remove(listener);
+            for (int i = mListenerThreads.size() - 1; i >= 0; i--) {
+                final ListenerThread listenerThread = mListenerThreads.get(i);
+                if (listenerThread.mListener == listener) {
+                    mBus.unsubscribe(listenerThread.mFrames);
+                    mListenerThreads.remove(i);
+                }
+            }
+        }
+    }
+
+    private void startListener(FrameListener listener) {
+        final ListenerThread listenerThread = new ListenerThread(listener, mBus.subscribe(QUEUE_FRAMES));
+        mListenerThreads.add(listenerThread);
+        listenerThread.start();
+    }
+
+    /**
+     * Runs the pipeline from {@code source} instead of the microphone, e.g. a
+     * {@link ntu.mil.RealTimeDecibelRecorder.core.WavFileSource} to reprocess a field recording or a
+     * {@link ntu.mil.RealTimeDecibelRecorder.core.SyntheticSource} for tests; null goes back to the
+     * microphone. Sources that are not real time are read as fast as the pipeline keeps up.
+     * Takes effect on the next start(); stop() closes the source, so set a new one for every run.
+     */
+    public void setAudioSource(AudioSource source) {
+        mReplaySource = source;
+    }
+
+    /**
+     * How the microphone is opened. Recordings are written at whatever rate and channel count the
+     * device grants; level and spectrum analysis see stereo mixed down to mono. Takes effect on the
+     * next start().
+     */
+    public void setCaptureProfile(@NonNull CaptureProfile profile) {
+        mCaptureProfile = profile;
+    }
+
+    public CaptureProfile getCaptureProfile() {
+        return mCaptureProfile;
+    }
+
+    /** Sample rate of the running (or last) capture. */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Median time in milliseconds from a block's last sample reaching the microphone to its levels
+     * having been reported and checked against the alert rules, or NaN before the first block.
+     */
+    public double getMedianLatencyMillis() {
+        final MetricHistogram.Snapshot snapshot = new MetricHistogram.Snapshot();
+        mMetrics.snapshot(PipelineMetrics.Metric.CAPTURE_LATENCY, snapshot);
+        return snapshot.getCount() == 0 ? Double.NaN : snapshot.getPercentile(50) / 1e6;
+    }
+
+    /** Offset in dB added to dBFS to give dB SPL for this device's microphone. */
+    public void setCalibrationOffset(double offsetDb) {
+        mMeter.setCalibrationOffset(offsetDb);
+        if (mSoundLevelMeter != null) {
+            mSoundLevelMeter.setCalibrationOffset(offsetDb);
+        }
+        if (mSpectrumAnalyzer != null) {
+            mSpectrumAnalyzer.setCalibrationOffset(offsetDb);
+        }
+    }
+
+    /**
+     * Saves CPU, and so battery, while it is quiet: after levels stay below {@code floorDb} for a
+     * while, blocks are read four at a time and only go through the weighted sound level meter
+     * (no unweighted meter, VAD or spectrum). {@code floorDb} is on that meter's weighting. The first block at or above the floor is
+     * analyzed in full and so is everything after it until it is quiet again. Recordings are
+     * unaffected. Negative infinity, the default, always analyzes in full. Takes effect on the
+     * next start().
+     */
+    public void setAdaptiveAnalysis(double floorDb) {
+        mQuietFloorDb = floorDb;
+    }
+
+    /** Mode switching and CPU time per mode of the running (or last) capture. */
+    public DutyCycleScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /** How often onBandLevels() is called. Takes effect on the next start(). */
+    public void setSpectrumReportMillis(int millis) {
+        mSpectrumReportMillis = millis;
+    }
+
+    /** How long the VAD bridges quiet gaps inside speech. Takes effect on the next start(). */
+    public void setVadHangoverMillis(int millis) {
+        mVadHangoverMillis = millis;
+    }
+
+    /**
+     * Starts a new file every {@code minutes} of audio or about {@code megabytes} of file, whichever
+     * comes first; 0 disables either limit. By default one file is written per start(). Takes
+     * effect on the next start().
+     */
+    public void setSegmentRotation(int minutes, int megabytes) {
+        mSegmentMillis = minutes * 60 * 1000L;
+        mSegmentBytes = megabytes * 1024L * 1024L;
+    }
+
+    /**
+     * Keeps at most {@code maxFiles} recordings or {@code maxMegabytes} in the recording folder,
+     * deleting the oldest first; 0 disables either limit. Takes effect on the next start().
+     */
+    public void setRetention(int maxFiles, int maxMegabytes) {
+        mMaxSegments = maxFiles;
+        mMaxTotalBytes = maxMegabytes * 1024L * 1024L;
+    }
+
+    /**
+     * Length of the intervals whose Leq, Lmax and Lmin are logged while recording; 0 turns the
+     * level log off. Takes effect on the next start().
+     */
+    public void setLevelLogInterval(int millis) {
+        mLevelLogIntervalMillis = millis;
+    }
+
+    /** Where the level log lives; private to the app, so no storage permission is needed. */
+    public File getLevelLogDirectory() {
+        return new File(mContext.getFilesDir(), LEVEL_LOG_FOLDER);
+    }
+
+    /** Evaluated on the weighted level from now on, including during a recording. */
+    public void addAlertRule(AlertRule rule) {
+        synchronized (mAlertRules) {
+            mAlertRules.add(rule);
+            if (mAlertEngine != null) {
+                mAlertEngine.addRule(rule);
+            }
+        }
+    }
+
+    public void removeAlertRule(AlertRule rule) {
+        synchronized (mAlertRules) {
+            mAlertRules.remove(rule);
+            if (mAlertEngine != null) {
+                mAlertEngine.removeRule(rule);
+            }
+        }
+    }
+
+    /**
+     * Copies the level histogram of the minute, hour or day in progress, e.g. for
+     * {@link LevelHistogram#getExceededLevel(double)}. Callable from any thread.
+     */
+    public void getStatistics(LevelStatistics.Window window, LevelHistogram dest) {
+        mStatistics.getCurrent(window, dest);
+    }
+
+    /** Reads the logged levels without touching any audio file. */
+    public LevelLogReader openLevelLog() {
+        return new LevelLogReader(getLevelLogDirectory());
+    }
+
+    /** Reads the logged levels at a resolution that fits a chart, from seconds up to weeks. */
+    public LevelHistory openLevelHistory() {
+        return new LevelHistory(getLevelLogDirectory(), mLevelLogIntervalMillis > 0
+                ? mLevelLogIntervalMillis : DEFAULT_LEVEL_LOG_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Level report over every 16-bit recording in the recording folder, computed on all cores
+     * with the current weighting and calibration. Blocks; call it off the UI thread. ADPCM files
+     * are listed with an error.
+     */
+    public BatchAnalyzer.Report analyzeRecordings() {
+        final ForkJoinPool pool = new ForkJoinPool();
+        try {
+            final BatchAnalyzer analyzer = new BatchAnalyzer(pool, mFrequencyWeighting, mTimeWeighting);
+            analyzer.setCalibrationOffset(mMeter.getCalibrationOffset());
+            return analyzer.analyze(listRecordings());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Recordings in the recording folder, oldest first. */
+    public File[] getRecordings() {
+        return listRecordings();
+    }
+
+    /**
+     * Waveform overview of a recording, read from the peaks file written alongside it; null if it
+     * has none yet, see {@link #backfillPeaks()}.
+     */
+    public PeakReader openPeaks(File recording) {
+        return PeakReader.open(recording);
+    }
+
+    /**
+     * Writes the missing peaks files of older recordings, one streaming pass per file. Blocks; call
+     * it off the UI thread. ADPCM recordings only get peaks while being recorded.
+     *
+     * @return the number of peaks files written.
+     */
+    public int backfillPeaks() {
+        int written = 0;
+        for (File recording : listRecordings()) {
+            if (!PeakFile.needsBackfill(recording)) {
+                continue;
+            }
+            try {
+                PeakWriter.backfill(recording);
+                written++;
+            } catch (IOException e) {
+                Log.w(TAG, "No peaks for " + recording.getName() + ": " + e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    /** Takes effect on the next start(). */
+    public void setRecordingFormat(RecordingFormat format) {
+        mRecordingFormat = format;
+    }
+
+    /** Takes effect on the next start(). */
+    public void setCaptureMode(CaptureMode mode) {
+        mCaptureMode = mode;
+    }
+
+    /**
+     * In event mode, how much audio before the trigger and after it goes quiet is kept, and the
+     * level in dB that starts an {@link CaptureMode#EVENT_LEVEL} event. Takes effect on the next start().
+     */
+    public void setEventCapture(int preRollMillis, int postRollMillis, double levelThresholdDb) {
+        mPreRollMillis = preRollMillis;
+        mPostRollMillis = postRollMillis;
+        mEventLevelDb = levelThresholdDb;
+    }
+
+    /** Takes effect on the next start(). */
+    public void setWeighting(FrequencyWeighting frequencyWeighting, SoundLevelMeter.TimeWeighting timeWeighting) {
+        mFrequencyWeighting = frequencyWeighting;
+        mTimeWeighting = timeWeighting;
+    }
 
-            copyWavFile(mTempFilename, mFilename);
-            deleteTempFile();
+    /** Frequency weighting of the levels reported: the running meter's, or the next start()'s. */
+    public FrequencyWeighting getFrequencyWeighting() {
+        final SoundLevelMeter meter = mSoundLevelMeter;
+        return meter != null ? meter.getFrequencyWeighting() : mFrequencyWeighting;
+    }
+
+    public long getCapturedFrames() {
+        return mBus == null ? 0 : mBus.getPublishedFrames();
+    }
+
+    public long getReadErrors() {
+        return mReadErrors;
+    }
+
+    /** Frames the file writer lost because it fell behind the capture thread. */
+    public long getWriterDroppedFrames() {
+        return mWriterFrames == null ? 0 : mWriterFrames.getDroppedFrames();
+    }
+
+    /** Frames the voice analysis lost because it (or the callback) fell behind the capture thread. */
+    public long getAnalysisDroppedFrames() {
+        return mAnalysisFrames == null ? 0 : mAnalysisFrames.getDroppedFrames();
+    }
+
+    public long getSpectrumDroppedFrames() {
+        return mSpectrumFrames == null ? 0 : mSpectrumFrames.getDroppedFrames();
+    }
+
+    /**
+     * Latency, size and queue depth histograms of the running pipeline, reset on start(). Recording
+     * is allocation-free and always on; callers may add their own stages, e.g. UI frame delay.
+     */
+    public PipelineMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /** Appends the loss counters and a summary of every histogram, for logs or a debug overlay. */
+    public void formatMetrics(StringBuilder out) {
+        out.append("first sample ").append(String.format(Locale.US, "%.1f", getTimeToFirstSampleMillis())).append(" ms\n")
+                .append("frames ").append(getCapturedFrames())
+                .append("  read errors ").append(mReadErrors).append('\n')
+                .append("dropped writer ").append(getWriterDroppedFrames())
+                .append("  analysis ").append(getAnalysisDroppedFrames())
+                .append("  spectrum ").append(getSpectrumDroppedFrames()).append('\n')
+                .append("frame pool ").append(mFramePool == null ? 0 : mFramePool.getAllocatedFrames()).append('\n');
+        final DutyCycleScheduler scheduler = mScheduler;
+        for (DutyCycleScheduler.Mode mode : DutyCycleScheduler.Mode.values()) {
+            out.append(String.format(Locale.US, "cpu %-6s %.2f ms per audio s over %.0f s%n", mode.name().toLowerCase(Locale.US),
+                    scheduler.getCpuMillisPerAudioSecond(mode), scheduler.getAudioSeconds(mode)));
         }
+        mMetrics.format(out);
     }
 
     public void dismiss() {
@@ -118,240 +717,476 @@ public class VoiceRecorder {
         }
     }
 
-    private AudioRecord createAudioRecord() {
-        for (int sampleRate : SAMPLE_RATE_CANDIDATES) {
-            bufferSize = AudioRecord.getMinBufferSize(sampleRate, CHANNEL, ENCODING);
-            if (bufferSize == AudioRecord.ERROR_BAD_VALUE) {
-                continue;
+    private class ProcessVoice implements Runnable {
+        @Override
+        public void run() {
+            // Only read and publish here; anything slow belongs to the consumers.
+            final AudioSource source = mSource;
+            final DutyCycleScheduler scheduler = mScheduler;
+            final int frameSamples = source.getFrameSamples();
+            boolean ended = false;
+            while (isRecording && !ended) {
+                final long cpuStart = Debug.threadCpuTimeNanos();
+                final DutyCycleScheduler.Mode mode = scheduler.getMode();
+                final AudioFrame frame = mFramePool.acquire();
+                final short[] samples = frame.getSamples();
+                final long readStart = System.nanoTime();
+                int read;
+                try {
+                    read = source.read(samples, 0, mode == DutyCycleScheduler.Mode.QUIET ? samples.length : frameSamples);
+                } catch (IOException e) {
+                    read = 0;
+                    mReadErrors++;
+                    Log.w(TAG, e.getMessage());
+                }
+                mMetrics.record(PipelineMetrics.Metric.READ_LATENCY, System.nanoTime() - readStart);
+                if (read > 0) {
+                    mMetrics.record(PipelineMetrics.Metric.READ_SIZE, read);
+                    if (mFirstSampleNanos < 0) {
+                        mFirstSampleNanos = System.nanoTime() - mStartNanos;
+                        Log.d(TAG, "First sample after " + getTimeToFirstSampleMillis() + " ms");
+                    }
+                    mBus.publish(frame, read, source.getTimestampMillis(), source.getCaptureNanos());
+                } else {
+                    frame.release();
+                    ended = read == AudioSource.END_OF_STREAM;
+                }
+                scheduler.recordCpu(mode, Debug.threadCpuTimeNanos() - cpuStart);
+            }
+            mBus.close();
+            // After closing the bus, so the callback may call stop() without waiting on itself.
+            if (ended) {
+                mCallback.onSourceEnd();
             }
-            final AudioRecord audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, CHANNEL, ENCODING, bufferSize);
-            if (audioRecord.getState() == AudioRecord.STATE_INITIALIZED) {
-                mBuffer = new byte[bufferSize];
-                return audioRecord;
-            } else
-                audioRecord.release();
         }
-        return null;
     }
 
-    private class ProcessVoice implements Runnable {
+    private class WriteVoice implements Runnable {
         @Override
         public void run() {
-            mTempFilename = getTempFilename();
-            mFilename = getFilename();
-            FileOutputStream os = null;
+            final int channels = mFramePool.getChannels();
+            if (mCaptureMode == CaptureMode.CONTINUOUS) {
+                writeContinuous(channels);
+            } else {
+                writeEvents(channels);
+            }
+        }
+
+        private void writeContinuous(int channels) {
+            // The size limit counts 16-bit samples; ADPCM files come out at a quarter of that.
+            final long segmentBytes = mRecordingFormat == RecordingFormat.IMA_ADPCM ? mSegmentBytes * 4 : mSegmentBytes;
+            SegmentedRecorder recorder = new SegmentedRecorder(mNamer, mSegmentListener,
+                    sinkFactory(mSampleRate, channels, mFramePool.getFrameCapacity()), mSampleRate, channels, mSegmentMillis, segmentBytes);
+            if (mMaxSegments > 0 || mMaxTotalBytes > 0) {
+                recorder.setRetention(listRecordings(), mMaxSegments, mMaxTotalBytes);
+            }
             try {
-                os = new FileOutputStream(mTempFilename);
-            } catch (FileNotFoundException e) {
+                recorder.open(System.currentTimeMillis());
+            } catch (IOException e) {
                 e.printStackTrace();
+                closeQuietly(recorder);
+                recorder = null;
             }
 
-            while (isRecording) {
-                synchronized (mLock) {
-                    if (Thread.currentThread().isInterrupted()) {
-                        Log.d(TAG,"ProcessVoice_isInterrupt");
-                        break;
-                    }
-                    // Read voice bytes here. mBuffer has the info that we want to deal with.
-                    final int read = mAudioRecord.read(mBuffer, 0, mBuffer.length);
-                    final long now = System.currentTimeMillis();
-
-                    // Record file here
-                    if (AudioRecord.ERROR_INVALID_OPERATION != read) {
-                        try {
-                            os.write(mBuffer);
-                        } catch (IOException e) {
-                            end();
-                            try {
-                                os.close();
-                            } catch (IOException err) {
-                                err.printStackTrace();
-                            }
-                            e.printStackTrace();
-                        }
+            while (!mWriterFrames.isDrained()) {
+                final AudioFrame frame = mWriterFrames.take(CONSUMER_WAIT_MILLIS);
+                if (frame == null) {
+                    continue;
+                }
+                mMetrics.record(PipelineMetrics.Metric.WRITER_QUEUE, mWriterFrames.getQueueDepth());
+                final long cpuStart = Debug.threadCpuTimeNanos();
+                final long writeStart = System.nanoTime();
+                try {
+                    // Rolls over to the already opened next file; the finished one is closed in the background.
+                    if (recorder != null) {
+                        recorder.write(frame.getSamples(), 0, frame.getLength());
+                        mMetrics.record(PipelineMetrics.Metric.WRITE_LATENCY, System.nanoTime() - writeStart);
                     }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    closeQuietly(recorder);
+                    recorder = null;
+                } finally {
+                    frame.release();
+                }
+                mScheduler.recordCpu(mScheduler.getMode(), Debug.threadCpuTimeNanos() - cpuStart);
+            }
+            closeQuietly(recorder);
+        }
 
-                    // If it doesn't hear any voice for three seconds, then stop recording the voice.
-                    if (isHearingVoice(mBuffer, read)) {
-                        if (mLastVoiceHeardMillis == Long.MAX_VALUE) {
-                            mVoiceStartedMillis = now;
-                            sentenceCompleted = false;
-                            mCallback.onVoiceStart(mUIFilename);
-                        }
-
-                        if (now - mVoiceStartedMillis > MAX_SPEECH_LENGTH_MILLIS) {
-                            sentenceCompleted = true;
-                        }
-
-                        mCallback.onVoice(mBuffer, read, sentenceCompleted);
-                        mLastVoiceHeardMillis = now;
-                        if (now - mVoiceStartedMillis > MAX_SPEECH_LENGTH_MILLIS) {
-                            end();
-                            try {
-                                os.close();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    } else if (mLastVoiceHeardMillis != Long.MAX_VALUE) {
-                        if (now - mLastVoiceHeardMillis > SPEECH_TIMEOUT_MILLIS) {
-                            sentenceCompleted = true;
-                        }
-                        mCallback.onVoice(mBuffer, read, sentenceCompleted);
-                        if (now - mLastVoiceHeardMillis > SPEECH_TIMEOUT_MILLIS) {
-                            end();
-                            try {
-                                os.close();
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
+        private void writeEvents(int channels) {
+            // The writer thread runs its own trigger so it sees exactly the frames it saves.
+            final EventTrigger trigger;
+            if (mCaptureMode == CaptureMode.EVENT_VOICE) {
+                // Same hangover as the live VAD, so event files and voice callbacks agree.
+                final VoiceActivityDetector vad = new VoiceActivityDetector(mSampleRate);
+                vad.setHangoverMillis(mVadHangoverMillis);
+                trigger = vad;
+            } else {
+                trigger = new LevelTrigger(mEventLevelDb, mMeter.getCalibrationOffset());
+            }
+            EventRecorder recorder = new EventRecorder(mNamer, mEventListener, trigger,
+                    sinkFactory(mSampleRate, channels, mFramePool.getFrameCapacity()), mSampleRate, channels, mPreRollMillis, mPostRollMillis);
+
+            while (!mWriterFrames.isDrained()) {
+                final AudioFrame frame = mWriterFrames.take(CONSUMER_WAIT_MILLIS);
+                if (frame == null) {
+                    continue;
+                }
+                mMetrics.record(PipelineMetrics.Metric.WRITER_QUEUE, mWriterFrames.getQueueDepth());
+                final long cpuStart = Debug.threadCpuTimeNanos();
+                final long writeStart = System.nanoTime();
+                try {
+                    if (recorder != null) {
+                        recorder.process(frame.getSamples(), 0, frame.getLength(), frame.getTimestampMillis());
+                        mMetrics.record(PipelineMetrics.Metric.WRITE_LATENCY, System.nanoTime() - writeStart);
                     }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    closeQuietly(recorder);
+                    recorder = null;
+                } finally {
+                    frame.release();
                 }
+                mScheduler.recordCpu(mScheduler.getMode(), Debug.threadCpuTimeNanos() - cpuStart);
             }
+            closeQuietly(recorder);
         }
-        private void end() {
-            mLastVoiceHeardMillis = Long.MAX_VALUE;
-            mCallback.onVoiceEnd();
+
+    }
+
+    // Encoding happens on the writer thread; the capture thread never waits for it.
+    // Every recording gets a peaks file alongside, built from the same blocks.
+    AudioSink.Factory sinkFactory(int sampleRate, int channels, int maxFrameSamples) {
+        final AudioSink.Factory audio = mRecordingFormat == RecordingFormat.IMA_ADPCM
+                ? ImaAdpcmWavWriter.factory(sampleRate, channels)
+                : WavWriter.factory(sampleRate, channels, maxFrameSamples);
+        return PeakWriter.factory(audio, sampleRate, channels);
+    }
+
+    /** A file for a recording of {@code input} starting at {@code startMillis}, named like any other. */
+    File fileFor(long startMillis, String input) {
+        return new File(getFilename(startMillis, input));
+    }
+
+    /** Hands a finished recording made outside start()/stop() to MediaStore. */
+    void onRecordingFinished(File file) {
+        mMediaIndexer.add(file);
+    }
+
+    /**
+     * Records several inputs at once into the recording folder, in the recording format set here,
+     * with peaks files and MediaStore entries like the recordings of start(). Release it before
+     * this recorder.
+     */
+    public MultiSourceRecorder newMultiSourceRecorder() {
+        return new MultiSourceRecorder(this);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
         }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final SegmentedRecorder.Namer mNamer = new SegmentedRecorder.Namer() {
+        @Override
+        public File fileFor(long startMillis) {
+            return new File(getFilename(startMillis, null));
+        }
+    };
+
+    private final SegmentedRecorder.Listener mSegmentListener = new SegmentedRecorder.Listener() {
+        @Override
+        public void onSegmentStarted(File file) {
+            mFilename = file.getAbsolutePath();
+            mUIFilename = file.getName();
+        }
+
+        @Override
+        public void onSegmentFinished(File file, long dataBytes) {
+            Log.d(TAG, "Finished " + file.getName() + ": " + dataBytes + " bytes");
+            mMediaIndexer.add(file);
+            mCallback.onSegmentFinished(file.getName());
+        }
+    };
 
-        private boolean isHearingVoice(byte[] buffer, int size) {
-            for (int i = 0; i < size - 1; i += 2) {
-                // The buffer has LINEAR16 in little endian.
-                int s = buffer[i + 1];
-                if (s < 0) s *= -1;
-                s <<= 8;
-                s += Math.abs(buffer[i]);
-                if (s > AMPLITUDE_THRESHOLD) {
-                    return true;
+    private class AnalyzeVoice implements Runnable {
+        private LevelAccumulator mLevelAccumulator;
+        private LevelPyramid mLevelLog;
+        private short[] mMono;
+
+        @Override
+        public void run() {
+            if (mLevelLogIntervalMillis > 0) {
+                mLevelAccumulator = new LevelAccumulator(mLevelLogIntervalMillis);
+                mLevelLog = new LevelPyramid(getLevelLogDirectory());
+            }
+            if (mFramePool.getChannels() > 1) {
+                mMono = new short[mFramePool.getFrameCapacity() / mFramePool.getChannels()];
+            }
+            while (!mAnalysisFrames.isDrained()) {
+                final AudioFrame frame = mAnalysisFrames.take(CONSUMER_WAIT_MILLIS);
+                if (frame == null) {
+                    continue;
+                }
+                mMetrics.record(PipelineMetrics.Metric.ANALYSIS_QUEUE, mAnalysisFrames.getQueueDepth());
+                final long cpuStart = Debug.threadCpuTimeNanos();
+                final DutyCycleScheduler scheduler = mScheduler;
+                DutyCycleScheduler.Mode mode = DutyCycleScheduler.Mode.ACTIVE;
+                try {
+                    final short[] samples = mMono != null ? mMono : frame.getSamples();
+                    final int length = mMono != null ? frame.mixToMono(mMono) : frame.getLength();
+                    // Always metered, so Leq and everything fed from it keep one weighting in both modes.
+                    mSoundLevelMeter.process(samples, 0, length);
+                    if (scheduler.offerQuiet(mSoundLevelMeter.getBlockLeq())) {
+                        mode = DutyCycleScheduler.Mode.QUIET;
+                        analyzeQuiet(length, frame.getTimestampMillis());
+                    } else {
+                        analyze(samples, length, frame.getTimestampMillis());
+                    }
+                    mMetrics.record(PipelineMetrics.Metric.CAPTURE_LATENCY, System.nanoTime() - frame.getCaptureNanos());
+                    scheduler.recordAudio(mode, length);
+                } finally {
+                    frame.release();
+                }
+                scheduler.recordCpu(mode, Debug.threadCpuTimeNanos() - cpuStart);
+            }
+            mStatistics.finishAll();
+            if (mLevelAccumulator != null && mLevelAccumulator.flush()) {
+                logLevels();
+            }
+            if (mLevelLog != null) {
+                try {
+                    mLevelLog.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
             }
-            return false;
         }
-    }
-    private void copyWavFile(String in, String out){
-        try{
-            FileInputStream is = new FileInputStream(in);
-            FileOutputStream os = new FileOutputStream(out);
 
-            long totalAudioLength = is.getChannel().size();
-            long totalDataLength = totalAudioLength + 36;
-            int channels = CHANNEL == AudioFormat.CHANNEL_IN_MONO ? 1 : 2;
-            long byteRate = RECORDER_BPP * SAMPLE_RATE * channels / 8;
-            byte[] data = new byte[bufferSize];
+        private void analyze(short[] buffer, int read, long now) {
+            mMeter.process(buffer, 0, read);
+            final long callbackStart = System.nanoTime();
+            mCallback.onLevel((float) mMeter.getDbSpl(), (float) mMeter.getTruePeakDbfs());
+            mCallback.onSoundLevel((float) mSoundLevelMeter.getLevel(), (float) mSoundLevelMeter.getLeq(),
+                    (float) mSoundLevelMeter.getMaxLevel());
+            mMetrics.record(PipelineMetrics.Metric.CALLBACK_LATENCY, System.nanoTime() - callbackStart);
+            aggregate(read, now);
+
+            // If it doesn't hear any voice for three seconds, then stop recording the voice.
+            if (mVad.process(buffer, 0, read)) {
+                if (mLastVoiceHeardMillis == Long.MAX_VALUE) {
+                    mVoiceStartedMillis = now;
+                    sentenceCompleted = false;
+                    mCallback.onVoiceStart(mUIFilename);
+                }
 
-            writeWaveFileHeader(os, totalAudioLength, totalDataLength, SAMPLE_RATE, channels, byteRate);
+                if (now - mVoiceStartedMillis > MAX_SPEECH_LENGTH_MILLIS) {
+                    sentenceCompleted = true;
+                }
 
-            while(is.read(data) != -1){
-                os.write(data);
+                mCallback.onVoice(buffer, read, sentenceCompleted);
+                mLastVoiceHeardMillis = now;
+                if (now - mVoiceStartedMillis > MAX_SPEECH_LENGTH_MILLIS) {
+                    end();
+                }
+            } else if (mLastVoiceHeardMillis != Long.MAX_VALUE) {
+                if (now - mLastVoiceHeardMillis > SPEECH_TIMEOUT_MILLIS) {
+                    sentenceCompleted = true;
+                }
+                mCallback.onVoice(buffer, read, sentenceCompleted);
+                if (now - mLastVoiceHeardMillis > SPEECH_TIMEOUT_MILLIS) {
+                    end();
+                }
             }
+            // The same weighted level offerQuiet() sees, so both sides of the floor compare alike.
+            mScheduler.onActiveBlock(mSoundLevelMeter.getBlockLeq(), read, mLastVoiceHeardMillis != Long.MAX_VALUE);
+        }
 
-            is.close();
-            os.close();
+        // Weighted levels only, already metered; no VAD, so no voice starts while quiet.
+        private void analyzeQuiet(int read, long now) {
+            final long callbackStart = System.nanoTime();
+            mCallback.onSoundLevel((float) mSoundLevelMeter.getLevel(), (float) mSoundLevelMeter.getLeq(),
+                    (float) mSoundLevelMeter.getMaxLevel());
+            mMetrics.record(PipelineMetrics.Metric.CALLBACK_LATENCY, System.nanoTime() - callbackStart);
+            aggregate(read, now);
+        }
 
-        }catch (IOException e){
-            e.printStackTrace();
+        // Statistics, alerts and the level log, from the block just measured.
+        private void aggregate(int read, long now) {
+            mStatistics.add(now, mSoundLevelMeter.getLevel(), read);
+            mAlertEngine.process(now, mSoundLevelMeter.getBlockLeq(), mSoundLevelMeter.getBlockMaxLevel(),
+                    mSoundLevelMeter.getBlockMinLevel(), read);
+            if (mLevelAccumulator != null && mLevelAccumulator.add(now, mSoundLevelMeter.getBlockLeq(), read,
+                    mSoundLevelMeter.getBlockMaxLevel(), mSoundLevelMeter.getBlockMinLevel())) {
+                logLevels();
+            }
+        }
+
+        private void logLevels() {
+            if (mLevelLog == null) {
+                return;
+            }
+            try {
+                mLevelLog.append(mLevelAccumulator.getStartMillis(), mLevelAccumulator.getLeq(),
+                        mLevelAccumulator.getMaxLevel(), mLevelAccumulator.getMinLevel());
+            } catch (IOException e) {
+                e.printStackTrace();
+                mLevelLog = null;
+            }
+        }
+        private void end() {
+            mLastVoiceHeardMillis = Long.MAX_VALUE;
+            mCallback.onVoiceEnd();
         }
     }
 
-    private void writeWaveFileHeader(FileOutputStream out, long totalAudioLen, long totalDataLen, long longSampleRate, int channels, long byteRate) throws IOException {
-
-        byte[] header = new byte[44];
-
-        header[0] = 'R'; // RIFF/WAVE header
-        header[1] = 'I';
-        header[2] = 'F';
-        header[3] = 'F';
-        header[4] = (byte) (totalDataLen & 0xff);
-        header[5] = (byte) ((totalDataLen >> 8) & 0xff);
-        header[6] = (byte) ((totalDataLen >> 16) & 0xff);
-        header[7] = (byte) ((totalDataLen >> 24) & 0xff);
-        header[8] = 'W';
-        header[9] = 'A';
-        header[10] = 'V';
-        header[11] = 'E';
-        header[12] = 'f'; // 'fmt ' chunk
-        header[13] = 'm';
-        header[14] = 't';
-        header[15] = ' ';
-        header[16] = 16; // 4 bytes: size of 'fmt ' chunk
-        header[17] = 0;
-        header[18] = 0;
-        header[19] = 0;
-        header[20] = 1; // format = 1
-        header[21] = 0;
-        header[22] = (byte) channels;
-        header[23] = 0;
-        header[24] = (byte) (longSampleRate & 0xff);
-        header[25] = (byte) ((longSampleRate >> 8) & 0xff);
-        header[26] = (byte) ((longSampleRate >> 16) & 0xff);
-        header[27] = (byte) ((longSampleRate >> 24) & 0xff);
-        header[28] = (byte) (byteRate & 0xff);
-        header[29] = (byte) ((byteRate >> 8) & 0xff);
-        header[30] = (byte) ((byteRate >> 16) & 0xff);
-        header[31] = (byte) ((byteRate >> 24) & 0xff);
-        header[32] = (byte) (2 * 16 / 8); // block align
-        header[33] = 0;
-        header[34] = RECORDER_BPP; // bits per sample
-        header[35] = 0;
-        header[36] = 'd';
-        header[37] = 'a';
-        header[38] = 't';
-        header[39] = 'a';
-        header[40] = (byte) (totalAudioLen & 0xff);
-        header[41] = (byte) ((totalAudioLen >> 8) & 0xff);
-        header[42] = (byte) ((totalAudioLen >> 16) & 0xff);
-        header[43] = (byte) ((totalAudioLen >> 24) & 0xff);
-
-        out.write(header, 0, 44);
-    }
-
-    private String getFilename(){
+    private class AnalyzeSpectrum implements Runnable {
+        @Override
+        public void run() {
+            final SpectrumAnalyzer analyzer = mSpectrumAnalyzer;
+            final float[] octaveFrequencies = new float[analyzer.getOctaveBandCount()];
+            final float[] octaveLevels = new float[octaveFrequencies.length];
+            final float[] thirdOctaveFrequencies = new float[analyzer.getThirdOctaveBandCount()];
+            final float[] thirdOctaveLevels = new float[thirdOctaveFrequencies.length];
+            analyzer.getOctaveFrequencies(octaveFrequencies);
+            analyzer.getThirdOctaveFrequencies(thirdOctaveFrequencies);
+            final short[] mono = mFramePool.getChannels() > 1
+                    ? new short[mFramePool.getFrameCapacity() / mFramePool.getChannels()] : null;
 
-        String filepath = Environment.getExternalStorageDirectory().getPath();
-        File file = new File(filepath,AUDIO_RECORDER_FOLDER);
-        if(!file.exists()){
-            boolean created = file.mkdirs();
-            Log.d(TAG, "File created: " + created);
+            while (!mSpectrumFrames.isDrained()) {
+                final AudioFrame frame = mSpectrumFrames.take(CONSUMER_WAIT_MILLIS);
+                if (frame == null) {
+                    continue;
+                }
+                mMetrics.record(PipelineMetrics.Metric.SPECTRUM_QUEUE, mSpectrumFrames.getQueueDepth());
+                final DutyCycleScheduler.Mode mode = mScheduler.getMode();
+                if (mode == DutyCycleScheduler.Mode.QUIET) {
+                    frame.release();
+                    continue;
+                }
+                final long cpuStart = Debug.threadCpuTimeNanos();
+                final long start = System.nanoTime();
+                final boolean reported = mono != null
+                        ? analyzer.process(mono, 0, frame.mixToMono(mono))
+                        : analyzer.process(frame.getSamples(), 0, frame.getLength());
+                frame.release();
+                if (reported) {
+                    analyzer.getOctaveLevels(octaveLevels);
+                    analyzer.getThirdOctaveLevels(thirdOctaveLevels);
+                    mCallback.onBandLevels(octaveFrequencies, octaveLevels, thirdOctaveFrequencies, thirdOctaveLevels);
+                }
+                mMetrics.record(PipelineMetrics.Metric.SPECTRUM_LATENCY, System.nanoTime() - start);
+                mScheduler.recordCpu(mode, Debug.threadCpuTimeNanos() - cpuStart);
+            }
         }
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(MediaStore.Video.Media.MIME_TYPE, getMIMEType(file.getAbsolutePath() + "/" + System.currentTimeMillis() + AUDIO_RECORDER_FILE_EXT_WAV));
-        values.put(MediaStore.Video.Media.TITLE, file.getName());
-        values.put(MediaStore.Video.Media.DATA, file.getAbsolutePath());
-        mContext.getContentResolver().insert(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, values);
+    private static class ListenerThread extends Thread {
+        final FrameListener mListener;
+        final FrameBus.Subscription mFrames;
+
+        ListenerThread(FrameListener listener, FrameBus.Subscription frames) {
+            super("VoiceRecorder-listener");
+            mListener = listener;
+            mFrames = frames;
+        }
 
-        SimpleDateFormat sdf = new SimpleDateFormat("dd_HH_mm_ss");
-        Date filedate = new Date(System.currentTimeMillis());
-        String filename = sdf.format(filedate);
-        mUIFilename = filename + AUDIO_RECORDER_FILE_EXT_WAV;
-        return (file.getAbsolutePath() + "/" + filename + AUDIO_RECORDER_FILE_EXT_WAV);
+        @Override
+        public void run() {
+            while (!mFrames.isDrained()) {
+                final AudioFrame frame = mFrames.take(CONSUMER_WAIT_MILLIS);
+                if (frame == null) {
+                    continue;
+                }
+                try {
+                    mListener.onFrame(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+        }
     }
+    private final AlertEngine.Listener mAlertListener = new AlertEngine.Listener() {
+        @Override
+        public void onAlert(AlertRule rule, long timeMillis, double value) {
+            Log.d(TAG, "Alert " + rule + " at " + timeMillis + ": " + value);
+            mCallback.onAlert(rule, timeMillis, (float) value);
+        }
+    };
 
-    private String getTempFilename(){
-        String filepath = Environment.getExternalStorageDirectory().getPath();
-        File file = new File(filepath,AUDIO_RECORDER_FOLDER);
+    private final EventRecorder.Listener mEventListener = new EventRecorder.Listener() {
+        @Override
+        public void onEventStarted(File file) {
+            mFilename = file.getAbsolutePath();
+            mUIFilename = file.getName();
+        }
+
+        @Override
+        public void onEventFinished(File file, long dataBytes) {
+            Log.d(TAG, "Event " + file.getName() + ": " + dataBytes + " bytes");
+            mMediaIndexer.add(file);
+            mCallback.onSegmentFinished(file.getName());
+        }
+    };
 
+    private File getRecordingFolder() {
+        File file = mRecordingFolder;
+        if (file != null) {
+            return file;
+        }
+        String filepath = Environment.getExternalStorageDirectory().getPath();
+        file = new File(filepath,AUDIO_RECORDER_FOLDER);
         if(!file.exists()){
             boolean created = file.mkdirs();
             Log.d(TAG, "File created: " + created);
-            Log.d(TAG, "File created: " + filepath);
         }
+        mRecordingFolder = file;
+        return file;
+    }
 
-        File tempFile = new File(file.getAbsolutePath(),AUDIO_RECORDER_TEMP_FILE);
-
-        if(tempFile.exists()){
-            boolean deleted = tempFile.delete();
-            Log.d(TAG, "File deleted: " + deleted);
+    /** Earlier recordings in the recording folder, oldest first. */
+    private File[] listRecordings() {
+        File[] files = getRecordingFolder().listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().matches(AUDIO_RECORDER_FILE_PATTERN);
+            }
+        });
+        if (files == null) {
+            return new File[0];
         }
-
-        return (file.getAbsolutePath() + "/" + AUDIO_RECORDER_TEMP_FILE);
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        return files;
     }
 
-    private void deleteTempFile() {
-        File file = new File(getTempFilename());
+    private String getFilename(long startMillis, String input){
+
+        // Only the name: the file is registered with MediaStore by mMediaIndexer once it is finished.
+        File folder = getRecordingFolder();
 
-        boolean deleted = file.delete();
-        Log.d(TAG, "File deleted:" + deleted);
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US);
+        String filename = sdf.format(new Date(startMillis));
+        if (input != null) {
+            filename += "_" + input;
+        }
+        File file = new File(folder, filename + AUDIO_RECORDER_FILE_EXT_WAV);
+        // Two starts within a second, or the clock set back: never open, and so truncate, an existing recording.
+        for (int i = 2; file.exists(); i++) {
+            file = new File(folder, filename + "_" + i + AUDIO_RECORDER_FILE_EXT_WAV);
+        }
+        return file.getAbsolutePath();
     }
 }
@@ -0,0 +1,65 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of evaluating a rule set for one 40 ms block, the unit the analysis thread feeds. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AlertEngineBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK = 640;
+    private static final int BLOCK_MILLIS = BLOCK * 1000 / SAMPLE_RATE;
+
+    @Param({"4", "36"})
+    public int rules;
+
+    private AlertEngine mEngine;
+    private double[] mLevels;
+    private int mPosition;
+    private long mNow;
+    private int mAlerts;
+
+    @Setup
+    public void setUp() {
+        mEngine = new AlertEngine(SAMPLE_RATE, new AlertEngine.Listener() {
+            @Override
+            public void onAlert(AlertRule rule, long timeMillis, double value) {
+                mAlerts++;
+            }
+        });
+        final long[] windows = {10 * 1000L, 60 * 1000L, 5 * 60 * 1000L};
+        for (int i = 0; i < rules; i++) {
+            final long window = windows[i % windows.length];
+            final double threshold = 60 + i % 30;
+            switch (i % 4) {
+                case 0: mEngine.addRule(AlertRule.leqAbove("leq" + i, window, threshold)); break;
+                case 1: mEngine.addRule(AlertRule.maxAbove("max" + i, window, threshold)); break;
+                case 2: mEngine.addRule(AlertRule.minAbove("min" + i, window, threshold)); break;
+                default: mEngine.addRule(AlertRule.exceedances("count" + i, window, threshold, 2)); break;
+            }
+        }
+        // Levels wandering between 45 and 95 dB, so rules keep raising and re-arming.
+        mLevels = new double[4096];
+        for (int i = 0; i < mLevels.length; i++) {
+            mLevels[i] = 70 + 25 * Math.sin(i * 0.013) * Math.sin(i * 0.17);
+        }
+    }
+
+    @Benchmark
+    public int block() {
+        final double level = mLevels[mPosition++ & (mLevels.length - 1)];
+        mNow += BLOCK_MILLIS;
+        mEngine.process(mNow, level, level + 3, level - 3, BLOCK);
+        return mAlerts;
+    }
+}
@@ -0,0 +1,75 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Time to read back a day and an hour of one-second level records. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LevelLogBenchmark {
+    private static final long DAY_START = 19000L * LevelLog.DAY_MILLIS;
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private File mDirectory;
+    private LevelLogReader mReader;
+    private final Sum mSum = new Sum();
+
+    private static class Sum implements LevelLog.Visitor {
+        double value;
+
+        @Override
+        public void onRecord(long startMillis, float leq, float maxLevel, float minLevel) {
+            value += leq;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("levellog", "");
+        if (!mDirectory.delete()) {
+            throw new IOException("Cannot replace " + mDirectory);
+        }
+        LevelLogWriter writer = new LevelLogWriter(mDirectory);
+        for (int s = 0; s < SECONDS_PER_DAY; s++) {
+            writer.append(DAY_START + s * 1000L, 40 + s % 30, 70, 35);
+        }
+        writer.close();
+        mReader = new LevelLogReader(mDirectory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public double scanDay() throws IOException {
+        mReader.scan(DAY_START, DAY_START + LevelLog.DAY_MILLIS, mSum);
+        return mSum.value;
+    }
+
+    @Benchmark
+    public double scanHour() throws IOException {
+        final long from = DAY_START + 13 * 3600 * 1000L;
+        mReader.scan(from, from + 3600 * 1000L, mSum);
+        return mSum.value;
+    }
+}
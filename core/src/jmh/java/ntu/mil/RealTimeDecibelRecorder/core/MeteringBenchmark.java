@@ -0,0 +1,73 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Samples per second through the block meter, the weighted sound level meter and the band analyzer. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MeteringBenchmark {
+    private static final int BLOCK = 640;
+
+    @Param({"16000", "44100"})
+    public int sampleRate;
+
+    private short[] mPcm;
+    private int mPosition;
+    private LevelMeter mLevelMeter;
+    private SoundLevelMeter mAWeighted;
+    private SoundLevelMeter mZWeighted;
+    private SpectrumAnalyzer mSpectrum;
+
+    @Setup
+    public void setUp() {
+        mPcm = SyntheticPcm.noiseWithBursts(sampleRate, 10, 1);
+        mLevelMeter = new LevelMeter();
+        mAWeighted = new SoundLevelMeter(FrequencyWeighting.A, SoundLevelMeter.TimeWeighting.FAST, sampleRate);
+        mZWeighted = new SoundLevelMeter(FrequencyWeighting.Z, SoundLevelMeter.TimeWeighting.FAST, sampleRate);
+        mSpectrum = new SpectrumAnalyzer(sampleRate, SpectrumAnalyzer.DEFAULT_REPORT_MILLIS);
+    }
+
+    private int nextBlock() {
+        mPosition += BLOCK;
+        if (mPosition + BLOCK > mPcm.length) mPosition = 0;
+        return mPosition;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public double levelMeter() {
+        mLevelMeter.process(mPcm, nextBlock(), BLOCK);
+        return mLevelMeter.getTruePeak();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public double soundLevelMeterA() {
+        mAWeighted.process(mPcm, nextBlock(), BLOCK);
+        return mAWeighted.getLevel();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public double soundLevelMeterZ() {
+        mZWeighted.process(mPcm, nextBlock(), BLOCK);
+        return mZWeighted.getLevel();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public boolean spectrumAnalyzer() {
+        return mSpectrum.process(mPcm, nextBlock(), BLOCK);
+    }
+}
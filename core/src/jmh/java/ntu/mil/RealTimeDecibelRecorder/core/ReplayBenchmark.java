@@ -0,0 +1,109 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples per second through the whole capture pipeline driven by a {@link SyntheticSource}:
+ * a lossless {@link FrameBus} feeding a WAV writer, a sound level meter and the VAD on their own
+ * threads, as in the app. Divide by the sample rate for the speed relative to real time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReplayBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK = 640;
+    private static final int SECONDS = 30;
+    private static final int QUEUE_FRAMES = 64;
+
+    private abstract static class Consumer extends Thread {
+        private final FrameBus.Subscription mFrames;
+
+        Consumer(FrameBus.Subscription frames) {
+            mFrames = frames;
+        }
+
+        abstract void process(AudioFrame frame) throws IOException;
+
+        @Override
+        public void run() {
+            while (!mFrames.isDrained()) {
+                final AudioFrame frame = mFrames.take(100);
+                if (frame == null) continue;
+                try {
+                    process(frame);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    frame.release();
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE_RATE * SECONDS)
+    public long pipeline() throws Exception {
+        final SyntheticSource source = new SyntheticSource(SAMPLE_RATE, SECONDS * 1000L, 0, BLOCK, 1);
+        final AudioFramePool pool = new AudioFramePool(BLOCK, SAMPLE_RATE, 1, QUEUE_FRAMES);
+        final FrameBus bus = new FrameBus();
+        bus.setLossless(true);
+        final File file = File.createTempFile("replay", ".wav");
+        final WavWriter writer = new WavWriter(file, SAMPLE_RATE, 1, BLOCK);
+        final SoundLevelMeter meter = new SoundLevelMeter(FrequencyWeighting.A, SoundLevelMeter.TimeWeighting.FAST, SAMPLE_RATE);
+        final VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+
+        final Consumer[] consumers = new Consumer[]{
+                new Consumer(bus.subscribe(QUEUE_FRAMES)) {
+                    @Override
+                    void process(AudioFrame frame) throws IOException {
+                        writer.write(frame.getSamples(), 0, frame.getLength());
+                    }
+                },
+                new Consumer(bus.subscribe(QUEUE_FRAMES)) {
+                    @Override
+                    void process(AudioFrame frame) {
+                        meter.process(frame.getSamples(), 0, frame.getLength());
+                    }
+                },
+                new Consumer(bus.subscribe(QUEUE_FRAMES)) {
+                    @Override
+                    void process(AudioFrame frame) {
+                        vad.process(frame.getSamples(), 0, frame.getLength());
+                    }
+                }
+        };
+        for (Consumer consumer : consumers) {
+            consumer.start();
+        }
+        source.start();
+        while (true) {
+            final AudioFrame frame = pool.acquire();
+            final int read = source.read(frame.getSamples(), 0, BLOCK);
+            if (read == AudioSource.END_OF_STREAM) {
+                frame.release();
+                break;
+            }
+            bus.publish(frame, read, source.getTimestampMillis());
+        }
+        bus.close();
+        for (Consumer consumer : consumers) {
+            consumer.join();
+        }
+        writer.close();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+        return meter.getLeqSamples() + writer.getDataLength();
+    }
+}
@@ -0,0 +1,24 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.Random;
+
+/** Deterministic test signal: a low noise floor with periodic loud tone bursts. */
+final class SyntheticPcm {
+    private SyntheticPcm() {
+    }
+
+    static short[] noiseWithBursts(int sampleRate, int seconds, long seed) {
+        final Random random = new Random(seed);
+        final short[] samples = new short[sampleRate * seconds];
+        final int burstPeriod = sampleRate;
+        final int burstLength = sampleRate / 4;
+        for (int i = 0; i < samples.length; i++) {
+            double value = random.nextGaussian() * 150;
+            if (i % burstPeriod < burstLength) {
+                value += 8000 * Math.sin(2 * Math.PI * 440 * i / sampleRate);
+            }
+            samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,44 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Samples per second through the voice detector; see gc.alloc.rate.norm for garbage per block. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class VoiceDetectionBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    // getMinBufferSize() at 16 kHz mono, in samples.
+    private static final int BLOCK = 640;
+
+    private short[] mPcm;
+    private int mPosition;
+    private VoiceActivityDetector mVad;
+
+    @Setup
+    public void setUp() {
+        mPcm = SyntheticPcm.noiseWithBursts(SAMPLE_RATE, 10, 1);
+        mVad = new VoiceActivityDetector(SAMPLE_RATE);
+    }
+
+    private int nextBlock() {
+        mPosition += BLOCK;
+        if (mPosition + BLOCK > mPcm.length) mPosition = 0;
+        return mPosition;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public boolean voiceActivityDetector() {
+        return mVad.process(mPcm, nextBlock(), BLOCK);
+    }
+}
@@ -0,0 +1,67 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples per second encoded and written to a WAV file, including the page-cache write but not
+ * fsync. Divide by the sample rate for the speed relative to real time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WavWriterBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK = 640;
+
+    @Param({"pcm", "ima-adpcm"})
+    public String format;
+
+    private short[] mPcm;
+    private int mPosition;
+    private File mFile;
+    private AudioSink mWriter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mPcm = SyntheticPcm.noiseWithBursts(SAMPLE_RATE, 10, 1);
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        mFile = File.createTempFile("wavwriter", ".wav");
+        mWriter = "pcm".equals(format)
+                ? new WavWriter(mFile, SAMPLE_RATE, 1, BLOCK)
+                : new ImaAdpcmWavWriter(mFile, SAMPLE_RATE, 1);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        mWriter.close();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public long write() throws IOException {
+        mPosition += BLOCK;
+        if (mPosition + BLOCK > mPcm.length) mPosition = 0;
+        mWriter.write(mPcm, mPosition, BLOCK);
+        return mWriter.getDataLength();
+    }
+}
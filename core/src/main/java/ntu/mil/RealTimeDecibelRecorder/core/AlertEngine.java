@@ -0,0 +1,196 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Evaluates {@link AlertRule}s continuously over the per-block level stream.
+ *
+ * Each rule keeps its own sliding window: a running energy sum for Leq, a monotonic deque for
+ * max/min, and a queue of crossing times for exceedance counts. Every block is pushed once and
+ * popped once, so a rule costs O(1) amortized per block, and window storage only grows while the
+ * first window fills. Alerts are edge-triggered: a rule fires when its condition becomes true and
+ * re-arms once it is false again. Rules may be added and removed from any thread.
+ */
+public class AlertEngine {
+    public interface Listener {
+        /** @param value the aggregate that crossed the threshold: a level in dB, or a count. */
+        void onAlert(AlertRule rule, long timeMillis, double value);
+    }
+
+    private final Listener mListener;
+    private final int mSampleRate;
+    private final CopyOnWriteArrayList<Evaluator> mEvaluators = new CopyOnWriteArrayList<>();
+
+    public AlertEngine(int sampleRate, Listener listener) {
+        mSampleRate = sampleRate;
+        mListener = listener;
+    }
+
+    public void addRule(AlertRule rule) {
+        mEvaluators.add(new Evaluator(rule));
+    }
+
+    public void removeRule(AlertRule rule) {
+        for (Evaluator evaluator : mEvaluators) {
+            if (evaluator.mRule == rule) {
+                mEvaluators.remove(evaluator);
+            }
+        }
+    }
+
+    public int getRuleCount() {
+        return mEvaluators.size();
+    }
+
+    /**
+     * Feeds one block.
+     *
+     * @param endMillis time at the end of the block.
+     * @param minDb lowest level in the block, or NaN if unknown (e.g. while a meter settles).
+     */
+    public void process(long endMillis, double leqDb, double maxDb, double minDb, int samples) {
+        final double energy = Math.pow(10, leqDb / 10) * samples;
+        for (Evaluator evaluator : mEvaluators) {
+            evaluator.process(endMillis, energy, samples, maxDb, minDb);
+        }
+    }
+
+    /** Forgets all window contents, e.g. between recording sessions. Rules stay. */
+    public void reset() {
+        for (Evaluator evaluator : mEvaluators) {
+            evaluator.reset();
+        }
+    }
+
+    private class Evaluator {
+        private final AlertRule mRule;
+        private final AlertRule.Metric mMetric;
+        private final long mWindow;
+        private final double mThreshold;
+        // Ring of (time, value, samples) entries; for MAX/MIN it is kept monotonic.
+        private long[] mTimes = new long[16];
+        private double[] mValues = new double[16];
+        private int[] mSamples = new int[16];
+        private int mHead = 0;
+        private int mSize = 0;
+        private double mEnergySum = 0;
+        private long mSampleSum = 0;
+        // Start of the first block seen, to tell when a full window has been covered.
+        private long mFirstMillis = Long.MIN_VALUE;
+        private boolean wasAbove = false;
+        private boolean isRaised = false;
+
+        Evaluator(AlertRule rule) {
+            mRule = rule;
+            mMetric = rule.getMetric();
+            mWindow = rule.getWindowMillis();
+            mThreshold = rule.getThresholdDb();
+        }
+
+        void process(long now, double energy, int samples, double maxDb, double minDb) {
+            if (mFirstMillis == Long.MIN_VALUE) {
+                mFirstMillis = now - samples * 1000L / mSampleRate;
+            }
+            // Drop entries that have left the window (now - window, now].
+            while (mSize > 0 && mTimes[mHead] <= now - mWindow) {
+                if (mMetric == AlertRule.Metric.LEQ) {
+                    mEnergySum -= mValues[mHead];
+                    mSampleSum -= mSamples[mHead];
+                }
+                mHead = (mHead + 1) % mTimes.length;
+                mSize--;
+            }
+
+            final double value;
+            final boolean isAbove;
+            switch (mMetric) {
+                case LEQ:
+                    push(now, energy, samples);
+                    mEnergySum += energy;
+                    mSampleSum += samples;
+                    if (mSize == 1) {
+                        // Resynchronize so rounding never accumulates.
+                        mEnergySum = energy;
+                        mSampleSum = samples;
+                    }
+                    value = 10 * Math.log10(mEnergySum / Math.max(1, mSampleSum));
+                    isAbove = now - mFirstMillis >= mWindow && value > mThreshold;
+                    break;
+                case MAX:
+                    // Older entries no larger than the new one can never be the max again.
+                    while (mSize > 0 && valueAt(mSize - 1) <= maxDb) mSize--;
+                    push(now, maxDb, samples);
+                    value = mValues[mHead];
+                    isAbove = value > mThreshold;
+                    break;
+                case MIN:
+                    if (!Double.isNaN(minDb)) {
+                        while (mSize > 0 && valueAt(mSize - 1) >= minDb) mSize--;
+                        push(now, minDb, samples);
+                    }
+                    value = mSize > 0 ? mValues[mHead] : Double.NaN;
+                    // Judged like Leq: a short burst must not count as a high background.
+                    isAbove = mSize > 0 && now - mFirstMillis >= mWindow && value > mThreshold;
+                    break;
+                default: // EXCEEDANCES
+                    final boolean above = maxDb > mThreshold;
+                    if (above && !wasAbove) {
+                        push(now, maxDb, samples);
+                    }
+                    wasAbove = above;
+                    value = mSize;
+                    isAbove = mSize >= mRule.getCount();
+                    break;
+            }
+
+            if (isAbove && !isRaised) {
+                isRaised = true;
+                mListener.onAlert(mRule, now, value);
+            } else if (!isAbove) {
+                isRaised = false;
+            }
+        }
+
+        private double valueAt(int i) {
+            return mValues[(mHead + i) % mValues.length];
+        }
+
+        private void push(long time, double value, int samples) {
+            if (mSize == mTimes.length) {
+                grow();
+            }
+            final int tail = (mHead + mSize) % mTimes.length;
+            mTimes[tail] = time;
+            mValues[tail] = value;
+            mSamples[tail] = samples;
+            mSize++;
+        }
+
+        private void grow() {
+            final int capacity = mTimes.length;
+            final long[] times = new long[capacity * 2];
+            final double[] values = new double[capacity * 2];
+            final int[] samples = new int[capacity * 2];
+            for (int i = 0; i < mSize; i++) {
+                final int from = (mHead + i) % capacity;
+                times[i] = mTimes[from];
+                values[i] = mValues[from];
+                samples[i] = mSamples[from];
+            }
+            mTimes = times;
+            mValues = values;
+            mSamples = samples;
+            mHead = 0;
+        }
+
+        void reset() {
+            mHead = 0;
+            mSize = 0;
+            mEnergySum = 0;
+            mSampleSum = 0;
+            mFirstMillis = Long.MIN_VALUE;
+            wasAbove = false;
+            isRaised = false;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * A threshold on a sliding-window aggregate of the level stream, e.g. "Leq over 5 min above
+ * 70 dB" or "Lmax above 95 dB twice within 10 s". Immutable; evaluated by {@link AlertEngine}.
+ */
+public class AlertRule {
+    public enum Metric {
+        /** Energy-mean level over the window; only judged once a full window has been seen. */
+        LEQ,
+        /** Highest level in the window. */
+        MAX,
+        /** Lowest level in the window, e.g. a background level that stays high. */
+        MIN,
+        /** Number of times the level rose above the threshold within the window. */
+        EXCEEDANCES
+    }
+
+    private final String mName;
+    private final Metric mMetric;
+    private final long mWindowMillis;
+    private final double mThresholdDb;
+    private final int mCount;
+
+    private AlertRule(String name, Metric metric, long windowMillis, double thresholdDb, int count) {
+        if (windowMillis <= 0)
+            throw new IllegalArgumentException("window must be positive: " + windowMillis);
+        mName = name;
+        mMetric = metric;
+        mWindowMillis = windowMillis;
+        mThresholdDb = thresholdDb;
+        mCount = count;
+    }
+
+    public static AlertRule leqAbove(String name, long windowMillis, double thresholdDb) {
+        return new AlertRule(name, Metric.LEQ, windowMillis, thresholdDb, 1);
+    }
+
+    public static AlertRule maxAbove(String name, long windowMillis, double thresholdDb) {
+        return new AlertRule(name, Metric.MAX, windowMillis, thresholdDb, 1);
+    }
+
+    public static AlertRule minAbove(String name, long windowMillis, double thresholdDb) {
+        return new AlertRule(name, Metric.MIN, windowMillis, thresholdDb, 1);
+    }
+
+    public static AlertRule exceedances(String name, long windowMillis, double thresholdDb, int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("count must be at least 1: " + count);
+        return new AlertRule(name, Metric.EXCEEDANCES, windowMillis, thresholdDb, count);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Metric getMetric() {
+        return mMetric;
+    }
+
+    public long getWindowMillis() {
+        return mWindowMillis;
+    }
+
+    public double getThresholdDb() {
+        return mThresholdDb;
+    }
+
+    /** For {@link Metric#EXCEEDANCES}, how many crossings within the window raise the alert. */
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
@@ -0,0 +1,117 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A block of 16-bit PCM from an {@link AudioFramePool}, shared between listeners by reference count.
+ *
+ * Once published on a {@link FrameBus} a frame is read-only: listeners must not write to
+ * {@link #getSamples()}. A listener that keeps a frame past its callback calls {@link #retain()}
+ * and later {@link #release()}; the last release returns it to the pool for reuse.
+ */
+public class AudioFrame {
+    private final AudioFramePool mPool;
+    private final short[] mSamples;
+    private final AtomicInteger mRefs = new AtomicInteger();
+    private int mLength;
+    private long mTimestampMillis;
+    private long mSequence;
+    private long mCaptureNanos;
+
+    AudioFrame(AudioFramePool pool, int capacity) {
+        mPool = pool;
+        mSamples = new short[capacity];
+    }
+
+    /** Sample storage; only {@link #getLength()} samples are valid. */
+    public short[] getSamples() {
+        return mSamples;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /** Wall-clock time at which the last sample was captured. */
+    public long getTimestampMillis() {
+        return mTimestampMillis;
+    }
+
+    /** Position in the stream, counting from 0 at the first published frame. */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /** {@link System#nanoTime()} at which the last sample was captured; see {@link AudioSource#getCaptureNanos()}. */
+    public long getCaptureNanos() {
+        return mCaptureNanos;
+    }
+
+    public int getSampleRate() {
+        return mPool.getSampleRate();
+    }
+
+    public int getChannels() {
+        return mPool.getChannels();
+    }
+
+    public void copyTo(short[] dest, int offset) {
+        System.arraycopy(mSamples, 0, dest, offset, mLength);
+    }
+
+    /** Averages interleaved channels into {@code dest}; returns the number of sample frames written. */
+    public int mixToMono(short[] dest) {
+        return mixToMono(mSamples, 0, mLength, getChannels(), dest);
+    }
+
+    /** Averages the channels of {@code length} interleaved samples; returns the frames written. */
+    static int mixToMono(short[] samples, int offset, int length, int channels, short[] dest) {
+        final int frames = length / channels;
+        if (channels == 1) {
+            System.arraycopy(samples, offset, dest, 0, frames);
+            return frames;
+        }
+        for (int i = 0, j = offset; i < frames; i++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += samples[j++];
+            }
+            dest[i] = (short) (sum / channels);
+        }
+        return frames;
+    }
+
+    public AudioFrame retain() {
+        int refs;
+        do {
+            refs = mRefs.get();
+            if (refs <= 0) throw new IllegalStateException("Frame already recycled");
+        } while (!mRefs.compareAndSet(refs, refs + 1));
+        return this;
+    }
+
+    public void release() {
+        final int refs = mRefs.decrementAndGet();
+        if (refs == 0) {
+            mPool.recycle(this);
+        } else if (refs < 0) {
+            throw new IllegalStateException("Frame released more often than retained");
+        }
+    }
+
+    int getRefCount() {
+        return mRefs.get();
+    }
+
+    void acquired() {
+        mRefs.set(1);
+        mLength = 0;
+    }
+
+    void set(int length, long timestampMillis, long captureNanos, long sequence) {
+        mLength = length;
+        mTimestampMillis = timestampMillis;
+        mCaptureNanos = captureNanos;
+        mSequence = sequence;
+    }
+}
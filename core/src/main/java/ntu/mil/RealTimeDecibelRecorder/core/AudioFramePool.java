@@ -0,0 +1,73 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.ArrayDeque;
+
+/**
+ * Free list of {@link AudioFrame}s of one size and format. It only allocates when every frame
+ * is in use, so once the pipeline reaches its steady depth capture runs without allocation.
+ */
+public class AudioFramePool {
+    private final int mFrameCapacity;
+    private final int mSampleRate;
+    private final int mChannels;
+    private final ArrayDeque<AudioFrame> mFree;
+    private int mAllocated = 0;
+
+    public AudioFramePool(int frameCapacity, int sampleRate, int channels, int preallocate) {
+        mFrameCapacity = frameCapacity;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mFree = new ArrayDeque<>(Math.max(16, preallocate));
+        for (int i = 0; i < preallocate; i++) {
+            mFree.push(new AudioFrame(this, frameCapacity));
+        }
+        mAllocated = preallocate;
+    }
+
+    /** A frame with a reference count of 1 for the caller to fill and publish. */
+    public AudioFrame acquire() {
+        AudioFrame frame;
+        synchronized (mFree) {
+            frame = mFree.poll();
+            if (frame == null) {
+                mAllocated++;
+            }
+        }
+        if (frame == null) {
+            frame = new AudioFrame(this, mFrameCapacity);
+        }
+        frame.acquired();
+        return frame;
+    }
+
+    void recycle(AudioFrame frame) {
+        synchronized (mFree) {
+            mFree.push(frame);
+        }
+    }
+
+    public int getFrameCapacity() {
+        return mFrameCapacity;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    /** Frames created so far, free or in use. */
+    public int getAllocatedFrames() {
+        synchronized (mFree) {
+            return mAllocated;
+        }
+    }
+
+    public int getFreeFrames() {
+        synchronized (mFree) {
+            return mFree.size();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/** Destination for a stream of LINEAR16 blocks, e.g. a WAV file in some encoding. */
+public interface AudioSink extends Closeable {
+    void write(short[] samples, int offset, int length) throws IOException;
+
+    /** Bytes of encoded audio data written so far, excluding headers. */
+    long getDataLength();
+
+    /** Opens a sink of one kind for each file, e.g. one per recording segment. */
+    interface Factory {
+        AudioSink open(File file) throws IOException;
+    }
+}
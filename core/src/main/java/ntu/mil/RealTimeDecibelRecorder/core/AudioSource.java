@@ -0,0 +1,45 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where the pipeline's 16-bit PCM comes from: a microphone, a file, or a generated signal.
+ *
+ * Sources that are not real time can be read as fast as the consumers keep up, e.g. to
+ * reprocess recordings or measure throughput; the pipeline then waits for its slowest
+ * consumer instead of dropping frames.
+ */
+public interface AudioSource extends Closeable {
+    int END_OF_STREAM = -1;
+
+    int getSampleRate();
+
+    int getChannels();
+
+    /** Samples to ask for per read; the size of the pipeline's frames. */
+    int getFrameSamples();
+
+    /** True if reads block at the capture rate; false if they return as fast as possible. */
+    boolean isRealTime();
+
+    void start() throws IOException;
+
+    /**
+     * Reads up to {@code length} samples.
+     *
+     * @return the number of samples read, or {@link #END_OF_STREAM} once a finite source is exhausted.
+     * @throws IOException on a failed read; the caller may try again.
+     */
+    int read(short[] dest, int offset, int length) throws IOException;
+
+    /** Wall-clock time of the last sample returned by the last read. */
+    long getTimestampMillis();
+
+    /**
+     * {@link System#nanoTime()} at which the last sample returned by the last read was captured,
+     * for measuring latency through the pipeline. Sources without a capture clock use the time
+     * the read returned.
+     */
+    long getCaptureNanos();
+}
@@ -0,0 +1,261 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Offline level report over many 16-bit PCM WAV files, using the same {@link SoundLevelMeter}
+ * and {@link VoiceActivityDetector} as live capture.
+ *
+ * Files, and fixed-length chunks of long files, are analyzed in parallel on a fork-join pool.
+ * Each chunk memory-maps its part of the data and reads it in small blocks, so the heap used does
+ * not grow with file size. A chunk starts its meter and VAD a few seconds early and discards that
+ * warm-up, which keeps chunk boundaries from showing in the results. Files with more than one
+ * channel are mixed to mono first, as live capture meters them.
+ */
+public class BatchAnalyzer {
+    public static final long DEFAULT_CHUNK_MILLIS = 5 * 60 * 1000;
+    private static final long WARM_UP_MILLIS = 5000;
+    private static final int BLOCKS_PER_SECOND = 25;
+
+    public static class FileResult {
+        public final File file;
+        /** Null if the file could not be analyzed. */
+        public final LevelSummary summary;
+        public final IOException error;
+
+        FileResult(File file, LevelSummary summary, IOException error) {
+            this.file = file;
+            this.summary = summary;
+            this.error = error;
+        }
+    }
+
+    public static class Report {
+        private final List<FileResult> mFiles;
+        private final LevelSummary mTotal;
+
+        Report(List<FileResult> files, LevelSummary total) {
+            mFiles = files;
+            mTotal = total;
+        }
+
+        /** One entry per input file, in input order. */
+        public List<FileResult> getFiles() {
+            return mFiles;
+        }
+
+        /** All analyzed files together. */
+        public LevelSummary getTotal() {
+            return mTotal;
+        }
+
+        /** Writes one CSV row per file plus a final "total" row. */
+        public void writeCsv(Appendable out) throws IOException {
+            out.append("file,seconds,leq,lmax,lmin,l10,l50,l90,voice,error\n");
+            for (FileResult result : mFiles) {
+                if (result.summary != null) {
+                    appendRow(out, result.file.getName(), result.summary);
+                } else {
+                    out.append(result.file.getName()).append(",,,,,,,,,")
+                            .append(String.valueOf(result.error.getMessage()).replace(',', ';')).append('\n');
+                }
+            }
+            appendRow(out, "total", mTotal);
+        }
+
+        private static void appendRow(Appendable out, String name, LevelSummary s) throws IOException {
+            out.append(name).append(String.format(Locale.US, ",%.3f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.3f,\n",
+                    s.getSeconds(), s.getLeq(), s.getMaxLevel(), s.getMinLevel(), s.getExceededLevel(10),
+                    s.getExceededLevel(50), s.getExceededLevel(90), s.getVoiceFraction()));
+        }
+    }
+
+    private final ForkJoinPool mPool;
+    private final FrequencyWeighting mFrequencyWeighting;
+    private final SoundLevelMeter.TimeWeighting mTimeWeighting;
+    private double mCalibrationOffset = LevelMeter.DEFAULT_CALIBRATION_OFFSET;
+    private long mChunkMillis = DEFAULT_CHUNK_MILLIS;
+
+    public BatchAnalyzer(ForkJoinPool pool, FrequencyWeighting frequencyWeighting,
+                         SoundLevelMeter.TimeWeighting timeWeighting) {
+        mPool = pool;
+        mFrequencyWeighting = frequencyWeighting;
+        mTimeWeighting = timeWeighting;
+    }
+
+    public void setCalibrationOffset(double offsetDb) {
+        mCalibrationOffset = offsetDb;
+    }
+
+    /** Longest stretch of one file analyzed as a single task. */
+    public void setChunkMillis(long millis) {
+        mChunkMillis = millis;
+    }
+
+    /** Blocks until every file is analyzed. Unreadable files are reported, not thrown. */
+    public Report analyze(File[] files) {
+        final FileTask[] tasks = new FileTask[files.length];
+        for (int i = 0; i < files.length; i++) {
+            tasks[i] = new FileTask(files[i], mFrequencyWeighting, mTimeWeighting, mCalibrationOffset, mChunkMillis);
+        }
+        mPool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        final List<FileResult> results = new ArrayList<>(files.length);
+        final LevelSummary total = new LevelSummary();
+        for (FileTask task : tasks) {
+            results.add(task.mResult);
+            if (task.mResult.summary != null) {
+                total.merge(task.mResult.summary);
+            }
+        }
+        return new Report(Collections.unmodifiableList(results), total);
+    }
+
+    private static class FileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final File mFile;
+        private final FrequencyWeighting mFrequencyWeighting;
+        private final SoundLevelMeter.TimeWeighting mTimeWeighting;
+        private final double mCalibrationOffset;
+        private final long mChunkMillis;
+        FileResult mResult;
+
+        FileTask(File file, FrequencyWeighting frequencyWeighting, SoundLevelMeter.TimeWeighting timeWeighting,
+                 double calibrationOffset, long chunkMillis) {
+            mFile = file;
+            mFrequencyWeighting = frequencyWeighting;
+            mTimeWeighting = timeWeighting;
+            mCalibrationOffset = calibrationOffset;
+            mChunkMillis = chunkMillis;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                mResult = new FileResult(mFile, analyzeFile(), null);
+            } catch (IOException e) {
+                mResult = new FileResult(mFile, null, e);
+            }
+        }
+
+        private LevelSummary analyzeFile() throws IOException {
+            final int sampleRate;
+            final int channels;
+            final long dataOffset;
+            final long totalFrames;
+            final WavFileSource header = new WavFileSource(mFile, 0, 1);
+            try {
+                sampleRate = header.getSampleRate();
+                channels = header.getChannels();
+                dataOffset = header.getDataOffset();
+                totalFrames = header.getTotalSamples() / channels;
+            } finally {
+                header.close();
+            }
+
+            final RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                final FileChannel channel = file.getChannel();
+                final long chunkFrames = Math.max(1, mChunkMillis * sampleRate / 1000);
+                final List<ChunkTask> chunks = new ArrayList<>();
+                for (long start = 0; start < totalFrames; start += chunkFrames) {
+                    chunks.add(new ChunkTask(this, channel, dataOffset, sampleRate, channels, start,
+                            Math.min(totalFrames, start + chunkFrames)));
+                }
+                invokeAll(chunks);
+                final LevelSummary summary = new LevelSummary();
+                for (ChunkTask chunk : chunks) {
+                    if (chunk.mError != null) throw chunk.mError;
+                    summary.merge(chunk.getRawResult());
+                }
+                return summary;
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /** Positions are in sample frames; multichannel audio is mixed to mono, as for live metering. */
+    private static class ChunkTask extends RecursiveTask<LevelSummary> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileTask mSettings;
+        private final FileChannel mChannel;
+        private final long mDataOffset;
+        private final int mSampleRate;
+        private final int mChannels;
+        private final long mStart;
+        private final long mEnd;
+        IOException mError;
+
+        ChunkTask(FileTask settings, FileChannel channel, long dataOffset, int sampleRate, int channels,
+                  long start, long end) {
+            mSettings = settings;
+            mChannel = channel;
+            mDataOffset = dataOffset;
+            mSampleRate = sampleRate;
+            mChannels = channels;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected LevelSummary compute() {
+            final SoundLevelMeter.TimeWeighting timeWeighting = mSettings.mTimeWeighting;
+            final long warmUp = Math.max(WARM_UP_MILLIS * mSampleRate / 1000, (long) (10 * timeWeighting.seconds * mSampleRate));
+            final long from = Math.max(0, mStart - warmUp);
+            final int frameBytes = 2 * mChannels;
+            final ShortBuffer samples;
+            try {
+                samples = mChannel.map(FileChannel.MapMode.READ_ONLY, mDataOffset + from * frameBytes,
+                        (mEnd - from) * frameBytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            } catch (IOException e) {
+                mError = e;
+                return null;
+            }
+
+            final SoundLevelMeter meter = new SoundLevelMeter(mSettings.mFrequencyWeighting, timeWeighting, mSampleRate);
+            meter.setCalibrationOffset(mSettings.mCalibrationOffset);
+            final VoiceActivityDetector vad = new VoiceActivityDetector(mSampleRate);
+            final LevelSummary summary = new LevelSummary();
+            final short[] block = new short[Math.max(1, mSampleRate / BLOCKS_PER_SECOND)];
+            final short[] interleaved = mChannels > 1 ? new short[block.length * mChannels] : block;
+            long position = from;
+            while (position < mEnd) {
+                // Blocks never straddle the end of the warm-up.
+                final long limit = position < mStart ? mStart : mEnd;
+                final int length = (int) Math.min(block.length, limit - position);
+                samples.get(interleaved, 0, length * mChannels);
+                if (mChannels > 1) {
+                    AudioFrame.mixToMono(interleaved, 0, length * mChannels, mChannels, block);
+                }
+                meter.process(block, 0, length);
+                final boolean voice = vad.process(block, 0, length);
+                if (position >= mStart) {
+                    summary.add(meter, length, voice);
+                }
+                position += length;
+            }
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One audio source recorded and metered independently of any others, created by a
+ * {@link SessionManager}.
+ *
+ * Only capture has a thread of its own. Writing and metering run as short drain tasks on the
+ * manager's shared executors, at most one of each per session at a time, so a session's frames
+ * are handled in order while the number of threads stays fixed however many sessions run.
+ */
+public class CaptureSession {
+    // Frames of slack between capture and each consumer, and frames a drain task handles before
+    // giving the worker to another session.
+    private static final int QUEUE_FRAMES = 64;
+    private static final int DRAIN_BATCH = 8;
+
+    public interface Listener {
+        /** Called on an analysis worker after every block, with levels in dB. */
+        void onLevel(CaptureSession session, long timeMillis, double level, double leq);
+    }
+
+    private final String mName;
+    private final AudioSource mSource;
+    private final AudioSink.Factory mSinkFactory;
+    private final File mFile;
+    private final Listener mListener;
+    private final AudioFramePool mFramePool;
+    private final FrameBus mBus = new FrameBus();
+    private final Drain mWriter;
+    private final Drain mAnalyzer;
+    private final SoundLevelMeter mMeter;
+    private final short[] mMono;
+    private Thread mCaptureThread;
+    private volatile boolean isRunning = false;
+    private volatile long mStartNanos;
+    private volatile long mStopNanos;
+    private volatile long mCapturedSamples = 0;
+    private volatile long mWrittenSamples = 0;
+    private volatile long mAnalyzedSamples = 0;
+    private volatile long mReadErrors = 0;
+    private volatile long mWriteErrors = 0;
+    private volatile double mLevel;
+    private volatile double mLeq;
+    private AudioSink mSink;
+    private boolean isSinkFailed = false;
+
+    CaptureSession(String name, AudioSource source, AudioSink.Factory sinkFactory, File file,
+                   FrequencyWeighting weighting, Listener listener, Executor ioExecutor, Executor analysisExecutor) {
+        mName = name;
+        mSource = source;
+        mSinkFactory = sinkFactory;
+        mFile = file;
+        mListener = listener;
+        mFramePool = new AudioFramePool(source.getFrameSamples(), source.getSampleRate(), source.getChannels(), QUEUE_FRAMES);
+        mBus.setLossless(!source.isRealTime());
+        mWriter = new Drain(mBus.subscribe(QUEUE_FRAMES), ioExecutor) {
+            @Override
+            void process(AudioFrame frame) {
+                write(frame);
+            }
+
+            @Override
+            void finish() {
+                closeSink();
+            }
+        };
+        mAnalyzer = new Drain(mBus.subscribe(QUEUE_FRAMES), analysisExecutor) {
+            @Override
+            void process(AudioFrame frame) {
+                analyze(frame);
+            }
+
+            @Override
+            void finish() {
+            }
+        };
+        mMeter = new SoundLevelMeter(weighting, SoundLevelMeter.TimeWeighting.FAST, source.getSampleRate());
+        mMono = source.getChannels() > 1 ? new short[source.getFrameSamples() / source.getChannels()] : null;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public AudioSource getSource() {
+        return mSource;
+    }
+
+    /** The recording, or null if this session only meters. */
+    public File getFile() {
+        return mFile;
+    }
+
+    public void setCalibrationOffset(double offsetDb) {
+        mMeter.setCalibrationOffset(offsetDb);
+    }
+
+    /** Starts the source and the capture thread. A session runs once. */
+    public synchronized void start() throws IOException {
+        if (mCaptureThread != null) {
+            throw new IllegalStateException("Session " + mName + " already started");
+        }
+        mSource.start();
+        isRunning = true;
+        mStartNanos = System.nanoTime();
+        mCaptureThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                capture();
+            }
+        }, "CaptureSession-" + mName);
+        mCaptureThread.start();
+    }
+
+    /**
+     * Stops capturing, waits until everything captured has been written and metered, then closes
+     * the source and the recording.
+     */
+    public void stop() {
+        isRunning = false;
+        join();
+    }
+
+    /**
+     * Waits for a session to end by itself, when its source reports the end of the stream, and
+     * for its recording to be flushed; then closes the source.
+     */
+    public void join() {
+        final Thread captureThread;
+        synchronized (this) {
+            captureThread = mCaptureThread;
+        }
+        if (captureThread == null) {
+            return;
+        }
+        try {
+            captureThread.join();
+            mWriter.await();
+            mAnalyzer.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            mSource.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** True from start() until the source ends or stop() is called. */
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    private void capture() {
+        final int frameSamples = mSource.getFrameSamples();
+        boolean ended = false;
+        while (isRunning && !ended) {
+            final AudioFrame frame = mFramePool.acquire();
+            int read;
+            try {
+                read = mSource.read(frame.getSamples(), 0, frameSamples);
+            } catch (IOException e) {
+                read = 0;
+                mReadErrors++;
+            }
+            if (read > 0) {
+                mCapturedSamples += read;
+                mBus.publish(frame, read, mSource.getTimestampMillis(), mSource.getCaptureNanos());
+                mWriter.schedule();
+                mAnalyzer.schedule();
+            } else {
+                frame.release();
+                ended = read == AudioSource.END_OF_STREAM;
+            }
+        }
+        mStopNanos = System.nanoTime();
+        isRunning = false;
+        mBus.close();
+        mWriter.schedule();
+        mAnalyzer.schedule();
+    }
+
+    private void write(AudioFrame frame) {
+        if (mSinkFactory == null || isSinkFailed) {
+            return;
+        }
+        try {
+            // Opened by the first write, on an I/O worker rather than the caller of start().
+            if (mSink == null) {
+                mSink = mSinkFactory.open(mFile);
+            }
+            mSink.write(frame.getSamples(), 0, frame.getLength());
+            mWrittenSamples += frame.getLength();
+        } catch (IOException e) {
+            // Give up on the recording; metering carries on.
+            e.printStackTrace();
+            mWriteErrors++;
+            closeSink();
+            isSinkFailed = true;
+        }
+    }
+
+    private void closeSink() {
+        if (mSink == null) {
+            return;
+        }
+        try {
+            mSink.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            mWriteErrors++;
+        }
+        mSink = null;
+    }
+
+    private void analyze(AudioFrame frame) {
+        final short[] samples = mMono != null ? mMono : frame.getSamples();
+        final int length = mMono != null ? frame.mixToMono(mMono) : frame.getLength();
+        mMeter.process(samples, 0, length);
+        mLevel = mMeter.getLevel();
+        mLeq = mMeter.getLeq();
+        mAnalyzedSamples += frame.getLength();
+        if (mListener != null) {
+            mListener.onLevel(this, frame.getTimestampMillis(), mLevel, mLeq);
+        }
+    }
+
+    /** Latest time-weighted level in dB. */
+    public double getLevel() {
+        return mLevel;
+    }
+
+    /** Leq since start in dB. */
+    public double getLeq() {
+        return mLeq;
+    }
+
+    /** Samples (all channels) read from the source. */
+    public long getCapturedSamples() {
+        return mCapturedSamples;
+    }
+
+    public long getWrittenSamples() {
+        return mWrittenSamples;
+    }
+
+    public long getAnalyzedSamples() {
+        return mAnalyzedSamples;
+    }
+
+    public long getReadErrors() {
+        return mReadErrors;
+    }
+
+    public long getWriteErrors() {
+        return mWriteErrors;
+    }
+
+    /** Frames captured but not yet written. */
+    public int getWriterBacklog() {
+        return mWriter.mFrames.getQueueDepth();
+    }
+
+    /** Writer backlog as found by each drain task. */
+    public MetricHistogram getWriterBacklogHistogram() {
+        return mWriter.mBacklog;
+    }
+
+    public long getWriterDroppedFrames() {
+        return mWriter.mFrames.getDroppedFrames();
+    }
+
+    public int getAnalysisBacklog() {
+        return mAnalyzer.mFrames.getQueueDepth();
+    }
+
+    public MetricHistogram getAnalysisBacklogHistogram() {
+        return mAnalyzer.mBacklog;
+    }
+
+    public long getAnalysisDroppedFrames() {
+        return mAnalyzer.mFrames.getDroppedFrames();
+    }
+
+    /** Seconds of audio captured per second of wall time: 1 for a live source keeping up. */
+    public double getSpeed() {
+        final long start = mStartNanos;
+        if (start == 0) {
+            return 0;
+        }
+        final long end = isRunning ? System.nanoTime() : mStopNanos;
+        final double seconds = (end - start) / 1e9;
+        final double audioSeconds = (double) mCapturedSamples / mSource.getChannels() / mSource.getSampleRate();
+        return seconds <= 0 ? 0 : audioSeconds / seconds;
+    }
+
+    /**
+     * Feeds one consumer from its subscription on a shared executor. schedule() submits a drain
+     * task unless one is pending or running; the task handles a batch and resubmits itself if
+     * frames remain, so sessions take turns on the workers.
+     */
+    private abstract static class Drain implements Runnable {
+        final FrameBus.Subscription mFrames;
+        final MetricHistogram mBacklog = new MetricHistogram();
+        private final Executor mExecutor;
+        private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+        private final CountDownLatch mFinished = new CountDownLatch(1);
+
+        Drain(FrameBus.Subscription frames, Executor executor) {
+            mFrames = frames;
+            mExecutor = executor;
+        }
+
+        abstract void process(AudioFrame frame);
+
+        /** Called once, after the last frame. */
+        abstract void finish();
+
+        void schedule() {
+            if (mScheduled.compareAndSet(false, true)) {
+                mExecutor.execute(this);
+            }
+        }
+
+        void await() throws InterruptedException {
+            mFinished.await();
+        }
+
+        @Override
+        public void run() {
+            mBacklog.record(mFrames.getQueueDepth());
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                final AudioFrame frame = mFrames.poll();
+                if (frame == null) {
+                    break;
+                }
+                try {
+                    process(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+            if (mFrames.isDrained()) {
+                // Stays scheduled for good, so this runs once.
+                finish();
+                mFinished.countDown();
+                return;
+            }
+            mScheduled.set(false);
+            // A frame or the close may have arrived while this task still counted as scheduled.
+            if (mFrames.getQueueDepth() > 0 || mFrames.isDrained()) {
+                schedule();
+            }
+        }
+    }
+}
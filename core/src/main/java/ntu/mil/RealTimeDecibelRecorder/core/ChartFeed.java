@@ -0,0 +1,104 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Fixed-size history of levels for the live chart.
+ *
+ * The analysis thread pushes one value per block. The UI pulls a min/max-decimated copy at most
+ * once per display frame, so a long session uses the same memory as a short one and short peaks
+ * stay visible.
+ */
+public class ChartFeed {
+    private final float[] mValues;
+    private final float[] mSnapshot;
+    private final int mMask;
+    private final int mBuckets;
+    private long mCount = 0;
+    private long mPulledCount = 0;
+
+    /**
+     * @param capacity number of most recent values kept; a power of two.
+     * @param buckets  decimation buckets; each yields a min and a max point.
+     */
+    public ChartFeed(int capacity, int buckets) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0)
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        mValues = new float[capacity];
+        mSnapshot = new float[capacity];
+        mMask = capacity - 1;
+        mBuckets = Math.min(buckets, capacity);
+    }
+
+    /** Largest number of points {@link #pull(float[], float[])} can return. */
+    public int getMaxPoints() {
+        return mBuckets * 2;
+    }
+
+    public synchronized void push(float value) {
+        mValues[(int) (mCount & mMask)] = value;
+        mCount++;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized void clear() {
+        mCount = 0;
+        mPulledCount = 0;
+    }
+
+    /** True if values arrived since the last pull. */
+    public synchronized boolean hasNewData() {
+        return mCount != mPulledCount;
+    }
+
+    public synchronized float getLatest() {
+        return mCount == 0 ? 0 : mValues[(int) ((mCount - 1) & mMask)];
+    }
+
+    /**
+     * Decimates the kept history into {@code xs}/{@code ys} (each at least {@link #getMaxPoints()} long).
+     * Each bucket contributes its min and max in the order they occurred; x is the value's
+     * position in the whole stream.
+     *
+     * @return the number of points written.
+     */
+    public int pull(float[] xs, float[] ys) {
+        final long end;
+        final int length;
+        synchronized (this) {
+            end = mCount;
+            length = (int) Math.min(end, mValues.length);
+            for (int i = 0; i < length; i++) {
+                mSnapshot[i] = mValues[(int) ((end - length + i) & mMask)];
+            }
+            mPulledCount = end;
+        }
+        final long first = end - length;
+        if (length <= mBuckets * 2) {
+            for (int i = 0; i < length; i++) {
+                xs[i] = first + i;
+                ys[i] = mSnapshot[i];
+            }
+            return length;
+        }
+        int points = 0;
+        for (int b = 0; b < mBuckets; b++) {
+            final int from = (int) ((long) b * length / mBuckets);
+            final int to = (int) ((long) (b + 1) * length / mBuckets);
+            int min = from, max = from;
+            for (int i = from + 1; i < to; i++) {
+                if (mSnapshot[i] < mSnapshot[min]) min = i;
+                if (mSnapshot[i] > mSnapshot[max]) max = i;
+            }
+            final int a = Math.min(min, max), c = Math.max(min, max);
+            xs[points] = first + a;
+            ys[points++] = mSnapshot[a];
+            if (c != a) {
+                xs[points] = first + c;
+                ys[points++] = mSnapshot[c];
+            }
+        }
+        return points;
+    }
+}
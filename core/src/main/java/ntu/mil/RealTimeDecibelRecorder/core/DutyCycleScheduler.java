@@ -0,0 +1,127 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Chooses between full analysis and weighted metering only, block by block.
+ *
+ * Every block goes through the frequency- and time-weighted {@link SoundLevelMeter}, and its
+ * block Leq is what the scheduler compares with the floor, in either mode. In {@link Mode#ACTIVE}
+ * every block also gets the rest of the analysis (unweighted meter, true peak, VAD, spectrum).
+ * Once the level has stayed below the floor for the hold time the scheduler goes
+ * {@link Mode#QUIET}: the capture thread may read larger blocks, and the weighted meter is all
+ * that runs. Its weighting filter is a few multiplies per sample, cheap next to the rest, and
+ * keeps Leq, statistics and the level log on the same weighting through every switch. The first
+ * block that reaches the floor switches back and is itself analyzed in full.
+ *
+ * Also accounts CPU time and audio time per mode, so the saving can be read off as CPU
+ * milliseconds per second of audio. The mode may be read from any thread; the transitions are
+ * driven by the one analysis thread.
+ */
+public class DutyCycleScheduler {
+    public enum Mode {
+        QUIET, ACTIVE
+    }
+
+    public static final int DEFAULT_HOLD_MILLIS = 2000;
+    /** Levels must fall this far below the floor before the hold time starts. */
+    public static final double HYSTERESIS_DB = 3;
+    private final int mSampleRate;
+    private final double mFloorDb;
+    private long mHoldSamples;
+    private volatile Mode mMode = Mode.ACTIVE;
+    private long mBelowSamples = 0;
+    private volatile long mSwitches = 0;
+    private final AtomicLongArray mCpuNanos = new AtomicLongArray(Mode.values().length);
+    private final AtomicLongArray mAudioSamples = new AtomicLongArray(Mode.values().length);
+
+    /**
+     * @param floorDb weighted, calibrated level below which blocks count as quiet; negative
+     *                infinity keeps the scheduler active for good (accounting still works).
+     */
+    public DutyCycleScheduler(int sampleRate, double floorDb) {
+        mSampleRate = sampleRate;
+        mFloorDb = floorDb;
+        setHoldMillis(DEFAULT_HOLD_MILLIS);
+    }
+
+    /** How long levels must stay below the floor before going quiet. */
+    public void setHoldMillis(int millis) {
+        mHoldSamples = (long) millis * mSampleRate / 1000;
+    }
+
+    public Mode getMode() {
+        return mMode;
+    }
+
+    public boolean isEnabled() {
+        return mFloorDb != Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * In quiet mode, takes the weighted Leq of a block just metered. Returns true if it stays quiet
+     * and the metering is all the block needs; false if the scheduler has switched to active (or
+     * was active) and the block needs full analysis.
+     */
+    public boolean offerQuiet(double levelDb) {
+        if (mMode != Mode.QUIET) {
+            return false;
+        }
+        if (levelDb < mFloorDb) {
+            return true;
+        }
+        mMode = Mode.ACTIVE;
+        mBelowSamples = 0;
+        mSwitches++;
+        return false;
+    }
+
+    /**
+     * In active mode, reports the weighted Leq of a fully analyzed block. {@code busy} holds the scheduler
+     * active regardless, e.g. while speech is being tracked.
+     */
+    public void onActiveBlock(double levelDb, int length, boolean busy) {
+        if (mMode != Mode.ACTIVE || !isEnabled()) {
+            return;
+        }
+        if (busy || levelDb >= mFloorDb - HYSTERESIS_DB) {
+            mBelowSamples = 0;
+            return;
+        }
+        mBelowSamples += length;
+        if (mBelowSamples >= mHoldSamples) {
+            mMode = Mode.QUIET;
+            mSwitches++;
+        }
+    }
+
+    /** Back to active, e.g. on start. Keeps the accounting. */
+    public void wake() {
+        mMode = Mode.ACTIVE;
+        mBelowSamples = 0;
+    }
+
+    /** Adds CPU time spent on behalf of {@code mode}; callable from any thread. */
+    public void recordCpu(Mode mode, long nanos) {
+        mCpuNanos.addAndGet(mode.ordinal(), nanos);
+    }
+
+    /** Adds audio handled in {@code mode}; count each sample frame once, from one thread. */
+    public void recordAudio(Mode mode, long sampleFrames) {
+        mAudioSamples.addAndGet(mode.ordinal(), sampleFrames);
+    }
+
+    public double getAudioSeconds(Mode mode) {
+        return (double) mAudioSamples.get(mode.ordinal()) / mSampleRate;
+    }
+
+    /** CPU milliseconds per second of audio spent in {@code mode}, or NaN before any audio. */
+    public double getCpuMillisPerAudioSecond(Mode mode) {
+        final double seconds = getAudioSeconds(mode);
+        return seconds == 0 ? Double.NaN : mCpuNanos.get(mode.ordinal()) / 1e6 / seconds;
+    }
+
+    public long getSwitches() {
+        return mSwitches;
+    }
+}
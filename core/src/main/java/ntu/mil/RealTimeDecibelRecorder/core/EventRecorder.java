@@ -0,0 +1,133 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes one file per triggered event instead of recording continuously.
+ *
+ * Between events the audio only goes into a {@link PreRollBuffer}, so the disk stays idle. When the
+ * trigger fires, a file is opened and gets the pre-roll followed by the live audio; it is closed
+ * once the trigger has stayed quiet for the post-roll time, cut exactly at that sample. The rest
+ * of that block starts the next pre-roll. The trigger sees multichannel blocks mixed to mono, so
+ * a VAD or level threshold behaves as it does on live analysis.
+ */
+public class EventRecorder implements Closeable {
+    public interface Listener {
+        void onEventStarted(File file);
+
+        void onEventFinished(File file, long dataBytes);
+    }
+
+    private final SegmentedRecorder.Namer mNamer;
+    private final Listener mListener;
+    private final EventTrigger mTrigger;
+    private final int mSampleRate;
+    private final int mChannels;
+    private final AudioSink.Factory mSinkFactory;
+    private final PreRollBuffer mPreRoll;
+    private final long mPostRollSamples;
+
+    private AudioSink mWriter;
+    private File mFile;
+    private long mQuietSamples = 0;
+    private long mEventCount = 0;
+    private short[] mMono = new short[0];
+
+    /** Writes 16-bit PCM WAV files. */
+    public EventRecorder(SegmentedRecorder.Namer namer, Listener listener, EventTrigger trigger, int sampleRate,
+                         int channels, int maxFrameSamples, int preRollMillis, int postRollMillis) {
+        this(namer, listener, trigger, WavWriter.factory(sampleRate, channels, maxFrameSamples), sampleRate, channels,
+                preRollMillis, postRollMillis);
+    }
+
+    public EventRecorder(SegmentedRecorder.Namer namer, Listener listener, EventTrigger trigger,
+                         AudioSink.Factory sinkFactory, int sampleRate, int channels, int preRollMillis,
+                         int postRollMillis) {
+        mNamer = namer;
+        mListener = listener;
+        mTrigger = trigger;
+        mSinkFactory = sinkFactory;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mPreRoll = new PreRollBuffer((int) ((long) preRollMillis * sampleRate / 1000) * channels);
+        mPostRollSamples = (long) postRollMillis * sampleRate / 1000 * channels;
+    }
+
+    /**
+     * Feeds one block.
+     *
+     * @param endMillis wall-clock time at the end of the block, used to name new event files.
+     */
+    public void process(short[] samples, int offset, int length, long endMillis) throws IOException {
+        final boolean triggered;
+        if (mChannels > 1) {
+            if (mMono.length < length / mChannels) {
+                mMono = new short[length / mChannels];
+            }
+            triggered = mTrigger.process(mMono, 0, AudioFrame.mixToMono(samples, offset, length, mChannels, mMono));
+        } else {
+            triggered = mTrigger.process(samples, offset, length);
+        }
+        if (mWriter == null) {
+            if (!triggered) {
+                mPreRoll.write(samples, offset, length);
+                return;
+            }
+            final long heldSamples = (mPreRoll.size() + length) / mChannels;
+            startEvent(endMillis - heldSamples * 1000 / mSampleRate);
+            mWriter.write(samples, offset, length);
+            mQuietSamples = 0;
+            return;
+        }
+
+        if (triggered) {
+            mWriter.write(samples, offset, length);
+            mQuietSamples = 0;
+            return;
+        }
+        final int remaining = (int) Math.min(length, mPostRollSamples - mQuietSamples);
+        mWriter.write(samples, offset, remaining);
+        mQuietSamples += remaining;
+        if (mQuietSamples >= mPostRollSamples) {
+            finishEvent();
+            mPreRoll.write(samples, offset + remaining, length - remaining);
+        }
+    }
+
+    public boolean isInEvent() {
+        return mWriter != null;
+    }
+
+    public long getEventCount() {
+        return mEventCount;
+    }
+
+    private void startEvent(long startMillis) throws IOException {
+        mFile = mNamer.fileFor(startMillis);
+        mWriter = mSinkFactory.open(mFile);
+        mEventCount++;
+        mListener.onEventStarted(mFile);
+        mPreRoll.drainTo(mWriter);
+    }
+
+    private void finishEvent() throws IOException {
+        final AudioSink writer = mWriter;
+        final File file = mFile;
+        mWriter = null;
+        mFile = null;
+        writer.close();
+        mListener.onEventFinished(file, writer.getDataLength());
+    }
+
+    /** Finishes an event still in progress; the pre-roll is dropped. */
+    @Override
+    public void close() throws IOException {
+        mPreRoll.clear();
+        mTrigger.reset();
+        if (mWriter != null) {
+            finishEvent();
+        }
+    }
+}
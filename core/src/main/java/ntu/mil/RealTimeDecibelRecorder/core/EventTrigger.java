@@ -0,0 +1,9 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/** Decides, block by block, whether an event is going on. */
+public interface EventTrigger {
+    /** @return true if this block should be part of an event. */
+    boolean process(short[] samples, int offset, int length);
+
+    void reset();
+}
@@ -0,0 +1,244 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fans pooled {@link AudioFrame}s out to any number of subscribers without copying samples.
+ *
+ * Each subscription holds a reference to every frame in its bounded queue. By default the
+ * producer never waits and takes no lock on the subscriptions: when a subscriber's queue is full,
+ * the producer releases that subscriber's oldest frame and counts it as dropped for it alone, so a
+ * stalled consumer loses its oldest audio while capture and every other consumer carry on. A
+ * lossless bus instead makes the producer wait for the slowest subscriber, for sources that are
+ * not real time. Publishing allocates nothing, and the only lock the capture thread takes is the
+ * frame pool's, for the push or pop of one free frame.
+ */
+public class FrameBus {
+    // Upper bound on one wait of a lossless producer; normally a poll() unparks it sooner.
+    private static final long PRODUCER_PARK_NANOS = 10 * 1000000L;
+
+    private volatile Subscription[] mSubscriptions = new Subscription[0];
+    private volatile boolean isClosed = false;
+    private volatile long mPublished = 0;
+    private volatile boolean isLossless = false;
+
+    /** Whether publish() waits for queue space instead of dropping the oldest frames. */
+    public void setLossless(boolean lossless) {
+        isLossless = lossless;
+    }
+
+    /** Subscribes from the next published frame on, keeping at most {@code capacity} unread frames. */
+    public synchronized Subscription subscribe(int capacity) {
+        final Subscription subscription = new Subscription(capacity);
+        if (isClosed) {
+            subscription.close();
+        }
+        final Subscription[] subscriptions = new Subscription[mSubscriptions.length + 1];
+        System.arraycopy(mSubscriptions, 0, subscriptions, 0, mSubscriptions.length);
+        subscriptions[mSubscriptions.length] = subscription;
+        mSubscriptions = subscriptions;
+        return subscription;
+    }
+
+    /** Stops delivery to {@code subscription} and releases the frames it had not read. */
+    public synchronized void unsubscribe(Subscription subscription) {
+        final Subscription[] current = mSubscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscription) {
+                final Subscription[] subscriptions = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, subscriptions, 0, i);
+                System.arraycopy(current, i + 1, subscriptions, i, current.length - i - 1);
+                mSubscriptions = subscriptions;
+                break;
+            }
+        }
+        subscription.cancel();
+    }
+
+    /** Publishes a frame captured just now. */
+    public void publish(AudioFrame frame, int length, long timestampMillis) {
+        publish(frame, length, timestampMillis, System.nanoTime());
+    }
+
+    /**
+     * Stamps {@code frame} and hands it to every subscriber. Takes over the caller's reference,
+     * so the frame must not be used afterwards. Only one thread may publish.
+     */
+    public void publish(AudioFrame frame, int length, long timestampMillis, long captureNanos) {
+        final long sequence = mPublished;
+        frame.set(length, timestampMillis, captureNanos, sequence);
+        final boolean lossless = isLossless;
+        for (Subscription subscription : mSubscriptions) {
+            subscription.offer(frame, lossless);
+        }
+        mPublished = sequence + 1;
+        frame.release();
+    }
+
+    public long getPublishedFrames() {
+        return mPublished;
+    }
+
+    /** Marks the end of the stream. Subscribers drain what is queued and then see it closed. */
+    public synchronized void close() {
+        isClosed = true;
+        for (Subscription subscription : mSubscriptions) {
+            subscription.close();
+        }
+    }
+
+    /**
+     * Bounded queue between the one publishing thread and one consumer. Both ends are lock-free:
+     * the consumer, and the producer when it drops the oldest frame, advance the head with a
+     * compare-and-set, so whichever wins owns that frame. Waiting, by a consumer in
+     * {@link #take(long)} or by a lossless producer, parks the thread and is ended by an unpark
+     * from the other side.
+     */
+    public static class Subscription {
+        private final AtomicReferenceArray<AudioFrame> mQueue;
+        private final int mCapacity;
+        // Next frame to take; the producer only writes the slot at mTail once the head has left it.
+        private final AtomicLong mHead = new AtomicLong(0);
+        private volatile long mTail = 0;
+        private volatile boolean isClosed = false;
+        private volatile boolean isCancelled = false;
+        private volatile long mDropped = 0;
+        private volatile Thread mConsumer;
+        private volatile Thread mProducer;
+
+        Subscription(int capacity) {
+            mCapacity = Math.max(1, capacity);
+            mQueue = new AtomicReferenceArray<>(mCapacity);
+        }
+
+        private int slot(long sequence) {
+            return (int) (sequence % mCapacity);
+        }
+
+        void offer(AudioFrame frame, boolean lossless) {
+            if (isClosed) {
+                return;
+            }
+            final long tail = mTail;
+            while (true) {
+                final long head = mHead.get();
+                if (tail - head < mCapacity) {
+                    break;
+                }
+                if (lossless && !Thread.currentThread().isInterrupted()) {
+                    mProducer = Thread.currentThread();
+                    if (mHead.get() == head && !isClosed) {
+                        LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+                    }
+                    mProducer = null;
+                    if (isClosed) {
+                        return;
+                    }
+                    continue;
+                }
+                final AudioFrame oldest = mQueue.get(slot(head));
+                if (mHead.compareAndSet(head, head + 1)) {
+                    oldest.release();
+                    mDropped++;
+                }
+            }
+            mQueue.set(slot(tail), frame.retain());
+            mTail = tail + 1;
+            final Thread consumer = mConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+            if (isCancelled) {
+                // Unsubscribed while this offer was under way; cancel() may have drained already.
+                drain();
+            }
+        }
+
+        /**
+         * The next frame, whose reference now belongs to the caller, or null if none is queued.
+         */
+        public AudioFrame poll() {
+            while (true) {
+                final long head = mHead.get();
+                if (head >= mTail) {
+                    return null;
+                }
+                final AudioFrame frame = mQueue.get(slot(head));
+                if (mHead.compareAndSet(head, head + 1)) {
+                    final Thread producer = mProducer;
+                    if (producer != null) {
+                        // A lossless producer may be waiting for this slot.
+                        LockSupport.unpark(producer);
+                    }
+                    return frame;
+                }
+            }
+        }
+
+        /**
+         * Like {@link #poll()} but waits up to {@code timeoutMillis} for a frame.
+         *
+         * @return null on timeout, interrupt, or when the bus is closed and this queue drained.
+         */
+        public AudioFrame take(long timeoutMillis) {
+            AudioFrame frame = poll();
+            if (frame != null || isClosed) {
+                return frame;
+            }
+            mConsumer = Thread.currentThread();
+            try {
+                // Checked again after registering, so a frame published meanwhile is not slept past.
+                frame = poll();
+                if (frame == null && !isClosed) {
+                    LockSupport.parkNanos(this, timeoutMillis * 1000000L);
+                    frame = poll();
+                }
+            } finally {
+                mConsumer = null;
+            }
+            return frame;
+        }
+
+        public boolean isDrained() {
+            return isClosed && mHead.get() >= mTail;
+        }
+
+        /** Frames queued but not yet taken. */
+        public int getQueueDepth() {
+            final long head = mHead.get();
+            return (int) Math.max(0, mTail - head);
+        }
+
+        /** Frames this subscriber lost because its queue was full. */
+        public long getDroppedFrames() {
+            return mDropped;
+        }
+
+        void close() {
+            isClosed = true;
+            final Thread consumer = mConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+            final Thread producer = mProducer;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+        }
+
+        void cancel() {
+            isCancelled = true;
+            close();
+            drain();
+        }
+
+        private void drain() {
+            AudioFrame frame;
+            while ((frame = poll()) != null) {
+                frame.release();
+            }
+        }
+    }
+}
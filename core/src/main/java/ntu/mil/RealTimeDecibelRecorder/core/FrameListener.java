@@ -0,0 +1,10 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/** Receives published frames. */
+public interface FrameListener {
+    /**
+     * The frame is valid for the duration of the call; {@link AudioFrame#retain()} it to keep it
+     * longer. Must not modify the samples.
+     */
+    void onFrame(AudioFrame frame);
+}
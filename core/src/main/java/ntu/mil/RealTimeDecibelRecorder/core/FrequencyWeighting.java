@@ -0,0 +1,6 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/** IEC 61672 frequency weightings. */
+public enum FrequencyWeighting {
+    A, C, Z
+}
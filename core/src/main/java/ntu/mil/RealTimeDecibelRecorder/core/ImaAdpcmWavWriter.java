@@ -0,0 +1,240 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Single-pass IMA ADPCM (WAVE_FORMAT_IMA_ADPCM, 4 bits per sample) WAV writer, about a quarter of
+ * the size of 16-bit PCM.
+ *
+ * Samples are encoded one block at a time as they arrive, using the block layout standard decoders
+ * expect (per-channel header, then 4-byte groups of 8 nibbles per channel). The last block is
+ * padded and the 'fact' chunk records the real sample count. Like {@link WavWriter}, sizes are
+ * patched in place by {@link #close()}; nothing is allocated per block.
+ */
+public class ImaAdpcmWavWriter implements AudioSink {
+    public static final int HEADER_SIZE = 60;
+    private static final int FORMAT_IMA_ADPCM = 0x11;
+    private static final int RIFF_SIZE_OFFSET = 4;
+    private static final int FACT_SAMPLES_OFFSET = 48;
+    private static final int DATA_SIZE_OFFSET = 56;
+
+    private static final int[] STEP_SIZES = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+    private static final int[] INDEX_ADJUST = {-1, -1, -1, -1, 2, 4, 6, 8};
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mChannels;
+    private final int mSamplesPerBlock;
+    private final short[] mPending;
+    private int mPendingFill = 0;
+    private final ByteBuffer mBlock;
+    private final ByteBuffer mSizeField = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    private final int[] mPredictor;
+    private final int[] mStepIndex;
+    private long mFrames = 0;
+    private long mDataLength = 0;
+    private boolean isClosed = false;
+
+    public static AudioSink.Factory factory(final int sampleRate, final int channels) {
+        return new AudioSink.Factory() {
+            @Override
+            public AudioSink open(File file) throws IOException {
+                return new ImaAdpcmWavWriter(file, sampleRate, channels);
+            }
+        };
+    }
+
+    /** The block size most encoders use: 256 bytes per channel at 11 kHz, doubling with the rate. */
+    public static int defaultBlockAlign(int sampleRate, int channels) {
+        return 256 * channels * Math.max(1, Integer.highestOneBit(Math.max(1, sampleRate / 11025)));
+    }
+
+    public static int samplesPerBlock(int blockAlign, int channels) {
+        return (blockAlign - 4 * channels) * 2 / channels + 1;
+    }
+
+    public ImaAdpcmWavWriter(File file, int sampleRate, int channels) throws IOException {
+        this(file, sampleRate, channels, defaultBlockAlign(sampleRate, channels));
+    }
+
+    public ImaAdpcmWavWriter(File file, int sampleRate, int channels, int blockAlign) throws IOException {
+        if (blockAlign % (4 * channels) != 0 || blockAlign <= 4 * channels)
+            throw new IllegalArgumentException("blockAlign must be a multiple of " + 4 * channels + ": " + blockAlign);
+        mChannels = channels;
+        mSamplesPerBlock = samplesPerBlock(blockAlign, channels);
+        mPending = new short[mSamplesPerBlock * channels];
+        mPredictor = new int[channels];
+        mStepIndex = new int[channels];
+        mBlock = ByteBuffer.allocateDirect(Math.max(blockAlign, HEADER_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mBlock.clear();
+        writeHeader(mBlock, 0, 0, sampleRate, channels, blockAlign, mSamplesPerBlock);
+        mBlock.flip();
+        writeFully(mBlock);
+    }
+
+    public int getSamplesPerBlock() {
+        return mSamplesPerBlock;
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int chunk = Math.min(length, mPending.length - mPendingFill);
+            System.arraycopy(samples, offset, mPending, mPendingFill, chunk);
+            mPendingFill += chunk;
+            offset += chunk;
+            length -= chunk;
+            if (mPendingFill == mPending.length) {
+                mFrames += mSamplesPerBlock;
+                encodeBlock();
+            }
+        }
+    }
+
+    @Override
+    public long getDataLength() {
+        return mDataLength;
+    }
+
+    private void encodeBlock() throws IOException {
+        final short[] pending = mPending;
+        final int channels = mChannels;
+        final ByteBuffer out = mBlock;
+        out.clear();
+        // The first sample of each channel is stored verbatim and seeds the predictor.
+        for (int ch = 0; ch < channels; ch++) {
+            mPredictor[ch] = pending[ch];
+            out.putShort(pending[ch]);
+            out.put((byte) mStepIndex[ch]);
+            out.put((byte) 0);
+        }
+        for (int frame = 1; frame < mSamplesPerBlock; frame += 8) {
+            for (int ch = 0; ch < channels; ch++) {
+                for (int k = 0; k < 8; k += 2) {
+                    final int low = encode(ch, pending[(frame + k) * channels + ch]);
+                    final int high = encode(ch, pending[(frame + k + 1) * channels + ch]);
+                    out.put((byte) (low | high << 4));
+                }
+            }
+        }
+        out.flip();
+        mDataLength += out.remaining();
+        writeFully(out);
+        mPendingFill = 0;
+    }
+
+    private int encode(int ch, int sample) {
+        int predictor = mPredictor[ch];
+        int index = mStepIndex[ch];
+        int step = STEP_SIZES[index];
+        int diff = sample - predictor;
+        int nibble = 0;
+        if (diff < 0) {
+            nibble = 8;
+            diff = -diff;
+        }
+        // Same rounding as the decoder: delta = step/8 + the steps selected by the three bits.
+        int delta = step >> 3;
+        if (diff >= step) {
+            nibble |= 4;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 2;
+            diff -= step;
+            delta += step;
+        }
+        step >>= 1;
+        if (diff >= step) {
+            nibble |= 1;
+            delta += step;
+        }
+        predictor += (nibble & 8) != 0 ? -delta : delta;
+        if (predictor > Short.MAX_VALUE) predictor = Short.MAX_VALUE;
+        else if (predictor < Short.MIN_VALUE) predictor = Short.MIN_VALUE;
+        index += INDEX_ADJUST[nibble & 7];
+        if (index < 0) index = 0;
+        else if (index > 88) index = 88;
+        mPredictor[ch] = predictor;
+        mStepIndex[ch] = index;
+        return nibble;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            if (mPendingFill > 0) {
+                // Pad the last block by holding each channel's last sample; 'fact' trims it off.
+                mFrames += mPendingFill / mChannels;
+                for (int i = mPendingFill; i < mPending.length; i++) {
+                    mPending[i] = i >= mChannels ? mPending[i - mChannels] : 0;
+                }
+                encodeBlock();
+            }
+            patchSize(RIFF_SIZE_OFFSET, mDataLength + HEADER_SIZE - 8);
+            patchSize(FACT_SAMPLES_OFFSET, mFrames);
+            patchSize(DATA_SIZE_OFFSET, mDataLength);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private void patchSize(long position, long value) throws IOException {
+        mSizeField.clear();
+        mSizeField.putInt((int) value);
+        mSizeField.flip();
+        while (mSizeField.hasRemaining()) {
+            position += mChannel.write(mSizeField, position);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    /** Puts the 60-byte RIFF/fmt/fact/data header into {@code out}, which must be little endian. */
+    public static void writeHeader(ByteBuffer out, long dataLength, long frames, int sampleRate, int channels,
+                                   int blockAlign, int samplesPerBlock) {
+        out.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        out.putInt((int) (dataLength + HEADER_SIZE - 8));
+        out.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        out.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        out.putInt(20); // size of 'fmt ' chunk
+        out.putShort((short) FORMAT_IMA_ADPCM);
+        out.putShort((short) channels);
+        out.putInt(sampleRate);
+        out.putInt((int) ((long) sampleRate * blockAlign / samplesPerBlock)); // average byte rate
+        out.putShort((short) blockAlign);
+        out.putShort((short) 4); // bits per sample
+        out.putShort((short) 2); // extra format bytes
+        out.putShort((short) samplesPerBlock);
+        out.put((byte) 'f').put((byte) 'a').put((byte) 'c').put((byte) 't');
+        out.putInt(4);
+        out.putInt((int) frames);
+        out.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        out.putInt((int) dataLength);
+    }
+}
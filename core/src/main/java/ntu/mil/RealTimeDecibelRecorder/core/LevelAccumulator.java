@@ -0,0 +1,84 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Cuts a stream of per-block levels into fixed wall-clock intervals (aligned to multiples of the
+ * interval) and reports each interval's Leq, Lmax and Lmin. Energy is averaged in the linear
+ * domain, weighted by block length.
+ */
+public class LevelAccumulator {
+    private final long mIntervalMillis;
+    private long mIntervalStart = Long.MIN_VALUE;
+    private double mEnergy = 0;
+    private long mSamples = 0;
+    private double mMax = Double.NEGATIVE_INFINITY;
+    private double mMin = Double.POSITIVE_INFINITY;
+
+    private long mLastStart;
+    private double mLastLeq, mLastMax, mLastMin;
+
+    public LevelAccumulator(long intervalMillis) {
+        mIntervalMillis = intervalMillis;
+    }
+
+    public long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    /**
+     * Adds one block ending at {@code endMillis}. A NaN {@code minDb} leaves Lmin alone.
+     *
+     * @return true if this block started a new interval, i.e. the previous one is complete and
+     * available through the getters.
+     */
+    public boolean add(long endMillis, double leqDb, int samples, double maxDb, double minDb) {
+        final long start = endMillis - ((endMillis % mIntervalMillis) + mIntervalMillis) % mIntervalMillis;
+        boolean completed = false;
+        if (start != mIntervalStart) {
+            completed = finish();
+            mIntervalStart = start;
+        }
+        mEnergy += Math.pow(10, leqDb / 10) * samples;
+        mSamples += samples;
+        if (maxDb > mMax) mMax = maxDb;
+        if (minDb < mMin) mMin = minDb;
+        return completed;
+    }
+
+    /** Completes the interval in progress early, e.g. on stop. Returns false if it was empty. */
+    public boolean flush() {
+        final boolean completed = finish();
+        mIntervalStart = Long.MIN_VALUE;
+        return completed;
+    }
+
+    private boolean finish() {
+        if (mSamples == 0) {
+            return false;
+        }
+        mLastStart = mIntervalStart;
+        mLastLeq = 10 * Math.log10(mEnergy / mSamples);
+        mLastMax = mMax;
+        mLastMin = mMin == Double.POSITIVE_INFINITY ? mLastLeq : mMin;
+        mEnergy = 0;
+        mSamples = 0;
+        mMax = Double.NEGATIVE_INFINITY;
+        mMin = Double.POSITIVE_INFINITY;
+        return true;
+    }
+
+    public long getStartMillis() {
+        return mLastStart;
+    }
+
+    public double getLeq() {
+        return mLastLeq;
+    }
+
+    public double getMaxLevel() {
+        return mLastMax;
+    }
+
+    public double getMinLevel() {
+        return mLastMin;
+    }
+}
@@ -0,0 +1,69 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Fixed-bin histogram of levels (0.1 dB bins from 0 to 150 dB) weighted by time, for statistical
+ * levels such as L10/L50/L90. Histograms of adjacent windows merge by adding bins, so a day's
+ * percentiles come from its minutes in O(bins) without keeping any samples.
+ */
+public class LevelHistogram {
+    public static final double BIN_DB = 0.1;
+    public static final double MIN_DB = 0;
+    public static final double MAX_DB = 150;
+    private static final int BINS = (int) Math.round((MAX_DB - MIN_DB) / BIN_DB);
+
+    private final long[] mCounts = new long[BINS];
+    private long mTotal = 0;
+
+    /** Adds {@code weight} (e.g. samples) at {@code levelDb}; levels outside the range go to the end bins. */
+    public void add(double levelDb, long weight) {
+        int bin = (int) Math.floor((levelDb - MIN_DB) / BIN_DB);
+        if (bin < 0) bin = 0;
+        else if (bin >= BINS) bin = BINS - 1;
+        mCounts[bin] += weight;
+        mTotal += weight;
+    }
+
+    public void merge(LevelHistogram other) {
+        final long[] counts = mCounts;
+        final long[] others = other.mCounts;
+        for (int i = 0; i < BINS; i++) {
+            counts[i] += others[i];
+        }
+        mTotal += other.mTotal;
+    }
+
+    public void copyFrom(LevelHistogram other) {
+        System.arraycopy(other.mCounts, 0, mCounts, 0, BINS);
+        mTotal = other.mTotal;
+    }
+
+    public void clear() {
+        for (int i = 0; i < BINS; i++) {
+            mCounts[i] = 0;
+        }
+        mTotal = 0;
+    }
+
+    public long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * Level exceeded for {@code percent} of the time, e.g. 10 for L10, at the centre of its bin.
+     * NaN if nothing was added.
+     */
+    public double getExceededLevel(double percent) {
+        if (mTotal == 0) {
+            return Double.NaN;
+        }
+        final double target = mTotal * percent / 100.0;
+        long above = 0;
+        for (int bin = BINS - 1; bin > 0; bin--) {
+            above += mCounts[bin];
+            if (above > target) {
+                return MIN_DB + (bin + 0.5) * BIN_DB;
+            }
+        }
+        return MIN_DB + 0.5 * BIN_DB;
+    }
+}
@@ -0,0 +1,126 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Zoomable reads over a {@link LevelPyramid}: any time range comes back as at most a given number
+ * of points. The finest level that fits is read directly; when even the coarsest one has too many
+ * records, consecutive records are merged on the fly (energy-mean Leq, max Lmax, min Lmin).
+ */
+public class LevelHistory {
+    private final long[] mLevelMillis;
+    private final LevelLogReader[] mReaders;
+
+    /** @param baseMillis interval of the base records, e.g. the recorder's level log interval. */
+    public LevelHistory(File directory, long baseMillis) {
+        this(directory, baseMillis, LevelPyramid.DEFAULT_ROLLUP_MILLIS);
+    }
+
+    public LevelHistory(File directory, long baseMillis, long[] rollupMillis) {
+        mLevelMillis = new long[rollupMillis.length + 1];
+        mReaders = new LevelLogReader[rollupMillis.length + 1];
+        mLevelMillis[0] = baseMillis;
+        mReaders[0] = new LevelLogReader(directory);
+        for (int i = 0; i < rollupMillis.length; i++) {
+            mLevelMillis[i + 1] = rollupMillis[i];
+            mReaders[i + 1] = new LevelLogReader(LevelPyramid.rollupDirectory(directory, rollupMillis[i]));
+        }
+    }
+
+    /** Length of time each point returned by {@link #query} covers for this range. */
+    public long getResolutionMillis(long fromMillis, long toMillis, int maxPoints) {
+        final int level = pickLevel(fromMillis, toMillis, maxPoints);
+        return mLevelMillis[level] * groupSize(level, fromMillis, toMillis, maxPoints);
+    }
+
+    /**
+     * Visits at most {@code maxPoints} (at least 2) points covering [{@code fromMillis},
+     * {@code toMillis}), oldest first. Each point's time is the start of the interval it covers.
+     *
+     * @return the number of points visited.
+     */
+    public int query(long fromMillis, long toMillis, int maxPoints, LevelLog.Visitor visitor) throws IOException {
+        if (maxPoints < 2)
+            throw new IllegalArgumentException("maxPoints must be at least 2: " + maxPoints);
+        final int level = pickLevel(fromMillis, toMillis, maxPoints);
+        final long group = groupSize(level, fromMillis, toMillis, maxPoints);
+        if (group == 1) {
+            return mReaders[level].scan(fromMillis, toMillis, visitor);
+        }
+        final Merger merger = new Merger(mLevelMillis[level] * group, visitor);
+        mReaders[level].scan(fromMillis, toMillis, merger);
+        merger.emit();
+        return merger.mEmitted;
+    }
+
+    // A range of n intervals can touch n + 1 of them once it is not aligned.
+    private static long pointsFor(long spanMillis, long intervalMillis) {
+        return (spanMillis + intervalMillis - 1) / intervalMillis + 1;
+    }
+
+    private int pickLevel(long fromMillis, long toMillis, int maxPoints) {
+        final long span = Math.max(0, toMillis - fromMillis);
+        for (int level = 0; level < mLevelMillis.length; level++) {
+            if (pointsFor(span, mLevelMillis[level]) <= maxPoints) {
+                return level;
+            }
+        }
+        return mLevelMillis.length - 1;
+    }
+
+    private long groupSize(int level, long fromMillis, long toMillis, int maxPoints) {
+        final long span = Math.max(0, toMillis - fromMillis);
+        final long interval = mLevelMillis[level];
+        if (pointsFor(span, interval) <= maxPoints) {
+            return 1;
+        }
+        long group = (span + interval * (maxPoints - 1) - 1) / (interval * (maxPoints - 1));
+        while (pointsFor(span, interval * group) > maxPoints) {
+            group++;
+        }
+        return group;
+    }
+
+    private static class Merger implements LevelLog.Visitor {
+        private final long mGroupMillis;
+        private final LevelLog.Visitor mOut;
+        private long mStart = Long.MIN_VALUE;
+        private double mEnergy;
+        private int mCount;
+        private float mMax;
+        private float mMin;
+        private int mEmitted = 0;
+
+        Merger(long groupMillis, LevelLog.Visitor out) {
+            mGroupMillis = groupMillis;
+            mOut = out;
+        }
+
+        @Override
+        public void onRecord(long startMillis, float leq, float maxLevel, float minLevel) {
+            final long start = startMillis - ((startMillis % mGroupMillis) + mGroupMillis) % mGroupMillis;
+            if (start != mStart) {
+                emit();
+                mStart = start;
+                mEnergy = 0;
+                mCount = 0;
+                mMax = Float.NEGATIVE_INFINITY;
+                mMin = Float.POSITIVE_INFINITY;
+            }
+            mEnergy += Math.pow(10, leq / 10.0);
+            mCount++;
+            if (maxLevel > mMax) mMax = maxLevel;
+            if (minLevel < mMin) mMin = minLevel;
+        }
+
+        void emit() {
+            if (mCount == 0) {
+                return;
+            }
+            mOut.onRecord(mStart, (float) (10 * Math.log10(mEnergy / mCount)), mMax, mMin);
+            mEmitted++;
+            mCount = 0;
+        }
+    }
+}
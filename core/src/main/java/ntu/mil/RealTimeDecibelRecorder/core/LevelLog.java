@@ -0,0 +1,75 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * On-disk layout shared by {@link LevelLogWriter} and {@link LevelLogReader}.
+ *
+ * One data file per UTC day ({@code levels-<epoch day>.lvl}): a 16-byte header (magic, version,
+ * record size, record count) followed by fixed-width 16-byte records, oldest first: start time in
+ * millis, then Leq, Lmax and Lmin in hundredths of a dB. Next to it, {@code .idx} holds the start
+ * time of every {@link #INDEX_STRIDE}-th record, so a lookup touches a few pages of the index and
+ * one stride of records instead of binary searching the whole file.
+ */
+public final class LevelLog {
+    public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    static final int MAGIC = 0x564c4244; // "DBLV" in little-endian byte order
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int COUNT_OFFSET = 8;
+    static final int RECORD_SIZE = 16;
+    static final int INDEX_STRIDE = 256;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /** Receives records in time order. */
+    public interface Visitor {
+        void onRecord(long startMillis, float leq, float maxLevel, float minLevel);
+    }
+
+    private LevelLog() {
+    }
+
+    static long dayOf(long millis) {
+        return millis >= 0 ? millis / DAY_MILLIS : (millis + 1) / DAY_MILLIS - 1;
+    }
+
+    static File dataFile(File directory, long day) {
+        return new File(directory, "levels-" + day + ".lvl");
+    }
+
+    static File indexFile(File directory, long day) {
+        return new File(directory, "levels-" + day + ".idx");
+    }
+
+    static short toCentiDb(double db) {
+        final long centi = Math.round(db * 100);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, centi));
+    }
+
+    static float fromCentiDb(short centi) {
+        return centi / 100f;
+    }
+
+    /** Maps the index of a data file read-only, or returns null if there is none. */
+    static LongBuffer mapIndex(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final long entries = raf.length() / 8;
+            final MappedByteBuffer bytes = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, entries * 8);
+            return bytes.order(ORDER).asLongBuffer();
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Range queries over the files written by {@link LevelLogWriter}. Each day file is memory-mapped
+ * read-only; the sparse index narrows the start position to one stride, which is then binary
+ * searched, and records are visited straight out of the mapping. Safe to use while a writer is
+ * appending: only records counted in the header are read.
+ */
+public class LevelLogReader {
+    private final File mDirectory;
+
+    public LevelLogReader(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Visits the records starting in [{@code fromMillis}, {@code toMillis}) in time order.
+     *
+     * @return the number of records visited.
+     */
+    public int scan(long fromMillis, long toMillis, LevelLog.Visitor visitor) throws IOException {
+        if (toMillis <= fromMillis) {
+            return 0;
+        }
+        int visited = 0;
+        final long lastDay = LevelLog.dayOf(toMillis - 1);
+        for (long day = LevelLog.dayOf(fromMillis); day <= lastDay; day++) {
+            visited += scanDay(day, fromMillis, toMillis, visitor);
+        }
+        return visited;
+    }
+
+    private int scanDay(long day, long fromMillis, long toMillis, LevelLog.Visitor visitor) throws IOException {
+        final File file = LevelLog.dataFile(mDirectory, day);
+        if (!file.exists()) {
+            return 0;
+        }
+        final ByteBuffer records;
+        final long count;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < LevelLog.HEADER_SIZE) {
+                return 0;
+            }
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, LevelLog.HEADER_SIZE)
+                    .order(LevelLog.ORDER);
+            if (header.getInt(0) != LevelLog.MAGIC) {
+                throw new IOException("Not a level log: " + file);
+            }
+            count = Math.min(header.getLong(LevelLog.COUNT_OFFSET),
+                    (raf.length() - LevelLog.HEADER_SIZE) / LevelLog.RECORD_SIZE);
+            if (count <= 0) {
+                return 0;
+            }
+            records = channel.map(FileChannel.MapMode.READ_ONLY, LevelLog.HEADER_SIZE, count * LevelLog.RECORD_SIZE)
+                    .order(LevelLog.ORDER);
+        } finally {
+            raf.close();
+        }
+
+        int visited = 0;
+        for (int i = firstAtOrAfter(day, records, (int) count, fromMillis); i < count; i++) {
+            final int position = i * LevelLog.RECORD_SIZE;
+            final long start = records.getLong(position);
+            if (start >= toMillis) {
+                break;
+            }
+            visitor.onRecord(start, LevelLog.fromCentiDb(records.getShort(position + 8)),
+                    LevelLog.fromCentiDb(records.getShort(position + 10)),
+                    LevelLog.fromCentiDb(records.getShort(position + 12)));
+            visited++;
+        }
+        return visited;
+    }
+
+    private int firstAtOrAfter(long day, ByteBuffer records, int count, long millis) throws IOException {
+        int lo = 0;
+        int hi = count;
+        final LongBuffer index = LevelLog.mapIndex(LevelLog.indexFile(mDirectory, day));
+        if (index != null && index.limit() >= (count + LevelLog.INDEX_STRIDE - 1) / LevelLog.INDEX_STRIDE) {
+            // Last stride whose first record is before millis; the answer lies within it or at its end.
+            int entryLo = 0;
+            int entryHi = (count + LevelLog.INDEX_STRIDE - 1) / LevelLog.INDEX_STRIDE;
+            while (entryLo < entryHi) {
+                final int mid = (entryLo + entryHi) >>> 1;
+                if (index.get(mid) < millis) {
+                    entryLo = mid + 1;
+                } else {
+                    entryHi = mid;
+                }
+            }
+            final int stride = Math.max(0, entryLo - 1);
+            lo = stride * LevelLog.INDEX_STRIDE;
+            hi = Math.min(count, lo + LevelLog.INDEX_STRIDE);
+        }
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (records.getLong(mid * LevelLog.RECORD_SIZE) < millis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,168 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends level records to the day files described in {@link LevelLog}.
+ *
+ * Records are written into a memory-mapped chunk of the file, and the header's record count is
+ * bumped after each record, so an append is a few memory stores and concurrent readers never see
+ * a half-written record. The last record can be rewritten in place, which is how rollups keep
+ * their open interval current. The file grows one chunk at a time; the slack after the last
+ * record is ignored by readers. Reopening a day continues where the previous writer stopped.
+ */
+public class LevelLogWriter implements Closeable {
+    private static final int CHUNK_RECORDS = 4096; // 64 KiB, a bit over an hour at one record per second
+
+    private final File mDirectory;
+    private final ByteBuffer mScratch = ByteBuffer.allocate(8).order(LevelLog.ORDER);
+    private long mDay = Long.MIN_VALUE;
+    private RandomAccessFile mFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mHeader;
+    private MappedByteBuffer mChunk;
+    private long mChunkFirst;
+    private RandomAccessFile mIndex;
+    private long mCount;
+    private long mLastStart = Long.MIN_VALUE;
+
+    public LevelLogWriter(File directory) {
+        mDirectory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create " + directory);
+        }
+    }
+
+    /**
+     * Appends one record, or rewrites the last one if it has the same start time. Start times must
+     * not go backwards; an older record (e.g. after the clock was set back) is dropped.
+     *
+     * @return false if the record was dropped.
+     */
+    public boolean append(long startMillis, double leq, double maxLevel, double minLevel) throws IOException {
+        if (startMillis < mLastStart) {
+            return false;
+        }
+        final long day = LevelLog.dayOf(startMillis);
+        if (day != mDay) {
+            openDay(day);
+            if (startMillis < mLastStart) {
+                return false;
+            }
+        }
+        final boolean isReplacing = startMillis == mLastStart && mCount > 0;
+        final long record = isReplacing ? mCount - 1 : mCount;
+        if (mChunk == null || record < mChunkFirst || record - mChunkFirst >= CHUNK_RECORDS) {
+            mChunkFirst = record;
+            mChunk = mChannel.map(FileChannel.MapMode.READ_WRITE,
+                    LevelLog.HEADER_SIZE + record * LevelLog.RECORD_SIZE, (long) CHUNK_RECORDS * LevelLog.RECORD_SIZE);
+            mChunk.order(LevelLog.ORDER);
+        }
+        final int position = (int) (record - mChunkFirst) * LevelLog.RECORD_SIZE;
+        mChunk.putLong(position, startMillis);
+        mChunk.putShort(position + 8, LevelLog.toCentiDb(leq));
+        mChunk.putShort(position + 10, LevelLog.toCentiDb(maxLevel));
+        mChunk.putShort(position + 12, LevelLog.toCentiDb(minLevel));
+        mChunk.putShort(position + 14, (short) 0); // reserved
+        if (isReplacing) {
+            return true;
+        }
+        if (mCount % LevelLog.INDEX_STRIDE == 0) {
+            mIndex.writeLong(Long.reverseBytes(startMillis));
+        }
+        mCount++;
+        mHeader.putLong(LevelLog.COUNT_OFFSET, mCount);
+        mLastStart = startMillis;
+        return true;
+    }
+
+    /** Forces written records to storage. Not needed for readers in this process. */
+    public void flush() throws IOException {
+        if (mChunk != null) {
+            mChunk.force();
+        }
+        if (mHeader != null) {
+            mHeader.force();
+        }
+    }
+
+    private void openDay(long day) throws IOException {
+        closeDay();
+        mDay = day;
+        mFile = new RandomAccessFile(LevelLog.dataFile(mDirectory, day), "rw");
+        mChannel = mFile.getChannel();
+        final boolean isNew = mFile.length() < LevelLog.HEADER_SIZE;
+        mHeader = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, LevelLog.HEADER_SIZE);
+        mHeader.order(LevelLog.ORDER);
+        if (isNew) {
+            mHeader.putInt(0, LevelLog.MAGIC);
+            mHeader.putShort(4, LevelLog.VERSION);
+            mHeader.putShort(6, (short) LevelLog.RECORD_SIZE);
+            mHeader.putLong(LevelLog.COUNT_OFFSET, 0);
+        } else if (mHeader.getInt(0) != LevelLog.MAGIC) {
+            closeDay();
+            throw new IOException("Not a level log: " + LevelLog.dataFile(mDirectory, day));
+        }
+        final long stored = (mFile.length() - LevelLog.HEADER_SIZE) / LevelLog.RECORD_SIZE;
+        mCount = Math.min(mHeader.getLong(LevelLog.COUNT_OFFSET), stored);
+        mChunk = null;
+        if (mCount > 0) {
+            mLastStart = Math.max(mLastStart, readStart(mCount - 1));
+        }
+
+        // Bring the index in line with the data; a crash can leave it short or long.
+        mIndex = new RandomAccessFile(LevelLog.indexFile(mDirectory, day), "rw");
+        final long expected = (mCount + LevelLog.INDEX_STRIDE - 1) / LevelLog.INDEX_STRIDE;
+        long entries = mIndex.length() / 8;
+        if (entries > expected) {
+            entries = expected;
+        }
+        mIndex.setLength(entries * 8);
+        mIndex.seek(entries * 8);
+        for (long entry = entries; entry < expected; entry++) {
+            mIndex.writeLong(Long.reverseBytes(readStart(entry * LevelLog.INDEX_STRIDE)));
+        }
+    }
+
+    private long readStart(long record) throws IOException {
+        mScratch.clear();
+        long position = LevelLog.HEADER_SIZE + record * LevelLog.RECORD_SIZE;
+        while (mScratch.hasRemaining()) {
+            final int read = mChannel.read(mScratch, position);
+            if (read < 0) {
+                throw new IOException("Truncated level log");
+            }
+            position += read;
+        }
+        return mScratch.getLong(0);
+    }
+
+    private void closeDay() throws IOException {
+        mHeader = null;
+        mChunk = null;
+        try {
+            if (mIndex != null) {
+                mIndex.close();
+            }
+        } finally {
+            mIndex = null;
+            if (mFile != null) {
+                mFile.close();
+            }
+            mFile = null;
+            mChannel = null;
+            mDay = Long.MIN_VALUE;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeDay();
+    }
+}
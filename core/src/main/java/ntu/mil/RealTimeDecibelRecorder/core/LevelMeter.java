@@ -0,0 +1,128 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Block level meter over LINEAR16 samples: RMS, sample peak and true peak (4x oversampled),
+ * in linear full-scale units, dBFS and calibrated dB SPL. Nothing is allocated per block.
+ */
+public class LevelMeter {
+    public static final double MIN_DBFS = -120.0;
+    // Uncalibrated guess for a phone microphone; set the real offset per device.
+    public static final double DEFAULT_CALIBRATION_OFFSET = 90.0;
+
+    private static final double FULL_SCALE = 32768.0;
+    private static final int OVERSAMPLING = 4;
+    private static final int TAPS_PER_PHASE = 12;
+    private static final double[][] PHASES = designInterpolator();
+
+    // Input history twice over, so each phase can read its taps without wrapping.
+    private final double[] mHistory = new double[2 * TAPS_PER_PHASE];
+    private int mHistoryPos = 0;
+    private double mCalibrationOffset = DEFAULT_CALIBRATION_OFFSET;
+    private double mRms, mPeak, mTruePeak;
+
+    public void setCalibrationOffset(double offsetDb) {
+        mCalibrationOffset = offsetDb;
+    }
+
+    public double getCalibrationOffset() {
+        return mCalibrationOffset;
+    }
+
+    /** Measures one block. Filter history carries over so true peak is continuous across blocks. */
+    public void process(short[] samples, int offset, int length) {
+        double sumSquares = 0;
+        int peak = 0;
+        double truePeak = 0;
+        final double[] history = mHistory;
+        int pos = mHistoryPos;
+        for (int i = offset; i < offset + length; i++) {
+            final int s = samples[i];
+            sumSquares += (double) s * s;
+            final int magnitude = s < 0 ? -s : s;
+            if (magnitude > peak) peak = magnitude;
+
+            pos = pos == 0 ? TAPS_PER_PHASE - 1 : pos - 1;
+            history[pos] = s;
+            history[pos + TAPS_PER_PHASE] = s;
+            for (int phase = 0; phase < OVERSAMPLING; phase++) {
+                final double[] taps = PHASES[phase];
+                double y = 0;
+                for (int j = 0; j < TAPS_PER_PHASE; j++) {
+                    y += taps[j] * history[pos + j];
+                }
+                if (y < 0) y = -y;
+                if (y > truePeak) truePeak = y;
+            }
+        }
+        mHistoryPos = pos;
+        mRms = length > 0 ? Math.sqrt(sumSquares / length) / FULL_SCALE : 0;
+        mPeak = peak / FULL_SCALE;
+        // Interpolated values never read lower than the samples they pass through.
+        mTruePeak = Math.max(truePeak / FULL_SCALE, mPeak);
+    }
+
+    public void reset() {
+        for (int i = 0; i < mHistory.length; i++) {
+            mHistory[i] = 0;
+        }
+        mRms = mPeak = mTruePeak = 0;
+    }
+
+    public double getRms() {
+        return mRms;
+    }
+
+    public double getPeak() {
+        return mPeak;
+    }
+
+    public double getTruePeak() {
+        return mTruePeak;
+    }
+
+    public double getRmsDbfs() {
+        return toDbfs(mRms);
+    }
+
+    public double getPeakDbfs() {
+        return toDbfs(mPeak);
+    }
+
+    public double getTruePeakDbfs() {
+        return toDbfs(mTruePeak);
+    }
+
+    /** RMS level in dB SPL, i.e. dBFS plus the calibration offset. */
+    public double getDbSpl() {
+        return getRmsDbfs() + mCalibrationOffset;
+    }
+
+    public static double toDbfs(double linear) {
+        if (linear <= 0) {
+            return MIN_DBFS;
+        }
+        return Math.max(MIN_DBFS, 20 * Math.log10(linear));
+    }
+
+    // Hann-windowed sinc interpolator, split into OVERSAMPLING polyphase branches of unity DC gain.
+    private static double[][] designInterpolator() {
+        final int length = OVERSAMPLING * TAPS_PER_PHASE;
+        final double center = (length - 1) / 2.0;
+        final double[][] phases = new double[OVERSAMPLING][TAPS_PER_PHASE];
+        for (int phase = 0; phase < OVERSAMPLING; phase++) {
+            double sum = 0;
+            for (int j = 0; j < TAPS_PER_PHASE; j++) {
+                final int n = phase + j * OVERSAMPLING;
+                final double x = (n - center) / OVERSAMPLING;
+                final double sinc = x == 0 ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+                final double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * (n + 0.5) / length);
+                phases[phase][j] = sinc * window;
+                sum += phases[phase][j];
+            }
+            for (int j = 0; j < TAPS_PER_PHASE; j++) {
+                phases[phase][j] /= sum;
+            }
+        }
+        return phases;
+    }
+}
@@ -0,0 +1,123 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the base level log plus coarser rollups of it (1 minute and 1 hour by default), each in
+ * its own {@link LevelLog} directory under the base one.
+ *
+ * Every base record is folded into the open interval of each rollup: O(1) per record, energy
+ * averaged for Leq, max of Lmax, min of Lmin. The open interval's record is rewritten in place as
+ * it grows, so readers see the current minute and hour too. After a restart an open interval is
+ * rebuilt from the base records already stored for it.
+ */
+public class LevelPyramid implements Closeable {
+    public static final long[] DEFAULT_ROLLUP_MILLIS = {60 * 1000L, 60 * 60 * 1000L};
+
+    private final File mDirectory;
+    private final LevelLogWriter mBase;
+    private final Rollup[] mRollups;
+    private long mLastStart = Long.MIN_VALUE;
+
+    public LevelPyramid(File directory) {
+        this(directory, DEFAULT_ROLLUP_MILLIS);
+    }
+
+    /** @param rollupMillis rollup interval lengths, ascending. */
+    public LevelPyramid(File directory, long[] rollupMillis) {
+        mDirectory = directory;
+        mBase = new LevelLogWriter(directory);
+        mRollups = new Rollup[rollupMillis.length];
+        for (int i = 0; i < rollupMillis.length; i++) {
+            mRollups[i] = new Rollup(rollupMillis[i]);
+        }
+    }
+
+    /** Directory holding the rollup with the given interval length. */
+    public static File rollupDirectory(File directory, long intervalMillis) {
+        return new File(directory, "rollup-" + intervalMillis + "ms");
+    }
+
+    /** Appends a base record and updates every rollup. Same rules as {@link LevelLogWriter#append}. */
+    public boolean append(long startMillis, double leq, double maxLevel, double minLevel) throws IOException {
+        if (!mBase.append(startMillis, leq, maxLevel, minLevel)) {
+            return false;
+        }
+        final boolean isReplacing = startMillis == mLastStart;
+        mLastStart = startMillis;
+        for (Rollup rollup : mRollups) {
+            if (isReplacing) {
+                // The replaced record is already in the rollup; rebuild the interval without it.
+                rollup.mStart = Long.MIN_VALUE;
+            }
+            rollup.add(startMillis, leq, maxLevel, minLevel);
+        }
+        return true;
+    }
+
+    public void flush() throws IOException {
+        mBase.flush();
+        for (Rollup rollup : mRollups) {
+            rollup.mWriter.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (Rollup rollup : mRollups) {
+            try {
+                rollup.mWriter.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        mBase.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private class Rollup implements LevelLog.Visitor {
+        private final long mIntervalMillis;
+        private final LevelLogWriter mWriter;
+        private long mStart = Long.MIN_VALUE;
+        private double mEnergy;
+        private int mCount;
+        private double mMax;
+        private double mMin;
+
+        Rollup(long intervalMillis) {
+            mIntervalMillis = intervalMillis;
+            mWriter = new LevelLogWriter(rollupDirectory(mDirectory, intervalMillis));
+        }
+
+        void add(long startMillis, double leq, double maxLevel, double minLevel) throws IOException {
+            final long start = startMillis - ((startMillis % mIntervalMillis) + mIntervalMillis) % mIntervalMillis;
+            if (start != mStart) {
+                final boolean isFirst = mStart == Long.MIN_VALUE;
+                mStart = start;
+                mEnergy = 0;
+                mCount = 0;
+                mMax = Double.NEGATIVE_INFINITY;
+                mMin = Double.POSITIVE_INFINITY;
+                if (isFirst) {
+                    // Continue an interval left open by an earlier session.
+                    new LevelLogReader(mDirectory).scan(start, startMillis, this);
+                }
+            }
+            onRecord(startMillis, (float) leq, (float) maxLevel, (float) minLevel);
+            mWriter.append(mStart, 10 * Math.log10(mEnergy / mCount), mMax, mMin);
+        }
+
+        @Override
+        public void onRecord(long startMillis, float leq, float maxLevel, float minLevel) {
+            mEnergy += Math.pow(10, leq / 10.0);
+            mCount++;
+            if (maxLevel > mMax) mMax = maxLevel;
+            if (minLevel < mMin) mMin = minLevel;
+        }
+    }
+}
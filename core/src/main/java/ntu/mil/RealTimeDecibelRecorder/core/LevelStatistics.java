@@ -0,0 +1,89 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Statistical levels over wall-clock minutes, hours and days (UTC), fed block by block.
+ *
+ * Blocks go into the current minute's {@link LevelHistogram}; a finished minute is merged into the
+ * hour and a finished hour into the day, so each add is O(1) and each rollover O(bins). Finished
+ * windows are reported to the {@link Listener} on the feeding thread. The getters may be called
+ * from any thread.
+ */
+public class LevelStatistics {
+    public enum Window {
+        MINUTE(60 * 1000L), HOUR(60 * 60 * 1000L), DAY(24 * 60 * 60 * 1000L);
+
+        public final long millis;
+
+        Window(long millis) {
+            this.millis = millis;
+        }
+
+        long startOf(long timeMillis) {
+            return timeMillis - ((timeMillis % millis) + millis) % millis;
+        }
+    }
+
+    public interface Listener {
+        /** The histogram is reused once this returns; copy it to keep it. */
+        void onWindowFinished(Window window, long startMillis, LevelHistogram histogram);
+    }
+
+    private static final Window[] WINDOWS = Window.values();
+
+    private final Listener mListener;
+    // Each window holds only what its finer windows have not yet handed up.
+    private final LevelHistogram[] mHistograms = new LevelHistogram[WINDOWS.length];
+    private final long[] mStarts = new long[WINDOWS.length];
+
+    public LevelStatistics(Listener listener) {
+        mListener = listener;
+        for (int i = 0; i < WINDOWS.length; i++) {
+            mHistograms[i] = new LevelHistogram();
+            mStarts[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /** Adds one block's level, weighted by its length in samples. */
+    public synchronized void add(long timeMillis, double levelDb, int samples) {
+        for (int i = 0; i < WINDOWS.length; i++) {
+            final long start = WINDOWS[i].startOf(timeMillis);
+            if (start == mStarts[i]) {
+                break;
+            }
+            finish(i);
+            mStarts[i] = start;
+        }
+        mHistograms[0].add(levelDb, samples);
+    }
+
+    /** Reports every open window as finished, e.g. when recording stops. */
+    public synchronized void finishAll() {
+        for (int i = 0; i < WINDOWS.length; i++) {
+            finish(i);
+            mStarts[i] = Long.MIN_VALUE;
+        }
+    }
+
+    private void finish(int i) {
+        if (mStarts[i] == Long.MIN_VALUE) {
+            return;
+        }
+        // Finer windows finish first (they always roll over too), so this already holds everything.
+        final LevelHistogram histogram = mHistograms[i];
+        if (histogram.getTotal() > 0) {
+            mListener.onWindowFinished(WINDOWS[i], mStarts[i], histogram);
+        }
+        if (i + 1 < WINDOWS.length) {
+            mHistograms[i + 1].merge(histogram);
+        }
+        histogram.clear();
+    }
+
+    /** Copies the histogram of the window in progress into {@code dest}. */
+    public synchronized void getCurrent(Window window, LevelHistogram dest) {
+        dest.clear();
+        for (int i = 0; i <= window.ordinal(); i++) {
+            dest.merge(mHistograms[i]);
+        }
+    }
+}
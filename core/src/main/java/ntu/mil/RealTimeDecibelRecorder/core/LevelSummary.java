@@ -0,0 +1,75 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Leq, Lmax, Lmin, statistical levels and voice activity over a stretch of audio, built block by
+ * block from a {@link SoundLevelMeter}. Summaries of adjacent or unrelated stretches merge, so
+ * chunks analyzed in parallel add up to the same result as one pass.
+ */
+public class LevelSummary {
+    private long mSamples = 0;
+    private double mMicros = 0;
+    private double mEnergy = 0;
+    private double mMaxLevel = Double.NEGATIVE_INFINITY;
+    private double mMinLevel = Double.POSITIVE_INFINITY;
+    private double mVoiceMicros = 0;
+    // Weighted by microseconds so files with different sample rates merge fairly.
+    private final LevelHistogram mHistogram = new LevelHistogram();
+
+    /** Adds the block the meter has just processed. */
+    public void add(SoundLevelMeter meter, int samples, boolean voice) {
+        final double micros = samples * 1e6 / meter.getSampleRate();
+        mSamples += samples;
+        mMicros += micros;
+        mEnergy += Math.pow(10, meter.getBlockLeq() / 10) * micros;
+        mMaxLevel = Math.max(mMaxLevel, meter.getBlockMaxLevel());
+        final double min = meter.getBlockMinLevel();
+        if (!Double.isNaN(min)) {
+            mMinLevel = Math.min(mMinLevel, min);
+        }
+        if (voice) {
+            mVoiceMicros += micros;
+        }
+        mHistogram.add(meter.getLevel(), Math.round(micros));
+    }
+
+    public void merge(LevelSummary other) {
+        mSamples += other.mSamples;
+        mMicros += other.mMicros;
+        mEnergy += other.mEnergy;
+        mMaxLevel = Math.max(mMaxLevel, other.mMaxLevel);
+        mMinLevel = Math.min(mMinLevel, other.mMinLevel);
+        mVoiceMicros += other.mVoiceMicros;
+        mHistogram.merge(other.mHistogram);
+    }
+
+    public long getSamples() {
+        return mSamples;
+    }
+
+    public double getSeconds() {
+        return mMicros / 1e6;
+    }
+
+    /** Energy-averaged level in dB, or NaN for an empty summary. */
+    public double getLeq() {
+        return mMicros == 0 ? Double.NaN : 10 * Math.log10(mEnergy / mMicros);
+    }
+
+    public double getMaxLevel() {
+        return mMicros == 0 ? Double.NaN : mMaxLevel;
+    }
+
+    public double getMinLevel() {
+        return mMinLevel == Double.POSITIVE_INFINITY ? Double.NaN : mMinLevel;
+    }
+
+    /** Level exceeded {@code percent} of the time, e.g. 90 for L90. */
+    public double getExceededLevel(double percent) {
+        return mHistogram.getExceededLevel(percent);
+    }
+
+    /** Share of the time the voice activity detector was active, 0 to 1. */
+    public double getVoiceFraction() {
+        return mMicros == 0 ? 0 : mVoiceMicros / mMicros;
+    }
+}
@@ -0,0 +1,42 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/** Fires while the block RMS level is at or above a threshold in calibrated dB. */
+public class LevelTrigger implements EventTrigger {
+    private static final double FULL_SCALE_SQUARED = 32768.0 * 32768.0;
+
+    private final double mThresholdDb;
+    private final double mCalibrationOffset;
+    // Threshold as a mean square in full-scale units, so the per-block test needs no log.
+    private final double mThresholdMeanSquare;
+
+    public LevelTrigger(double thresholdDb, double calibrationOffset) {
+        mThresholdDb = thresholdDb;
+        mCalibrationOffset = calibrationOffset;
+        mThresholdMeanSquare = Math.pow(10, (thresholdDb - calibrationOffset) / 10) * FULL_SCALE_SQUARED;
+    }
+
+    public double getThresholdDb() {
+        return mThresholdDb;
+    }
+
+    public double getCalibrationOffset() {
+        return mCalibrationOffset;
+    }
+
+    @Override
+    public boolean process(short[] samples, int offset, int length) {
+        if (length <= 0) {
+            return false;
+        }
+        double sumSquares = 0;
+        for (int i = offset; i < offset + length; i++) {
+            final double s = samples[i];
+            sumSquares += s * s;
+        }
+        return sumSquares >= mThresholdMeanSquare * length;
+    }
+
+    @Override
+    public void reset() {
+    }
+}
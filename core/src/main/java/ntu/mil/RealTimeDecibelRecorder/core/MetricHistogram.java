@@ -0,0 +1,133 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative longs (latencies in ns, sizes, queue depths) in log-linear buckets:
+ * values below 8 get a bucket each, and every power-of-two range above that is split into four
+ * equal sub-buckets, so a bucket is never wider than a quarter of its lower bound. Recording is a
+ * few atomic adds and allocates nothing, so it can stay on in the audio threads; readers take a
+ * {@link Snapshot} from any thread.
+ */
+public class MetricHistogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int EXACT = 2 * SUB_BUCKETS;
+    public static final int BUCKETS = EXACT + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        mBuckets.incrementAndGet(bucketOf(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /** Copies the current state into {@code dest}; values recorded meanwhile may be partly included. */
+    public void snapshot(Snapshot dest) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            dest.mBuckets[i] = mBuckets.get(i);
+            count += dest.mBuckets[i];
+        }
+        dest.mCount = count;
+        dest.mSum = mSum.get();
+        dest.mMax = mMax.get();
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    static int bucketOf(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        final int octave = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (octave - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return EXACT + (octave - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Smallest value that falls in {@code bucket}. */
+    static long lowerBound(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        final int octave = (bucket - EXACT) / SUB_BUCKETS + SUB_BITS + 1;
+        final int sub = (bucket - EXACT) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (octave - SUB_BITS);
+    }
+
+    /** Largest value that falls in {@code bucket}. */
+    static long upperBound(int bucket) {
+        if (bucket < EXACT) {
+            return bucket;
+        }
+        final int octave = (bucket - EXACT) / SUB_BUCKETS + SUB_BITS + 1;
+        return lowerBound(bucket) + ((1L << (octave - SUB_BITS)) - 1);
+    }
+
+    /** A point-in-time copy; reuse one per reader to keep polling allocation-free. */
+    public static class Snapshot {
+        private final long[] mBuckets = new long[BUCKETS];
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return mCount == 0 ? 0 : (double) mSum / mCount;
+        }
+
+        public long getBucketCount(int bucket) {
+            return mBuckets[bucket];
+        }
+
+        /**
+         * The {@code percent} percentile, interpolated linearly within its bucket and capped at the
+         * max seen; off by less than a quarter of the true value. 0 if nothing was recorded.
+         */
+        public long getPercentile(double percent) {
+            if (mCount == 0) {
+                return 0;
+            }
+            final long target = Math.max(1, (long) Math.ceil(mCount * percent / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (seen + mBuckets[i] >= target) {
+                    final long lower = lowerBound(i);
+                    final long width = upperBound(i) - lower;
+                    final double fraction = (double) (target - seen) / mBuckets[i];
+                    return Math.min(lower + Math.min(width, (long) (width * fraction)), mMax);
+                }
+                seen += mBuckets[i];
+            }
+            return mMax;
+        }
+    }
+}
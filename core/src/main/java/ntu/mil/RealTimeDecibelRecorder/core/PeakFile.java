@@ -0,0 +1,105 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * On-disk layout shared by {@link PeakWriter} and {@link PeakReader}: a waveform overview kept
+ * next to a recording ({@code <name>.peaks} beside {@code <name>.wav}).
+ *
+ * A 32-byte header (magic, version, level count, sample rate, channels, factor, base block
+ * length, sample frames) is followed by one section per zoom level, finest first. Each section
+ * holds a 4-byte entry per block: the min and max sample over all channels. Level 0 blocks are
+ * {@link #DEFAULT_BASE_BLOCK} sample frames; each further level is {@link #DEFAULT_FACTOR} times
+ * coarser, so all levels together are a third larger than level 0: 3.6 MB per hour of audio
+ * at 48 kHz, about 1% of the PCM. Levels are added until the coarsest has at most
+ * {@link #MAX_TOP_ENTRIES} entries, so any view of any recording has a level with only a few
+ * entries per bucket. The level count stays 0 until the writer has closed the file.
+ */
+public final class PeakFile {
+    public static final String EXTENSION = ".peaks";
+    public static final int DEFAULT_BASE_BLOCK = 256;
+    public static final int DEFAULT_FACTOR = 4;
+    public static final int MAX_TOP_ENTRIES = 256;
+
+    static final int MAGIC = 0x4b504244; // "DBPK" in little-endian byte order
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int LEVELS_OFFSET = 6;
+    static final int FRAMES_OFFSET = 24;
+    static final int ENTRY_SIZE = 4;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private PeakFile() {
+    }
+
+    /** The peaks file belonging to {@code audio}, which need not exist. */
+    public static File sidecarFor(File audio) {
+        final String name = audio.getName();
+        final int dot = name.lastIndexOf('.');
+        return new File(audio.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + EXTENSION);
+    }
+
+    /** True if {@code audio} has no peaks file, or only one left unfinished by a crash. */
+    public static boolean needsBackfill(File audio) {
+        final File peaks = sidecarFor(audio);
+        if (!peaks.exists()) {
+            return true;
+        }
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(peaks, "r");
+            try {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ORDER);
+                readFully(raf, header, 0);
+                return header.getInt(0) != MAGIC || header.getShort(LEVELS_OFFSET) <= 0;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /** Levels a recording of {@code frames} sample frames gets: 1 for up to a few seconds, 9 for a day at 48 kHz. */
+    public static int levelsFor(long frames) {
+        int levels = 1;
+        while (entries(frames, blockFrames(DEFAULT_BASE_BLOCK, DEFAULT_FACTOR, levels - 1)) > MAX_TOP_ENTRIES) {
+            levels++;
+        }
+        return levels;
+    }
+
+    static long entries(long frames, long blockFrames) {
+        return (frames + blockFrames - 1) / blockFrames;
+    }
+
+    static long blockFrames(int baseBlock, int factor, int level) {
+        long block = baseBlock;
+        for (int i = 0; i < level; i++) {
+            block *= factor;
+        }
+        return block;
+    }
+
+    /** File offset of the first entry of {@code level}. */
+    static long sectionOffset(long frames, int baseBlock, int factor, int level) {
+        long offset = HEADER_SIZE;
+        for (int i = 0; i < level; i++) {
+            offset += entries(frames, blockFrames(baseBlock, factor, i)) * ENTRY_SIZE;
+        }
+        return offset;
+    }
+
+    static void readFully(RandomAccessFile file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = file.getChannel().read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Truncated peaks file");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Waveform overview of a recording from its {@link PeakFile}, for drawing any part of it at any
+ * zoom without touching the audio.
+ *
+ * {@link #read} picks the coarsest level that still has an entry per output bucket and reads only
+ * the entries inside the requested range, so a view costs at most a few entries per bucket: some
+ * kilobytes for a screen-wide waveform, whether it shows a second or a whole day. Not
+ * safe for concurrent use; open one reader per viewer.
+ */
+public class PeakReader implements Closeable {
+    private final RandomAccessFile mFile;
+    private final int mLevels;
+    private final int mSampleRate;
+    private final int mChannels;
+    private final int mFactor;
+    private final int mBaseBlock;
+    private final long mFrames;
+    private ByteBuffer mEntries = ByteBuffer.allocate(0);
+    private long mBytesRead = 0;
+
+    /** Opens a complete peaks file; throws if it is not one, e.g. it is still being written. */
+    public PeakReader(File peaks) throws IOException {
+        mFile = new RandomAccessFile(peaks, "r");
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(PeakFile.HEADER_SIZE).order(PeakFile.ORDER);
+            PeakFile.readFully(mFile, header, 0);
+            if (header.getInt(0) != PeakFile.MAGIC) {
+                throw new IOException("Not a peaks file: " + peaks);
+            }
+            mLevels = header.getShort(PeakFile.LEVELS_OFFSET);
+            if (mLevels <= 0) {
+                throw new IOException("Unfinished peaks file: " + peaks);
+            }
+            mSampleRate = header.getInt(8);
+            mChannels = header.getShort(12);
+            mFactor = header.getShort(14);
+            mBaseBlock = header.getInt(16);
+            mFrames = header.getLong(PeakFile.FRAMES_OFFSET);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    /** Peaks of {@code audio}, or null if it has none yet (see {@link PeakWriter#backfill}). */
+    public static PeakReader open(File audio) {
+        try {
+            return new PeakReader(PeakFile.sidecarFor(audio));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    /** Length of the recording in sample frames. */
+    public long getFrames() {
+        return mFrames;
+    }
+
+    public int getLevels() {
+        return mLevels;
+    }
+
+    /** Sample frames covered by one entry of {@code level}. */
+    public long getBlockFrames(int level) {
+        return PeakFile.blockFrames(mBaseBlock, mFactor, level);
+    }
+
+    /** Bytes read from the file so far, headers excluded. */
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Splits [{@code fromFrame}, {@code toFrame}) into {@code buckets} equal parts and stores the
+     * lowest and highest sample of each, e.g. one bucket per pixel column. Buckets narrower than a
+     * level 0 entry get the peaks of the entry they fall in.
+     *
+     * @return the number of buckets filled: {@code buckets}, or 0 if the range lies outside the
+     *         recording.
+     */
+    public int read(long fromFrame, long toFrame, int buckets, short[] min, short[] max) throws IOException {
+        fromFrame = Math.max(0, fromFrame);
+        toFrame = Math.min(mFrames, toFrame);
+        if (toFrame <= fromFrame || buckets <= 0) {
+            return 0;
+        }
+        final long span = toFrame - fromFrame;
+        int level = 0;
+        while (level + 1 < mLevels && getBlockFrames(level + 1) * buckets <= span) {
+            level++;
+        }
+        final long block = getBlockFrames(level);
+        final long first = fromFrame / block;
+        final long last = PeakFile.entries(toFrame, block);
+        final int count = (int) (last - first);
+        if (mEntries.capacity() < count * PeakFile.ENTRY_SIZE) {
+            mEntries = ByteBuffer.allocate(count * PeakFile.ENTRY_SIZE).order(PeakFile.ORDER);
+        }
+        mEntries.clear();
+        mEntries.limit(count * PeakFile.ENTRY_SIZE);
+        PeakFile.readFully(mFile, mEntries,
+                PeakFile.sectionOffset(mFrames, mBaseBlock, mFactor, level) + first * PeakFile.ENTRY_SIZE);
+        mBytesRead += count * PeakFile.ENTRY_SIZE;
+
+        for (int b = 0; b < buckets; b++) {
+            final long start = fromFrame + span * b / buckets;
+            final long end = fromFrame + span * (b + 1) / buckets;
+            final int entryFrom = (int) (start / block - first);
+            final int entryTo = Math.max(entryFrom + 1, (int) (PeakFile.entries(end, block) - first));
+            short lo = Short.MAX_VALUE;
+            short hi = Short.MIN_VALUE;
+            for (int e = entryFrom; e < entryTo; e++) {
+                final short entryMin = mEntries.getShort(e * PeakFile.ENTRY_SIZE);
+                final short entryMax = mEntries.getShort(e * PeakFile.ENTRY_SIZE + 2);
+                if (entryMin < lo) lo = entryMin;
+                if (entryMax > hi) hi = entryMax;
+            }
+            min[b] = lo;
+            max[b] = hi;
+        }
+        return buckets;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
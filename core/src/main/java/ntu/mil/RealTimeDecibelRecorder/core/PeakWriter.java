@@ -0,0 +1,232 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the {@link PeakFile} of a recording while it is being recorded, by passing every block
+ * on to the recording's own sink and folding it into min/max entries on the way.
+ *
+ * Only level 0 is built live: a couple of compares per sample, appended to the file in 4 KiB
+ * writes. {@link #close()} then derives each coarser level from the one before it, reading it
+ * back in small chunks, so memory use is fixed however long the recording runs.
+ */
+public class PeakWriter implements AudioSink {
+    private static final int BUFFER_ENTRIES = 1024;
+    private static final int BACKFILL_BLOCK = 16384;
+
+    private final AudioSink mAudio;
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mChannels;
+    private final int mBlockSamples;
+    private final ByteBuffer mEntries = ByteBuffer.allocateDirect(BUFFER_ENTRIES * PeakFile.ENTRY_SIZE)
+            .order(PeakFile.ORDER);
+    private long mPosition = PeakFile.HEADER_SIZE;
+    private long mSamples = 0;
+    private int mBlockFill = 0;
+    private short mMin = Short.MAX_VALUE;
+    private short mMax = Short.MIN_VALUE;
+    private boolean isClosed = false;
+
+    /**
+     * Wraps a recording's sink so that it gets a peaks file next to it. If the peaks file cannot
+     * be created the recording goes ahead without one; it can be backfilled later.
+     */
+    public static AudioSink.Factory factory(final AudioSink.Factory audio, final int sampleRate, final int channels) {
+        return new AudioSink.Factory() {
+            @Override
+            public AudioSink open(File file) throws IOException {
+                final AudioSink sink = audio.open(file);
+                try {
+                    return new PeakWriter(sink, PeakFile.sidecarFor(file), sampleRate, channels);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return sink;
+                }
+            }
+        };
+    }
+
+    /** @param audio gets every block first; null to write the peaks file only. */
+    public PeakWriter(AudioSink audio, File peaks, int sampleRate, int channels) throws IOException {
+        mAudio = audio;
+        mChannels = channels;
+        mBlockSamples = PeakFile.DEFAULT_BASE_BLOCK * channels;
+        mFile = new RandomAccessFile(peaks, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+
+        final ByteBuffer header = ByteBuffer.allocate(PeakFile.HEADER_SIZE).order(PeakFile.ORDER);
+        header.putInt(PeakFile.MAGIC);
+        header.putShort(PeakFile.VERSION);
+        header.putShort((short) 0); // levels, set by close()
+        header.putInt(sampleRate);
+        header.putShort((short) channels);
+        header.putShort((short) PeakFile.DEFAULT_FACTOR);
+        header.putInt(PeakFile.DEFAULT_BASE_BLOCK);
+        header.putInt(0); // reserved
+        header.putLong(0); // sample frames, set by close()
+        header.flip();
+        writeFully(header, 0);
+    }
+
+    @Override
+    public void write(short[] samples, int offset, int length) throws IOException {
+        if (mAudio != null) {
+            mAudio.write(samples, offset, length);
+        }
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            final short sample = samples[i];
+            if (sample < mMin) mMin = sample;
+            if (sample > mMax) mMax = sample;
+            if (++mBlockFill == mBlockSamples) {
+                putEntry(mMin, mMax);
+                mBlockFill = 0;
+                mMin = Short.MAX_VALUE;
+                mMax = Short.MIN_VALUE;
+            }
+        }
+        mSamples += length;
+    }
+
+    private void putEntry(short min, short max) throws IOException {
+        mEntries.putShort(min).putShort(max);
+        if (!mEntries.hasRemaining()) {
+            flushEntries();
+        }
+    }
+
+    private void flushEntries() throws IOException {
+        mEntries.flip();
+        mPosition += writeFully(mEntries, mPosition);
+        mEntries.clear();
+    }
+
+    @Override
+    public long getDataLength() {
+        return mAudio != null ? mAudio.getDataLength() : mSamples * 2;
+    }
+
+    /** Closes the recording, then completes the peaks file. */
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        IOException failure = null;
+        if (mAudio != null) {
+            try {
+                mAudio.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        try {
+            if (mBlockFill > 0) {
+                putEntry(mMin, mMax);
+            }
+            flushEntries();
+            final long frames = mSamples / mChannels;
+            final int levels = PeakFile.levelsFor(frames);
+            for (int level = 1; level < levels; level++) {
+                foldLevel(frames, level);
+            }
+            final ByteBuffer field = ByteBuffer.allocate(8).order(PeakFile.ORDER);
+            field.putLong(0, frames);
+            writeFully(field, PeakFile.FRAMES_OFFSET);
+            // Written last: readers take a file with levels as complete.
+            field.clear();
+            field.limit(2);
+            field.putShort(0, (short) levels);
+            writeFully(field, PeakFile.LEVELS_OFFSET);
+        } catch (IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } finally {
+            mFile.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Appends {@code level}, each entry the min/max of {@link PeakFile#DEFAULT_FACTOR} entries below it. */
+    private void foldLevel(long frames, int level) throws IOException {
+        final int factor = PeakFile.DEFAULT_FACTOR;
+        final long finer = PeakFile.entries(frames, PeakFile.blockFrames(PeakFile.DEFAULT_BASE_BLOCK, factor, level - 1));
+        long position = PeakFile.sectionOffset(frames, PeakFile.DEFAULT_BASE_BLOCK, factor, level - 1);
+        final ByteBuffer chunk = ByteBuffer.allocateDirect(BUFFER_ENTRIES * factor * PeakFile.ENTRY_SIZE)
+                .order(PeakFile.ORDER);
+        for (long done = 0; done < finer; ) {
+            final int count = (int) Math.min(finer - done, (long) BUFFER_ENTRIES * factor);
+            chunk.clear();
+            chunk.limit(count * PeakFile.ENTRY_SIZE);
+            PeakFile.readFully(mFile, chunk, position);
+            position += count * PeakFile.ENTRY_SIZE;
+            for (int i = 0; i < count; i += factor) {
+                short min = Short.MAX_VALUE;
+                short max = Short.MIN_VALUE;
+                for (int j = i; j < Math.min(i + factor, count); j++) {
+                    final short entryMin = chunk.getShort(j * PeakFile.ENTRY_SIZE);
+                    final short entryMax = chunk.getShort(j * PeakFile.ENTRY_SIZE + 2);
+                    if (entryMin < min) min = entryMin;
+                    if (entryMax > max) max = entryMax;
+                }
+                putEntry(min, max);
+            }
+            done += count;
+        }
+        flushEntries();
+    }
+
+    private int writeFully(ByteBuffer buffer, long position) throws IOException {
+        final int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += mChannel.write(buffer, position);
+        }
+        return length;
+    }
+
+    /**
+     * Writes the peaks file of an existing 16-bit PCM WAV file in one streaming pass, replacing
+     * any earlier one. The file is built under a temporary name, so readers never see it half
+     * done.
+     *
+     * @return the peaks file.
+     */
+    public static File backfill(File wav) throws IOException {
+        final File peaks = PeakFile.sidecarFor(wav);
+        final File partial = new File(peaks.getPath() + ".tmp");
+        final WavFileSource source = new WavFileSource(wav, 0, BACKFILL_BLOCK);
+        try {
+            final PeakWriter writer = new PeakWriter(null, partial, source.getSampleRate(), source.getChannels());
+            try {
+                final short[] block = new short[BACKFILL_BLOCK];
+                source.start();
+                int read;
+                while ((read = source.read(block, 0, block.length)) > 0) {
+                    writer.write(block, 0, read);
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            partial.delete();
+            throw e;
+        } finally {
+            source.close();
+        }
+        if (!partial.renameTo(peaks)) {
+            partial.delete();
+            throw new IOException("Cannot replace " + peaks);
+        }
+        return peaks;
+    }
+}
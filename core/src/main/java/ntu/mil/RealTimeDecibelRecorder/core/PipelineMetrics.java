@@ -0,0 +1,84 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.Locale;
+
+/**
+ * One {@link MetricHistogram} per stage of the capture pipeline. The threads that own a stage
+ * record into it; anyone may read snapshots or a text summary.
+ */
+public class PipelineMetrics {
+    public enum Metric {
+        /** Time blocked in one capture read. */
+        READ_LATENCY("read", Unit.NANOS),
+        /** Samples returned by one capture read. */
+        READ_SIZE("read size", Unit.SAMPLES),
+        /** Time to encode and write one block to the recording. */
+        WRITE_LATENCY("write", Unit.NANOS),
+        /** Time spent in the per-block level callbacks. */
+        CALLBACK_LATENCY("callback", Unit.NANOS),
+        /** Time to analyze one block for spectra, including its callback. */
+        SPECTRUM_LATENCY("spectrum", Unit.NANOS),
+        /** Frames waiting in the ring for each consumer when it takes one. */
+        WRITER_QUEUE("writer queue", Unit.FRAMES),
+        ANALYSIS_QUEUE("analysis queue", Unit.FRAMES),
+        SPECTRUM_QUEUE("spectrum queue", Unit.FRAMES),
+        /** From the capture of a block's last sample to the end of its level analysis and alert checks. */
+        CAPTURE_LATENCY("latency", Unit.NANOS),
+        /** How much later than asked for the UI's refresh frame ran. */
+        UI_FRAME_DELAY("ui frame", Unit.NANOS);
+
+        public final String label;
+        public final Unit unit;
+
+        Metric(String label, Unit unit) {
+            this.label = label;
+            this.unit = unit;
+        }
+    }
+
+    public enum Unit {
+        NANOS, SAMPLES, FRAMES
+    }
+
+    private final MetricHistogram[] mHistograms = new MetricHistogram[Metric.values().length];
+    private final MetricHistogram.Snapshot mFormatSnapshot = new MetricHistogram.Snapshot();
+
+    public PipelineMetrics() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new MetricHistogram();
+        }
+    }
+
+    public void record(Metric metric, long value) {
+        mHistograms[metric.ordinal()].record(value);
+    }
+
+    public MetricHistogram get(Metric metric) {
+        return mHistograms[metric.ordinal()];
+    }
+
+    public void snapshot(Metric metric, MetricHistogram.Snapshot dest) {
+        mHistograms[metric.ordinal()].snapshot(dest);
+    }
+
+    public void reset() {
+        for (MetricHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /** One line per metric that has data: count, p50, p99 and max, latencies in microseconds. */
+    public synchronized void format(StringBuilder out) {
+        final MetricHistogram.Snapshot s = mFormatSnapshot;
+        for (Metric metric : Metric.values()) {
+            mHistograms[metric.ordinal()].snapshot(s);
+            if (s.getCount() == 0) {
+                continue;
+            }
+            final double scale = metric.unit == Unit.NANOS ? 1e-3 : 1;
+            final String unit = metric.unit == Unit.NANOS ? "us" : metric.unit == Unit.SAMPLES ? "samples" : "frames";
+            out.append(String.format(Locale.US, "%-15s n=%d p50=%.0f p99=%.0f max=%.0f %s%n", metric.label,
+                    s.getCount(), s.getPercentile(50) * scale, s.getPercentile(99) * scale, s.getMax() * scale, unit));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.IOException;
+
+/**
+ * Fixed-size circular buffer holding the most recent samples, so audio from before an event's
+ * onset can still be saved with it. Preallocated; writes overwrite the oldest samples and never
+ * touch the disk.
+ */
+public class PreRollBuffer {
+    private final short[] mSamples;
+    private int mHead = 0; // next write position
+    private int mCount = 0;
+
+    /** @param capacitySamples 0 to hold nothing, e.g. for events without pre-roll. */
+    public PreRollBuffer(int capacitySamples) {
+        mSamples = new short[Math.max(0, capacitySamples)];
+    }
+
+    public int getCapacity() {
+        return mSamples.length;
+    }
+
+    /** Number of samples currently held, at most {@link #getCapacity()}. */
+    public int size() {
+        return mCount;
+    }
+
+    public void write(short[] samples, int offset, int length) {
+        final int capacity = mSamples.length;
+        if (capacity == 0) {
+            return;
+        }
+        if (length >= capacity) {
+            // Only the tail of a long block survives.
+            System.arraycopy(samples, offset + length - capacity, mSamples, 0, capacity);
+            mHead = 0;
+            mCount = capacity;
+            return;
+        }
+        final int first = Math.min(length, capacity - mHead);
+        System.arraycopy(samples, offset, mSamples, mHead, first);
+        System.arraycopy(samples, offset + first, mSamples, 0, length - first);
+        mHead = (mHead + length) % capacity;
+        mCount = Math.min(capacity, mCount + length);
+    }
+
+    /** Writes the held samples, oldest first, and empties the buffer. */
+    public void drainTo(AudioSink writer) throws IOException {
+        if (mCount == 0) {
+            return;
+        }
+        final int capacity = mSamples.length;
+        final int tail = (mHead - mCount + capacity) % capacity;
+        final int first = Math.min(mCount, capacity - tail);
+        writer.write(mSamples, tail, first);
+        writer.write(mSamples, 0, mCount - first);
+        clear();
+    }
+
+    public void clear() {
+        mHead = 0;
+        mCount = 0;
+    }
+}
@@ -0,0 +1,89 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * FFT of a real sequence of power-of-two length N, computed as an N/2-point complex FFT of the
+ * even/odd samples followed by a split step. Twiddles and the bit-reversal table are precomputed;
+ * {@link #powerSpectrum(double[], double[])} allocates nothing.
+ */
+public class RealFft {
+    private final int mSize;
+    private final int mHalf;
+    private final double[] mCos;
+    private final double[] mSin;
+    private final int[] mBitReverse;
+    private final double[] mRe;
+    private final double[] mIm;
+
+    public RealFft(int size) {
+        if (size < 4 || (size & (size - 1)) != 0)
+            throw new IllegalArgumentException("size must be a power of two >= 4: " + size);
+        mSize = size;
+        mHalf = size / 2;
+        // e^(-2 pi i k / N) for k < N/2 serves both the half-size FFT (even k) and the split step.
+        mCos = new double[mHalf];
+        mSin = new double[mHalf];
+        for (int k = 0; k < mHalf; k++) {
+            mCos[k] = Math.cos(2 * Math.PI * k / size);
+            mSin[k] = -Math.sin(2 * Math.PI * k / size);
+        }
+        mBitReverse = new int[mHalf];
+        final int bits = Integer.numberOfTrailingZeros(mHalf);
+        for (int i = 0; i < mHalf; i++) {
+            mBitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+        mRe = new double[mHalf];
+        mIm = new double[mHalf];
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Writes |X[k]|^2 for k = 0..N/2 into {@code power} (length at least N/2 + 1).
+     */
+    public void powerSpectrum(double[] input, double[] power) {
+        final int half = mHalf;
+        final double[] re = mRe;
+        final double[] im = mIm;
+        for (int i = 0; i < half; i++) {
+            final int j = mBitReverse[i];
+            re[j] = input[2 * i];
+            im[j] = input[2 * i + 1];
+        }
+
+        // Iterative radix-2 on z[n] = x[2n] + i x[2n+1].
+        for (int span = 1; span < half; span <<= 1) {
+            final int step = mHalf / span; // e^(-2 pi i k / 2 span) is table entry k * N / (2 span)
+            for (int start = 0; start < half; start += span << 1) {
+                for (int k = 0; k < span; k++) {
+                    final int t = k * step;
+                    final double wr = mCos[t];
+                    final double wi = mSin[t];
+                    final int a = start + k;
+                    final int b = a + span;
+                    final double xr = re[b] * wr - im[b] * wi;
+                    final double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+
+        // Split: X[k] = (Z[k] + conj(Z[h-k])) / 2 - i e^(-2 pi i k / N) (Z[k] - conj(Z[h-k])) / 2
+        power[0] = (re[0] + im[0]) * (re[0] + im[0]);
+        power[half] = (re[0] - im[0]) * (re[0] - im[0]);
+        for (int k = 1; k < half; k++) {
+            final double zr = re[k], zi = im[k];
+            final double cr = re[half - k], ci = -im[half - k];
+            final double er = (zr + cr) * 0.5, ei = (zi + ci) * 0.5;
+            final double or = (zi - ci) * 0.5, oi = -(zr - cr) * 0.5;
+            final double wr = mCos[k], wi = mSin[k];
+            final double xr = er + or * wr - oi * wi;
+            final double xi = ei + or * wi + oi * wr;
+            power[k] = xr * xr + xi * xi;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Continuous recorder that rolls over to a new file every N samples or N bytes.
+ *
+ * The next segment's file is opened ahead of time on a background thread, so a rollover on the
+ * writer thread is just a handle swap and the block is split exactly at the boundary. Finished
+ * segments are finalized on the same background thread, and a retention policy then deletes the
+ * oldest ones.
+ */
+public class SegmentedRecorder implements Closeable {
+    public static final long UNLIMITED = 0;
+
+    public interface Namer {
+        /** File for the segment starting at {@code startMillis}; must differ for different starts. */
+        File fileFor(long startMillis);
+    }
+
+    public interface Listener {
+        /** Called on the writer thread when a segment becomes the one being written. */
+        void onSegmentStarted(File file);
+
+        /** Called on the background thread once a segment's header is final and it is closed. */
+        void onSegmentFinished(File file, long dataBytes);
+    }
+
+    private static class Segment {
+        final File file;
+        final AudioSink writer;
+        final long startMillis;
+        long samples = 0;
+
+        Segment(File file, AudioSink writer, long startMillis) {
+            this.file = file;
+            this.writer = writer;
+            this.startMillis = startMillis;
+        }
+    }
+
+    private final Namer mNamer;
+    private final Listener mListener;
+    private final int mSampleRate;
+    private final int mChannels;
+    private final AudioSink.Factory mSinkFactory;
+    private final long mSegmentSamples;
+    private final ExecutorService mIo;
+
+    private Segment mCurrent;
+    private Future<Segment> mNext;
+
+    // Touched only on the background thread.
+    private final ArrayDeque<File> mRetained = new ArrayDeque<>();
+    private long mRetainedBytes = 0;
+    private int mMaxSegments = 0;
+    private long mMaxTotalBytes = 0;
+
+    /** Writes 16-bit PCM WAV segments. */
+    public SegmentedRecorder(Namer namer, Listener listener, int sampleRate, int channels, int maxFrameSamples,
+                             long segmentMillis, long segmentBytes) {
+        this(namer, listener, WavWriter.factory(sampleRate, channels, maxFrameSamples), sampleRate, channels,
+                segmentMillis, segmentBytes);
+    }
+
+    /**
+     * @param segmentMillis rollover after this much audio, or {@link #UNLIMITED}.
+     * @param segmentBytes  rollover after this much 16-bit sample data, or {@link #UNLIMITED}.
+     */
+    public SegmentedRecorder(Namer namer, Listener listener, AudioSink.Factory sinkFactory, int sampleRate,
+                             int channels, long segmentMillis, long segmentBytes) {
+        mNamer = namer;
+        mListener = listener;
+        mSinkFactory = sinkFactory;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        long limit = Long.MAX_VALUE;
+        // Lengths too long to count in samples are as good as unlimited.
+        if (segmentMillis > 0 && segmentMillis < Long.MAX_VALUE / sampleRate / channels) {
+            limit = Math.min(limit, segmentMillis * sampleRate / 1000 * channels);
+        }
+        if (segmentBytes > 0) {
+            limit = Math.min(limit, segmentBytes / 2 / channels * channels);
+        }
+        mSegmentSamples = Math.max(channels, limit);
+        mIo = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "SegmentedRecorder-io");
+            }
+        });
+    }
+
+    /**
+     * Deletes the oldest finished segments beyond {@code maxSegments} files or {@code maxTotalBytes}
+     * (either may be {@link #UNLIMITED}). {@code existing} are earlier segments, oldest first, that
+     * count towards the limits.
+     */
+    public void setRetention(final File[] existing, final int maxSegments, final long maxTotalBytes) {
+        mIo.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMaxSegments = maxSegments;
+                mMaxTotalBytes = maxTotalBytes;
+                for (File file : existing) {
+                    retain(file);
+                }
+                applyRetention();
+            }
+        });
+    }
+
+    /**
+     * Opens the first segment on the calling thread and, if segments roll over, starts preparing
+     * the second.
+     */
+    public void open(long startMillis) throws IOException {
+        mCurrent = openSegment(startMillis);
+        mListener.onSegmentStarted(mCurrent.file);
+        prepareNext();
+    }
+
+    public void write(short[] samples, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int chunk = (int) Math.min(length, mSegmentSamples - mCurrent.samples);
+            mCurrent.writer.write(samples, offset, chunk);
+            mCurrent.samples += chunk;
+            offset += chunk;
+            length -= chunk;
+            if (mCurrent.samples >= mSegmentSamples) {
+                rotate();
+            }
+        }
+    }
+
+    public File getCurrentFile() {
+        return mCurrent == null ? null : mCurrent.file;
+    }
+
+    private void rotate() throws IOException {
+        final Segment finished = mCurrent;
+        try {
+            mCurrent = mNext.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening the next segment", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot open the next segment", e.getCause());
+        } finally {
+            mNext = null;
+        }
+        mListener.onSegmentStarted(mCurrent.file);
+        finish(finished);
+        prepareNext();
+    }
+
+    private void prepareNext() {
+        if (mSegmentSamples == Long.MAX_VALUE) {
+            // No rollover, so no next segment: one file for the whole recording.
+            return;
+        }
+        final long frames = mSegmentSamples / mChannels;
+        final long startMillis = mCurrent.startMillis + frames / mSampleRate * 1000
+                + frames % mSampleRate * 1000 / mSampleRate;
+        mNext = mIo.submit(new Callable<Segment>() {
+            @Override
+            public Segment call() throws IOException {
+                return openSegment(startMillis);
+            }
+        });
+    }
+
+    private Segment openSegment(long startMillis) throws IOException {
+        final File file = mNamer.fileFor(startMillis);
+        return new Segment(file, mSinkFactory.open(file), startMillis);
+    }
+
+    private void finish(final Segment segment) {
+        mIo.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    segment.writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                mListener.onSegmentFinished(segment.file, segment.writer.getDataLength());
+                retain(segment.file);
+                applyRetention();
+            }
+        });
+    }
+
+    private void discard(Segment segment) {
+        try {
+            segment.writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (!segment.file.delete()) {
+            segment.file.deleteOnExit();
+        }
+        PeakFile.sidecarFor(segment.file).delete();
+    }
+
+    private void retain(File file) {
+        mRetained.addLast(file);
+        mRetainedBytes += file.length();
+    }
+
+    private void applyRetention() {
+        while (!mRetained.isEmpty()
+                && ((mMaxSegments > 0 && mRetained.size() > mMaxSegments)
+                || (mMaxTotalBytes > 0 && mRetainedBytes > mMaxTotalBytes))) {
+            final File oldest = mRetained.removeFirst();
+            final long length = oldest.length();
+            if (oldest.delete() || !oldest.exists()) {
+                mRetainedBytes -= length;
+            }
+            PeakFile.sidecarFor(oldest).delete();
+        }
+    }
+
+    /** Finalizes the current segment, discards the prepared one and waits for background work. */
+    @Override
+    public void close() throws IOException {
+        if (mCurrent != null) {
+            // A stop right after a rollover leaves an empty segment; drop it like the prepared one.
+            if (mCurrent.samples > 0) {
+                finish(mCurrent);
+            } else {
+                discard(mCurrent);
+            }
+            mCurrent = null;
+        }
+        if (mNext != null) {
+            final Future<Segment> next = mNext;
+            mNext = null;
+            mIo.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        discard(next.get());
+                    } catch (Exception e) {
+                        // A failed open left nothing behind to clean up.
+                    }
+                }
+            });
+        }
+        mIo.shutdown();
+        try {
+            mIo.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs any number of {@link CaptureSession}s side by side, e.g. several microphones or input
+ * presets recorded at once for comparison.
+ *
+ * Each session captures on its own thread; all of them share one fixed pool of I/O workers for
+ * writing and one of analysis workers for metering. Thread count therefore stays constant as
+ * sessions are added, and a session whose disk or meter falls behind only grows its own backlog.
+ */
+public class SessionManager implements Closeable {
+    private final ExecutorService mIoExecutor;
+    private final ExecutorService mAnalysisExecutor;
+    private final List<CaptureSession> mSessions = new ArrayList<>();
+    private double mCalibrationOffset = LevelMeter.DEFAULT_CALIBRATION_OFFSET;
+    private FrequencyWeighting mWeighting = FrequencyWeighting.A;
+
+    public SessionManager(int ioThreads, int analysisThreads) {
+        mIoExecutor = Executors.newFixedThreadPool(ioThreads, threadFactory("SessionManager-io-"));
+        mAnalysisExecutor = Executors.newFixedThreadPool(analysisThreads, threadFactory("SessionManager-analysis-"));
+    }
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, prefix + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /** Applies to sessions added afterwards. */
+    public synchronized void setCalibrationOffset(double offsetDb) {
+        mCalibrationOffset = offsetDb;
+    }
+
+    /** Applies to sessions added afterwards. */
+    public synchronized void setWeighting(FrequencyWeighting weighting) {
+        mWeighting = weighting;
+    }
+
+    /**
+     * Adds a session that is not started yet.
+     *
+     * @param sinkFactory opens the recording {@code file}; null to only meter the source.
+     * @param listener    may be null.
+     */
+    public synchronized CaptureSession add(String name, AudioSource source, AudioSink.Factory sinkFactory, File file,
+                                           CaptureSession.Listener listener) {
+        final CaptureSession session = new CaptureSession(name, source, sinkFactory, file, mWeighting, listener,
+                mIoExecutor, mAnalysisExecutor);
+        session.setCalibrationOffset(mCalibrationOffset);
+        mSessions.add(session);
+        return session;
+    }
+
+    public synchronized List<CaptureSession> getSessions() {
+        return new ArrayList<>(mSessions);
+    }
+
+    /** Starts every session added and not yet started. If one fails the others keep running. */
+    public void startAll() throws IOException {
+        IOException error = null;
+        for (CaptureSession session : getSessions()) {
+            try {
+                session.start();
+            } catch (IllegalStateException e) {
+                // Already running.
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /** Stops all sessions, flushing their recordings, and forgets them. */
+    public void stopAll() {
+        final List<CaptureSession> sessions = getSessions();
+        for (CaptureSession session : sessions) {
+            session.stop();
+        }
+        synchronized (this) {
+            mSessions.removeAll(sessions);
+        }
+    }
+
+    /** One line per session: speed, samples, backlog now and at p99, drops and errors. */
+    public void formatMetrics(StringBuilder out) {
+        final MetricHistogram.Snapshot writer = new MetricHistogram.Snapshot();
+        final MetricHistogram.Snapshot analysis = new MetricHistogram.Snapshot();
+        for (CaptureSession session : getSessions()) {
+            session.getWriterBacklogHistogram().snapshot(writer);
+            session.getAnalysisBacklogHistogram().snapshot(analysis);
+            out.append(String.format(Locale.US,
+                    "%-12s x%.2f captured %d written %d backlog w %d/%d a %d/%d dropped w %d a %d errors r %d w %d%n",
+                    session.getName(), session.getSpeed(), session.getCapturedSamples(), session.getWrittenSamples(),
+                    session.getWriterBacklog(), writer.getPercentile(99),
+                    session.getAnalysisBacklog(), analysis.getPercentile(99),
+                    session.getWriterDroppedFrames(), session.getAnalysisDroppedFrames(),
+                    session.getReadErrors(), session.getWriteErrors()));
+        }
+    }
+
+    /** Stops all sessions and the worker pools. */
+    @Override
+    public void close() {
+        stopAll();
+        mIoExecutor.shutdown();
+        mAnalysisExecutor.shutdown();
+        try {
+            mIoExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            mAnalysisExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Streaming sound level meter: frequency weighting, then exponential time weighting of the squared
+ * signal, plus a running Leq and the max/min time-weighted level since the last {@link #resetLeq()}.
+ * All levels are in dB with the calibration offset applied. Nothing is allocated per block.
+ */
+public class SoundLevelMeter {
+    public enum TimeWeighting {
+        FAST(0.125), SLOW(1.0);
+
+        public final double seconds;
+
+        TimeWeighting(double seconds) {
+            this.seconds = seconds;
+        }
+    }
+
+    private static final double FULL_SCALE = 32768.0;
+    private static final double MIN_MEAN_SQUARE = 1e-12; // -120 dBFS
+
+    private final WeightingFilter mFilter;
+    private final FrequencyWeighting mFrequencyWeighting;
+    private final TimeWeighting mTimeWeighting;
+    private final int mSampleRate;
+    private final double mAlpha;
+    private final long mSettleSamples;
+    private double mCalibrationOffset = LevelMeter.DEFAULT_CALIBRATION_OFFSET;
+
+    private double mMeanSquare = 0;
+    private double mEnergySum = 0;
+    private long mEnergyCount = 0;
+    private double mMaxMeanSquare = 0;
+    private double mMinMeanSquare = Double.MAX_VALUE;
+    private long mProcessedSamples = 0;
+    // Statistics of the last block only, for callers cutting the stream into their own intervals.
+    private double mBlockEnergy = 0;
+    private int mBlockLength = 0;
+    private double mBlockMax = 0;
+    private double mBlockMin = Double.MAX_VALUE;
+
+    public SoundLevelMeter(FrequencyWeighting frequencyWeighting, TimeWeighting timeWeighting, int sampleRate) {
+        mFilter = new WeightingFilter(frequencyWeighting, sampleRate);
+        mFrequencyWeighting = frequencyWeighting;
+        mTimeWeighting = timeWeighting;
+        mSampleRate = sampleRate;
+        mAlpha = 1 - Math.exp(-1.0 / (timeWeighting.seconds * sampleRate));
+        // Lmin is meaningless while the detector is still rising from zero.
+        mSettleSamples = (long) (timeWeighting.seconds * sampleRate);
+    }
+
+    public void setCalibrationOffset(double offsetDb) {
+        mCalibrationOffset = offsetDb;
+    }
+
+    public void process(short[] samples, int offset, int length) {
+        final WeightingFilter filter = mFilter;
+        final double alpha = mAlpha;
+        double meanSquare = mMeanSquare;
+        double energy = 0;
+        double blockMax = 0;
+        double blockMin = Double.MAX_VALUE;
+        long processed = mProcessedSamples;
+        for (int i = offset; i < offset + length; i++) {
+            final double y = filter.process(samples[i] / FULL_SCALE);
+            final double square = y * y;
+            energy += square;
+            meanSquare += alpha * (square - meanSquare);
+            if (meanSquare > blockMax) blockMax = meanSquare;
+            if (++processed > mSettleSamples && meanSquare < blockMin) blockMin = meanSquare;
+        }
+        mMeanSquare = meanSquare;
+        mEnergySum += energy;
+        mEnergyCount += length;
+        mMaxMeanSquare = Math.max(mMaxMeanSquare, blockMax);
+        mMinMeanSquare = Math.min(mMinMeanSquare, blockMin);
+        mProcessedSamples = processed;
+        mBlockEnergy = energy;
+        mBlockLength = length;
+        mBlockMax = blockMax;
+        mBlockMin = blockMin;
+    }
+
+    /** Starts a new Leq/Lmax/Lmin interval; the time-weighted level carries on. */
+    public void resetLeq() {
+        mEnergySum = 0;
+        mEnergyCount = 0;
+        mMaxMeanSquare = mMeanSquare;
+        mMinMeanSquare = mProcessedSamples > mSettleSamples ? mMeanSquare : Double.MAX_VALUE;
+    }
+
+    /** Clears all state, including the filters, as if freshly constructed. */
+    public void reset() {
+        mFilter.reset();
+        mMeanSquare = 0;
+        mProcessedSamples = 0;
+        resetLeq();
+    }
+
+    /** Current time-weighted level, e.g. LAF. */
+    public double getLevel() {
+        return toDb(mMeanSquare);
+    }
+
+    public double getLeq() {
+        return mEnergyCount == 0 ? toDb(0) : toDb(mEnergySum / mEnergyCount);
+    }
+
+    public double getMaxLevel() {
+        return toDb(mMaxMeanSquare);
+    }
+
+    public double getMinLevel() {
+        return mMinMeanSquare == Double.MAX_VALUE ? getLevel() : toDb(mMinMeanSquare);
+    }
+
+    /** Leq of the last processed block alone. */
+    public double getBlockLeq() {
+        return mBlockLength == 0 ? toDb(0) : toDb(mBlockEnergy / mBlockLength);
+    }
+
+    /** Highest time-weighted level within the last block. */
+    public double getBlockMaxLevel() {
+        return toDb(mBlockMax);
+    }
+
+    /** Lowest time-weighted level within the last block, or NaN while the detector is still settling. */
+    public double getBlockMinLevel() {
+        return mBlockMin == Double.MAX_VALUE ? Double.NaN : toDb(mBlockMin);
+    }
+
+    /** Samples integrated into the current Leq. */
+    public long getLeqSamples() {
+        return mEnergyCount;
+    }
+
+    public FrequencyWeighting getFrequencyWeighting() {
+        return mFrequencyWeighting;
+    }
+
+    public TimeWeighting getTimeWeighting() {
+        return mTimeWeighting;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    private double toDb(double meanSquare) {
+        return 10 * Math.log10(Math.max(meanSquare, MIN_MEAN_SQUARE)) + mCalibrationOffset;
+    }
+}
@@ -0,0 +1,222 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Averaged Hann-windowed power spectrum with 50% overlap, reduced to octave and third-octave band
+ * levels (IEC 61260 base-10 midbands) once per report interval.
+ *
+ * Band levels are Z-weighted, in dB relative to full scale plus the calibration offset, so a band
+ * holding all the energy reads the same as the Z-weighted {@link SoundLevelMeter} Leq. Each FFT
+ * bin's power is split between the bands its width overlaps, which keeps narrow low bands from
+ * coming out empty. Buffers are allocated once.
+ */
+public class SpectrumAnalyzer {
+    public static final int DEFAULT_REPORT_MILLIS = 250;
+
+    private static final double FULL_SCALE = 32768.0;
+    private static final double MIN_MEAN_SQUARE = 1e-12;
+    // Third-octave midbands are 1000 * 10^(k/10) Hz; octaves are every third one.
+    private static final int FIRST_BAND_INDEX = -17; // 20 Hz
+    private static final int LAST_BAND_INDEX = 13;   // 20 kHz
+
+    private final int mSampleRate;
+    private final int mFftSize;
+    private final int mHop;
+    private final int mReportSamples;
+    private final RealFft mFft;
+    private final double[] mWindow;
+    private final double mWindowPower;
+    private final double[] mFrame;
+    private final double[] mWindowed;
+    private final double[] mPower;
+    private final double[] mPowerSum;
+    private int mFrameFill = 0;
+    private int mFrameCount = 0;
+    private int mSamplesSinceReport = 0;
+    private double mCalibrationOffset = LevelMeter.DEFAULT_CALIBRATION_OFFSET;
+
+    private final Bands mOctaves;
+    private final Bands mThirdOctaves;
+
+    public SpectrumAnalyzer(int sampleRate, int fftSize, int reportMillis) {
+        mSampleRate = sampleRate;
+        mFftSize = fftSize;
+        mHop = fftSize / 2;
+        mReportSamples = Math.max(mHop, (int) ((long) sampleRate * reportMillis / 1000));
+        mFft = new RealFft(fftSize);
+        mWindow = new double[fftSize];
+        double windowPower = 0;
+        for (int i = 0; i < fftSize; i++) {
+            mWindow[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / fftSize);
+            windowPower += mWindow[i] * mWindow[i];
+        }
+        mWindowPower = windowPower / fftSize;
+        mFrame = new double[fftSize];
+        mWindowed = new double[fftSize];
+        mPower = new double[fftSize / 2 + 1];
+        mPowerSum = new double[fftSize / 2 + 1];
+        mOctaves = new Bands(3);
+        mThirdOctaves = new Bands(1);
+    }
+
+    /** Picks the power-of-two FFT size giving frames of 1/16 to 1/8 s at this sample rate. */
+    public SpectrumAnalyzer(int sampleRate, int reportMillis) {
+        this(sampleRate, Integer.highestOneBit(Math.max(256, sampleRate / 8)), reportMillis);
+    }
+
+    public void setCalibrationOffset(double offsetDb) {
+        mCalibrationOffset = offsetDb;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getFftSize() {
+        return mFftSize;
+    }
+
+    /**
+     * Feeds samples.
+     *
+     * @return true when a report interval ended in this block and new band levels are available.
+     */
+    public boolean process(short[] samples, int offset, int length) {
+        boolean reported = false;
+        for (int i = offset; i < offset + length; i++) {
+            mFrame[mFrameFill++] = samples[i] / FULL_SCALE;
+            if (mFrameFill == mFftSize) {
+                analyzeFrame();
+                // Keep the second half as the start of the next, 50% overlapped frame.
+                System.arraycopy(mFrame, mHop, mFrame, 0, mFftSize - mHop);
+                mFrameFill = mFftSize - mHop;
+            }
+            if (++mSamplesSinceReport >= mReportSamples && mFrameCount > 0) {
+                report();
+                reported = true;
+            }
+        }
+        return reported;
+    }
+
+    private void analyzeFrame() {
+        for (int i = 0; i < mFftSize; i++) {
+            mWindowed[i] = mFrame[i] * mWindow[i];
+        }
+        mFft.powerSpectrum(mWindowed, mPower);
+        for (int k = 0; k < mPower.length; k++) {
+            mPowerSum[k] += mPower[k];
+        }
+        mFrameCount++;
+    }
+
+    private void report() {
+        // One-sided mean-square per bin, corrected for the window's power loss.
+        final double scale = 1.0 / ((double) mFftSize * mFftSize * mWindowPower * mFrameCount);
+        final int last = mPowerSum.length - 1;
+        for (int k = 0; k <= last; k++) {
+            mPowerSum[k] *= (k == 0 || k == last) ? scale : 2 * scale;
+        }
+        mOctaves.update(mPowerSum);
+        mThirdOctaves.update(mPowerSum);
+        for (int k = 0; k <= last; k++) {
+            mPowerSum[k] = 0;
+        }
+        mFrameCount = 0;
+        mSamplesSinceReport = 0;
+    }
+
+    public int getOctaveBandCount() {
+        return mOctaves.mCount;
+    }
+
+    public int getThirdOctaveBandCount() {
+        return mThirdOctaves.mCount;
+    }
+
+    /** Nominal-exact midband frequencies of the octave bands below Nyquist. */
+    public void getOctaveFrequencies(float[] dest) {
+        System.arraycopy(mOctaves.mCenters, 0, dest, 0, mOctaves.mCount);
+    }
+
+    public void getThirdOctaveFrequencies(float[] dest) {
+        System.arraycopy(mThirdOctaves.mCenters, 0, dest, 0, mThirdOctaves.mCount);
+    }
+
+    /** Copies the levels of the last report, in dB. */
+    public void getOctaveLevels(float[] dest) {
+        mOctaves.copyLevels(dest, mCalibrationOffset);
+    }
+
+    public void getThirdOctaveLevels(float[] dest) {
+        mThirdOctaves.copyLevels(dest, mCalibrationOffset);
+    }
+
+    private class Bands {
+        private final int mCount;
+        private final float[] mCenters;
+        private final double[] mMeanSquares;
+        // Bin range per band; the first and last bin may only partly overlap the band.
+        private final int[] mFirstBin;
+        private final int[] mLastBin;
+        private final double[] mFirstWeight;
+        private final double[] mLastWeight;
+
+        Bands(int stride) {
+            final double nyquist = mSampleRate / 2.0;
+            final double halfWidth = Math.pow(10, stride / 20.0);
+            int count = 0;
+            for (int index = FIRST_BAND_INDEX; index <= LAST_BAND_INDEX; index++) {
+                if (index % stride == 0 && 1000 * Math.pow(10, index / 10.0) * halfWidth <= nyquist) count++;
+            }
+            mCount = count;
+            mCenters = new float[count];
+            mMeanSquares = new double[count];
+            mFirstBin = new int[count];
+            mLastBin = new int[count];
+            mFirstWeight = new double[count];
+            mLastWeight = new double[count];
+
+            final double binWidth = (double) mSampleRate / mFftSize;
+            int band = 0;
+            for (int index = FIRST_BAND_INDEX; index <= LAST_BAND_INDEX && band < count; index++) {
+                if (index % stride != 0) continue;
+                final double center = 1000 * Math.pow(10, index / 10.0);
+                // Bin k covers [(k - 0.5) * binWidth, (k + 0.5) * binWidth).
+                final double lo = center / halfWidth / binWidth + 0.5;
+                final double hi = center * halfWidth / binWidth + 0.5;
+                mCenters[band] = (float) center;
+                mFirstBin[band] = (int) Math.floor(lo);
+                mLastBin[band] = Math.min((int) Math.floor(hi), mFftSize / 2);
+                if (mFirstBin[band] == mLastBin[band]) {
+                    mFirstWeight[band] = hi - lo;
+                    mLastWeight[band] = 0;
+                } else {
+                    mFirstWeight[band] = 1 - (lo - mFirstBin[band]);
+                    mLastWeight[band] = hi - mLastBin[band];
+                }
+                band++;
+            }
+        }
+
+        void update(double[] meanSquares) {
+            for (int band = 0; band < mCount; band++) {
+                final int first = mFirstBin[band];
+                final int last = mLastBin[band];
+                double sum = meanSquares[first] * mFirstWeight[band];
+                for (int k = first + 1; k < last; k++) {
+                    sum += meanSquares[k];
+                }
+                if (last > first && last < meanSquares.length) {
+                    sum += meanSquares[last] * mLastWeight[band];
+                }
+                mMeanSquares[band] = sum;
+            }
+        }
+
+        void copyLevels(float[] dest, double offset) {
+            for (int band = 0; band < mCount; band++) {
+                dest[band] = (float) (10 * Math.log10(Math.max(mMeanSquares[band], MIN_MEAN_SQUARE)) + offset);
+            }
+        }
+    }
+}
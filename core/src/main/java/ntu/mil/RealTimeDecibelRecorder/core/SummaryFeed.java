@@ -0,0 +1,134 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Latest results of the capture pipeline for a display, which reads them at its own pace.
+ *
+ * The analysis threads overwrite the current level and band levels and push each level into a
+ * decimated {@link ChartFeed} history; nothing is queued, so a reader that is slow, paused or
+ * gone costs the pipeline nothing and simply sees the newest values when it next reads.
+ */
+public class SummaryFeed {
+    private final ChartFeed mHistory;
+    private float mLevel;
+    private float mLeq;
+    private float mMaxLevel;
+    private long mLevelVersion = 0;
+    private float[] mBandFrequencies = new float[0];
+    private float[] mBandLevels = new float[0];
+    private long mBandVersion = 0;
+    private volatile String mLabel;
+
+    /** The history keeps {@code historyCapacity} levels, drawn as {@code historyBuckets} min/max pairs. */
+    public SummaryFeed(int historyCapacity, int historyBuckets) {
+        mHistory = new ChartFeed(historyCapacity, historyBuckets);
+    }
+
+    public ChartFeed getHistory() {
+        return mHistory;
+    }
+
+    public void pushLevel(float level, float leq, float maxLevel) {
+        synchronized (this) {
+            mLevel = level;
+            mLeq = leq;
+            mMaxLevel = maxLevel;
+            mLevelVersion++;
+        }
+        mHistory.push(level);
+    }
+
+    /** Copies the band levels; {@code frequencies} is only copied when the band layout changes. */
+    public synchronized void pushBands(float[] frequencies, float[] levels) {
+        if (mBandLevels.length != levels.length) {
+            mBandFrequencies = frequencies.clone();
+            mBandLevels = new float[levels.length];
+        }
+        System.arraycopy(levels, 0, mBandLevels, 0, levels.length);
+        mBandVersion++;
+    }
+
+    /** Short status text, e.g. the file being recorded. */
+    public void setLabel(String label) {
+        mLabel = label;
+    }
+
+    public String getLabel() {
+        return mLabel;
+    }
+
+    public void clear() {
+        synchronized (this) {
+            mLevel = mLeq = mMaxLevel = 0;
+            mLevelVersion++;
+        }
+        mHistory.clear();
+        mLabel = null;
+    }
+
+    /**
+     * Copies whatever changed since {@code dest} was last read into it.
+     *
+     * @return true if the levels or the bands changed.
+     */
+    public synchronized boolean read(Summary dest) {
+        boolean changed = false;
+        if (dest.mLevelVersion != mLevelVersion) {
+            dest.mLevel = mLevel;
+            dest.mLeq = mLeq;
+            dest.mMaxLevel = mMaxLevel;
+            dest.mLevelVersion = mLevelVersion;
+            changed = true;
+        }
+        if (dest.mBandVersion != mBandVersion) {
+            if (dest.mBandLevels.length != mBandLevels.length) {
+                dest.mBandFrequencies = mBandFrequencies;
+                dest.mBandLevels = new float[mBandLevels.length];
+            }
+            System.arraycopy(mBandLevels, 0, dest.mBandLevels, 0, mBandLevels.length);
+            dest.mBandVersion = mBandVersion;
+            dest.isBandsChanged = true;
+            changed = true;
+        } else {
+            dest.isBandsChanged = false;
+        }
+        return changed;
+    }
+
+    /** A reader's copy of the feed; reuse one instance so reads don't allocate. */
+    public static class Summary {
+        private float mLevel;
+        private float mLeq;
+        private float mMaxLevel;
+        private long mLevelVersion = 0;
+        private float[] mBandFrequencies = new float[0];
+        private float[] mBandLevels = new float[0];
+        private long mBandVersion = 0;
+        private boolean isBandsChanged;
+
+        public float getLevel() {
+            return mLevel;
+        }
+
+        public float getLeq() {
+            return mLeq;
+        }
+
+        public float getMaxLevel() {
+            return mMaxLevel;
+        }
+
+        /** Shared with the feed and other readers: read only. */
+        public float[] getBandFrequencies() {
+            return mBandFrequencies;
+        }
+
+        public float[] getBandLevels() {
+            return mBandLevels;
+        }
+
+        /** True if the last read brought new band levels. */
+        public boolean isBandsChanged() {
+            return isBandsChanged;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.Random;
+
+/**
+ * Deterministic generated signal, produced as fast as it is read: Gaussian noise plus a tone
+ * that is switched on for part of every period, which exercises both the meters and the VAD.
+ * The same seed always gives the same samples.
+ */
+public class SyntheticSource implements AudioSource {
+    private final int mSampleRate;
+    private final long mTotalSamples;
+    private final long mStartMillis;
+    private final int mFrameSamples;
+    private final long mSeed;
+    private Random mRandom;
+    private double mNoiseRms = 150;
+    private double mToneAmplitude = 8000;
+    private double mToneFrequency = 440;
+    private long mBurstPeriodSamples;
+    private long mBurstSamples;
+    private long mPosition = 0;
+    private long mCaptureNanos;
+
+    /**
+     * @param durationMillis length of the stream; it then reports {@link #END_OF_STREAM}.
+     * @param startMillis    wall-clock time of the first sample.
+     */
+    public SyntheticSource(int sampleRate, long durationMillis, long startMillis, int frameSamples, long seed) {
+        mSampleRate = sampleRate;
+        mTotalSamples = durationMillis * sampleRate / 1000;
+        mStartMillis = startMillis;
+        mFrameSamples = frameSamples;
+        mSeed = seed;
+        mRandom = new Random(seed);
+        setBursts(1000, 250);
+    }
+
+    /** Standard deviation of the noise, in sample units. */
+    public void setNoise(double rms) {
+        mNoiseRms = rms;
+    }
+
+    public void setTone(double frequency, double amplitude) {
+        mToneFrequency = frequency;
+        mToneAmplitude = amplitude;
+    }
+
+    /** The tone sounds for the first {@code onMillis} of every {@code periodMillis}; equal values make it continuous. */
+    public void setBursts(long periodMillis, long onMillis) {
+        mBurstPeriodSamples = Math.max(1, periodMillis * mSampleRate / 1000);
+        mBurstSamples = onMillis * mSampleRate / 1000;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return 1;
+    }
+
+    @Override
+    public int getFrameSamples() {
+        return mFrameSamples;
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return false;
+    }
+
+    @Override
+    public void start() {
+        mRandom = new Random(mSeed);
+        mPosition = 0;
+    }
+
+    @Override
+    public int read(short[] dest, int offset, int length) {
+        if (mPosition >= mTotalSamples) {
+            return END_OF_STREAM;
+        }
+        final int count = (int) Math.min(length, mTotalSamples - mPosition);
+        final double phaseStep = 2 * Math.PI * mToneFrequency / mSampleRate;
+        long position = mPosition;
+        for (int i = offset; i < offset + count; i++, position++) {
+            double value = mRandom.nextGaussian() * mNoiseRms;
+            if (position % mBurstPeriodSamples < mBurstSamples) {
+                value += mToneAmplitude * Math.sin(phaseStep * position);
+            }
+            dest[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+        }
+        mPosition = position;
+        mCaptureNanos = System.nanoTime();
+        return count;
+    }
+
+    @Override
+    public long getCaptureNanos() {
+        return mCaptureNanos;
+    }
+
+    @Override
+    public long getTimestampMillis() {
+        return mStartMillis + mPosition * 1000 / mSampleRate;
+    }
+
+    @Override
+    public void close() {
+    }
+}
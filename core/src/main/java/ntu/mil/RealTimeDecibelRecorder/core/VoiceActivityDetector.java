@@ -0,0 +1,156 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+/**
+ * Energy-based voice activity detector working on short frames.
+ *
+ * The noise floor follows quiet frames quickly and loud frames slowly, so a steady loud room
+ * becomes the new floor. Activity starts when the frame level stays above floor + onset for a
+ * few frames (a single click does not count), and ends once it has stayed below floor + release
+ * for the hangover time. O(1) per sample, no allocation.
+ */
+public class VoiceActivityDetector implements EventTrigger {
+    public static final int DEFAULT_FRAME_MILLIS = 10;
+    public static final double DEFAULT_ONSET_DB = 12;
+    public static final double DEFAULT_RELEASE_DB = 6;
+    public static final int DEFAULT_ONSET_MILLIS = 30;
+    public static final int DEFAULT_HANGOVER_MILLIS = 300;
+
+    private static final double FULL_SCALE_SQUARED = 32768.0 * 32768.0;
+    private static final double MIN_LEVEL_DB = -100;
+    // Noise floor tracking, in dB per second.
+    private static final double FLOOR_RISE_IDLE = 3.0;
+    private static final double FLOOR_RISE_ACTIVE = 0.5;
+    // Fraction of the gap closed per frame when the level drops below the floor.
+    private static final double FLOOR_FALL = 0.2;
+
+    private final int mFrameMillis;
+    private final int mFrameSamples;
+    private double mOnsetDb = DEFAULT_ONSET_DB;
+    private double mReleaseDb = DEFAULT_RELEASE_DB;
+    private int mOnsetFrames;
+    private int mHangoverFrames;
+
+    private double mSumSquares = 0;
+    private int mFrameFill = 0;
+    private double mFrameLevel = MIN_LEVEL_DB;
+    private double mNoiseFloor = Double.NaN;
+    private int mAboveCount = 0;
+    private int mBelowCount = 0;
+    private boolean isActive = false;
+
+    public VoiceActivityDetector(int sampleRate) {
+        this(sampleRate, DEFAULT_FRAME_MILLIS);
+    }
+
+    public VoiceActivityDetector(int sampleRate, int frameMillis) {
+        mFrameMillis = frameMillis;
+        mFrameSamples = Math.max(1, sampleRate * frameMillis / 1000);
+        setOnsetMillis(DEFAULT_ONSET_MILLIS);
+        setHangoverMillis(DEFAULT_HANGOVER_MILLIS);
+    }
+
+    /** Thresholds above the noise floor to start and to keep activity; onset must not be below release. */
+    public void setThresholds(double onsetDb, double releaseDb) {
+        if (onsetDb < releaseDb)
+            throw new IllegalArgumentException("onset " + onsetDb + " dB is below release " + releaseDb + " dB");
+        mOnsetDb = onsetDb;
+        mReleaseDb = releaseDb;
+    }
+
+    /** How long the level must stay above the onset threshold before activity starts. */
+    public void setOnsetMillis(int millis) {
+        mOnsetFrames = Math.max(1, millis / mFrameMillis);
+    }
+
+    /** How long the level must stay below the release threshold before activity ends. */
+    public void setHangoverMillis(int millis) {
+        mHangoverFrames = Math.max(1, millis / mFrameMillis);
+    }
+
+    /**
+     * Feeds a block of samples.
+     *
+     * @return true if any frame completed in this block was active.
+     */
+    @Override
+    public boolean process(short[] samples, int offset, int length) {
+        boolean activeInBlock = false;
+        double sumSquares = mSumSquares;
+        int fill = mFrameFill;
+        for (int i = offset; i < offset + length; i++) {
+            final double s = samples[i];
+            sumSquares += s * s;
+            if (++fill == mFrameSamples) {
+                activeInBlock |= endFrame(sumSquares / fill);
+                sumSquares = 0;
+                fill = 0;
+            }
+        }
+        mSumSquares = sumSquares;
+        mFrameFill = fill;
+        return activeInBlock;
+    }
+
+    private boolean endFrame(double meanSquare) {
+        final double level = meanSquare > 0
+                ? Math.max(MIN_LEVEL_DB, 10 * Math.log10(meanSquare / FULL_SCALE_SQUARED))
+                : MIN_LEVEL_DB;
+        mFrameLevel = level;
+        if (Double.isNaN(mNoiseFloor)) {
+            mNoiseFloor = level;
+        }
+
+        if (isActive) {
+            if (level < mNoiseFloor + mReleaseDb) {
+                if (++mBelowCount >= mHangoverFrames) {
+                    isActive = false;
+                    mBelowCount = 0;
+                }
+            } else {
+                mBelowCount = 0;
+            }
+        } else {
+            if (level > mNoiseFloor + mOnsetDb) {
+                if (++mAboveCount >= mOnsetFrames) {
+                    isActive = true;
+                    mAboveCount = 0;
+                }
+            } else {
+                mAboveCount = 0;
+            }
+        }
+
+        if (level < mNoiseFloor) {
+            mNoiseFloor += (level - mNoiseFloor) * FLOOR_FALL;
+        } else {
+            final double rise = (isActive ? FLOOR_RISE_ACTIVE : FLOOR_RISE_IDLE) * mFrameMillis / 1000.0;
+            mNoiseFloor += Math.min(level - mNoiseFloor, rise);
+        }
+        return isActive;
+    }
+
+    @Override
+    public void reset() {
+        mSumSquares = 0;
+        mFrameFill = 0;
+        mFrameLevel = MIN_LEVEL_DB;
+        mNoiseFloor = Double.NaN;
+        mAboveCount = 0;
+        mBelowCount = 0;
+        isActive = false;
+    }
+
+    public boolean isActive() {
+        return isActive;
+    }
+
+    /** Estimated noise floor in dBFS. */
+    public double getNoiseFloorDb() {
+        return Double.isNaN(mNoiseFloor) ? MIN_LEVEL_DB : mNoiseFloor;
+    }
+
+    /** Level of the last completed frame in dBFS. */
+    public double getFrameLevelDb() {
+        return mFrameLevel;
+    }
+}
@@ -0,0 +1,172 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a 16-bit PCM WAV file as fast as it is read. Timestamps are the file's start time plus
+ * the audio position, so levels logged from a replay line up with when the audio was recorded.
+ */
+public class WavFileSource implements AudioSource {
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xfffe;
+
+    private final File mSourceFile;
+    private final long mStartMillis;
+    private final int mFrameSamples;
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBytes;
+    private final ShortBuffer mShorts;
+    private int mSampleRate;
+    private int mChannels;
+    private long mDataOffset;
+    private long mDataEnd;
+    private long mPosition;
+    private long mSamplesRead = 0;
+    private long mCaptureNanos;
+
+    /**
+     * Reads the header right away so the format is known before {@link #start()}.
+     *
+     * @param startMillis wall-clock time of the first sample, e.g. the file's recording time.
+     */
+    public WavFileSource(File file, long startMillis, int frameSamples) throws IOException {
+        mSourceFile = file;
+        mStartMillis = startMillis;
+        mFrameSamples = frameSamples;
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            mChannel = mFile.getChannel();
+            readHeader();
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+        mBytes = ByteBuffer.allocateDirect(frameSamples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        mShorts = mBytes.asShortBuffer();
+    }
+
+    private void readHeader() throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, 0);
+        if (header.getInt(0) != fourCc("RIFF") || header.getInt(8) != fourCc("WAVE"))
+            throw new IOException("Not a WAV file: " + mSourceFile);
+        final ByteBuffer chunk = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        long position = 12;
+        boolean haveFormat = false;
+        while (position + 8 <= mChannel.size()) {
+            chunk.clear();
+            chunk.limit(8);
+            readFully(chunk, position);
+            final int id = chunk.getInt(0);
+            final long size = chunk.getInt(4) & 0xffffffffL;
+            if (id == fourCc("fmt ")) {
+                chunk.clear();
+                readFully(chunk, position + 8);
+                final int format = chunk.getShort(0) & 0xffff;
+                final int bits = chunk.getShort(14);
+                if ((format != FORMAT_PCM && format != FORMAT_EXTENSIBLE) || bits != 16)
+                    throw new IOException("Only 16-bit PCM is supported: format " + format + ", " + bits + " bits");
+                mChannels = chunk.getShort(2);
+                mSampleRate = chunk.getInt(4);
+                haveFormat = true;
+            } else if (id == fourCc("data")) {
+                if (!haveFormat) throw new IOException("data chunk before fmt chunk: " + mSourceFile);
+                mDataOffset = position + 8;
+                // A recorder killed before finalizing leaves a zero size; take the rest of the file.
+                mDataEnd = size == 0 ? mChannel.size() : Math.min(mChannel.size(), mDataOffset + size);
+                mPosition = mDataOffset;
+                return;
+            }
+            position += 8 + size + (size & 1);
+        }
+        throw new IOException("No data chunk: " + mSourceFile);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = mChannel.read(buffer, position);
+            if (read < 0) throw new IOException("Truncated WAV file: " + mSourceFile);
+            position += read;
+        }
+    }
+
+    private static int fourCc(String id) {
+        return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    @Override
+    public int getChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public int getFrameSamples() {
+        return mFrameSamples;
+    }
+
+    @Override
+    public boolean isRealTime() {
+        return false;
+    }
+
+    /** Samples in the data chunk. */
+    public long getTotalSamples() {
+        return (mDataEnd - mDataOffset) / 2;
+    }
+
+    /** File offset of the first sample. */
+    long getDataOffset() {
+        return mDataOffset;
+    }
+
+    @Override
+    public void start() {
+        mPosition = mDataOffset;
+        mSamplesRead = 0;
+    }
+
+    @Override
+    public int read(short[] dest, int offset, int length) throws IOException {
+        final long remaining = (mDataEnd - mPosition) / 2;
+        if (remaining <= 0) {
+            return END_OF_STREAM;
+        }
+        final int count = (int) Math.min(Math.min(length, remaining), mShorts.capacity());
+        mBytes.clear();
+        mBytes.limit(count * 2);
+        readFully(mBytes, mPosition);
+        mShorts.clear();
+        mShorts.get(dest, offset, count);
+        mPosition += count * 2;
+        mSamplesRead += count;
+        mCaptureNanos = System.nanoTime();
+        return count;
+    }
+
+    @Override
+    public long getCaptureNanos() {
+        return mCaptureNanos;
+    }
+
+    @Override
+    public long getTimestampMillis() {
+        return mStartMillis + mSamplesRead / mChannels * 1000 / mSampleRate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
@@ -0,0 +1,121 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Single-pass 16-bit PCM WAV writer.
+ *
+ * A placeholder header is written up front, samples are streamed through a {@link FileChannel},
+ * and {@link #close()} patches the RIFF and data chunk sizes in place.
+ */
+public class WavWriter implements AudioSink {
+    public static final int HEADER_SIZE = 44;
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final int RIFF_SIZE_OFFSET = 4;
+    private static final int DATA_SIZE_OFFSET = 40;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBytes;
+    private final ShortBuffer mShorts;
+    private final ByteBuffer mSizeField = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    private long mDataLength = 0;
+    private boolean isClosed = false;
+
+    public static AudioSink.Factory factory(final int sampleRate, final int channels, final int maxFrameSamples) {
+        return new AudioSink.Factory() {
+            @Override
+            public AudioSink open(File file) throws IOException {
+                return new WavWriter(file, sampleRate, channels, maxFrameSamples);
+            }
+        };
+    }
+
+    public WavWriter(File file, int sampleRate, int channels, int maxFrameSamples) throws IOException {
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mBytes = ByteBuffer.allocateDirect(Math.max(maxFrameSamples, HEADER_SIZE / 2) * 2).order(ByteOrder.LITTLE_ENDIAN);
+        mShorts = mBytes.asShortBuffer();
+
+        mBytes.clear();
+        writeHeader(mBytes, 0, sampleRate, channels);
+        mBytes.flip();
+        writeFully(mBytes);
+    }
+
+    /** Appends {@code length} samples, converted to LINEAR16 little endian. */
+    @Override
+    public void write(short[] samples, int offset, int length) throws IOException {
+        final int capacity = mShorts.capacity();
+        while (length > 0) {
+            final int chunk = Math.min(length, capacity);
+            mShorts.clear();
+            mShorts.put(samples, offset, chunk);
+            mBytes.clear();
+            mBytes.limit(chunk * 2);
+            writeFully(mBytes);
+            mDataLength += chunk * 2;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public long getDataLength() {
+        return mDataLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        try {
+            patchSize(RIFF_SIZE_OFFSET, mDataLength + HEADER_SIZE - 8);
+            patchSize(DATA_SIZE_OFFSET, mDataLength);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private void patchSize(long position, long value) throws IOException {
+        mSizeField.clear();
+        mSizeField.putInt((int) value);
+        mSizeField.flip();
+        while (mSizeField.hasRemaining()) {
+            position += mChannel.write(mSizeField, position);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    /** Puts a canonical 44-byte PCM header into {@code out}, which must be little endian. */
+    public static void writeHeader(ByteBuffer out, long dataLength, int sampleRate, int channels) {
+        final int blockAlign = channels * BITS_PER_SAMPLE / 8;
+        out.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        out.putInt((int) (dataLength + HEADER_SIZE - 8));
+        out.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        out.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        out.putInt(16); // size of 'fmt ' chunk
+        out.putShort((short) 1); // format = PCM
+        out.putShort((short) channels);
+        out.putInt(sampleRate);
+        out.putInt(sampleRate * blockAlign); // byte rate
+        out.putShort((short) blockAlign);
+        out.putShort((short) BITS_PER_SAMPLE);
+        out.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        out.putInt((int) dataLength);
+    }
+}
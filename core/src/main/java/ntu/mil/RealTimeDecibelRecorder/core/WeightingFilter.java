@@ -0,0 +1,125 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * IEC 61672 A/C/Z weighting as a cascade of biquads (transposed direct form II).
+ *
+ * The analog poles are mapped with the bilinear transform and the cascade is normalised to 0 dB
+ * at 1 kHz. Coefficients for the usual capture rates are computed once and shared between filters.
+ */
+public class WeightingFilter {
+    private static final int[] PRECOMPUTED_RATES = new int[]{11025, 16000, 22050, 44100, 48000};
+    private static final double F1 = 20.598997;
+    private static final double F2 = 107.65265;
+    private static final double F3 = 737.86223;
+    private static final double F4 = 12194.217;
+    private static final double REFERENCE_FREQUENCY = 1000.0;
+
+    private static final Map<Integer, double[]> sCoefficients = new HashMap<>();
+
+    static {
+        for (FrequencyWeighting weighting : FrequencyWeighting.values()) {
+            for (int sampleRate : PRECOMPUTED_RATES) {
+                coefficients(weighting, sampleRate);
+            }
+        }
+    }
+
+    // Per section: b0, b1, b2, a1, a2.
+    private final double[] mCoefficients;
+    private final double[] mState;
+    private final int mSections;
+
+    public WeightingFilter(FrequencyWeighting weighting, int sampleRate) {
+        mCoefficients = coefficients(weighting, sampleRate);
+        mSections = mCoefficients.length / 5;
+        mState = new double[mSections * 2];
+    }
+
+    public double process(double x) {
+        final double[] c = mCoefficients;
+        final double[] z = mState;
+        for (int s = 0, k = 0, j = 0; s < mSections; s++, k += 5, j += 2) {
+            final double y = c[k] * x + z[j];
+            z[j] = c[k + 1] * x - c[k + 3] * y + z[j + 1];
+            z[j + 1] = c[k + 2] * x - c[k + 4] * y;
+            x = y;
+        }
+        return x;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mState.length; i++) {
+            mState[i] = 0;
+        }
+    }
+
+    private static synchronized double[] coefficients(FrequencyWeighting weighting, int sampleRate) {
+        final Integer key = weighting.ordinal() << 24 | sampleRate;
+        double[] coefficients = sCoefficients.get(key);
+        if (coefficients == null) {
+            coefficients = design(weighting, sampleRate);
+            sCoefficients.put(key, coefficients);
+        }
+        return coefficients;
+    }
+
+    private static double[] design(FrequencyWeighting weighting, int sampleRate) {
+        final double w1 = 2 * Math.PI * F1;
+        final double w2 = 2 * Math.PI * F2;
+        final double w3 = 2 * Math.PI * F3;
+        final double w4 = 2 * Math.PI * F4;
+        final double[] c;
+        switch (weighting) {
+            case A:
+                // s^4 / ((s + w1)^2 (s + w2) (s + w3) (s + w4)^2)
+                c = new double[15];
+                bilinear(c, 0, 1, 0, 0, 2 * w1, w1 * w1, sampleRate);
+                bilinear(c, 5, 1, 0, 0, w2 + w3, w2 * w3, sampleRate);
+                bilinear(c, 10, 0, 0, 1, 2 * w4, w4 * w4, sampleRate);
+                break;
+            case C:
+                // s^2 / ((s + w1)^2 (s + w4)^2)
+                c = new double[10];
+                bilinear(c, 0, 1, 0, 0, 2 * w1, w1 * w1, sampleRate);
+                bilinear(c, 5, 0, 0, 1, 2 * w4, w4 * w4, sampleRate);
+                break;
+            default:
+                return new double[]{1, 0, 0, 0, 0};
+        }
+        final double gain = magnitude(c, REFERENCE_FREQUENCY, sampleRate);
+        c[0] /= gain;
+        c[1] /= gain;
+        c[2] /= gain;
+        return c;
+    }
+
+    // Maps (b2 s^2 + b1 s + b0) / (s^2 + a1 s + a0) to the z-domain at c[offset..offset+4].
+    private static void bilinear(double[] c, int offset, double b2, double b1, double b0, double a1, double a0, int sampleRate) {
+        final double k = 2.0 * sampleRate;
+        final double k2 = k * k;
+        final double norm = k2 + a1 * k + a0;
+        c[offset] = (b2 * k2 + b1 * k + b0) / norm;
+        c[offset + 1] = 2 * (b0 - b2 * k2) / norm;
+        c[offset + 2] = (b2 * k2 - b1 * k + b0) / norm;
+        c[offset + 3] = 2 * (a0 - k2) / norm;
+        c[offset + 4] = (k2 - a1 * k + a0) / norm;
+    }
+
+    private static double magnitude(double[] c, double frequency, int sampleRate) {
+        final double w = 2 * Math.PI * frequency / sampleRate;
+        final double cos1 = Math.cos(w), sin1 = Math.sin(w);
+        final double cos2 = Math.cos(2 * w), sin2 = Math.sin(2 * w);
+        double gain = 1;
+        for (int k = 0; k < c.length; k += 5) {
+            final double nr = c[k] + c[k + 1] * cos1 + c[k + 2] * cos2;
+            final double ni = -c[k + 1] * sin1 - c[k + 2] * sin2;
+            final double dr = 1 + c[k + 3] * cos1 + c[k + 4] * cos2;
+            final double di = -c[k + 3] * sin1 - c[k + 4] * sin2;
+            gain *= Math.sqrt((nr * nr + ni * ni) / (dr * dr + di * di));
+        }
+        return gain;
+    }
+}
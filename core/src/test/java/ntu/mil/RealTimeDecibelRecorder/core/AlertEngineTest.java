@@ -0,0 +1,110 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlertEngineTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK_MILLIS = 40;
+    private static final int BLOCK_SAMPLES = SAMPLE_RATE * BLOCK_MILLIS / 1000;
+
+    private final List<String> mAlerts = new ArrayList<>();
+    private final List<Long> mTimes = new ArrayList<>();
+    private AlertEngine mEngine;
+    private long mNow = 0;
+
+    @Before
+    public void setUp() {
+        mEngine = new AlertEngine(SAMPLE_RATE, new AlertEngine.Listener() {
+            @Override
+            public void onAlert(AlertRule rule, long timeMillis, double value) {
+                mAlerts.add(rule.getName());
+                mTimes.add(timeMillis);
+            }
+        });
+    }
+
+    private void feed(double level, long millis) {
+        for (long end = mNow + millis; mNow < end; ) {
+            mNow += BLOCK_MILLIS;
+            mEngine.process(mNow, level, level + 1, level - 1, BLOCK_SAMPLES);
+        }
+    }
+
+    @Test
+    public void leqOverWindowNeedsAFullWindow() {
+        mEngine.addRule(AlertRule.leqAbove("leq", 60 * 1000, 70));
+        feed(80, 30 * 1000);
+        assertTrue("a half window must not alert", mAlerts.isEmpty());
+        feed(50, 30 * 1000);
+        // Leq of 30 s at 80 dB and 30 s at 50 dB is 77 dB, judged at the first full window.
+        assertEquals(1, mAlerts.size());
+        assertEquals(60 * 1000, (long) mTimes.get(0));
+        // Stays raised while the 80 dB half slides out, then re-arms once below.
+        feed(50, 120 * 1000);
+        assertEquals(1, mAlerts.size());
+        feed(75, 60 * 1000);
+        assertEquals(2, mAlerts.size());
+    }
+
+    @Test
+    public void leqThresholdIsExact() {
+        mEngine.addRule(AlertRule.leqAbove("leq", 10 * 1000, 70));
+        // 20% of the window at 80 dB and the rest silent-ish: 10 log10(0.2 * 1e8 + 0.8 * 1e4) = 73 dB.
+        feed(30, 8 * 1000);
+        feed(80, 2 * 1000);
+        assertEquals(1, mAlerts.size());
+    }
+
+    @Test
+    public void maxTracksTheSlidingWindow() {
+        mEngine.addRule(AlertRule.maxAbove("max", 5000, 90));
+        feed(60, 5000);
+        feed(95, BLOCK_MILLIS);
+        assertEquals(1, mAlerts.size());
+        feed(60, 10 * 1000);
+        feed(95, BLOCK_MILLIS);
+        assertEquals(2, mAlerts.size());
+    }
+
+    @Test
+    public void minNeedsTheWholeWindowAbove() {
+        mEngine.addRule(AlertRule.minAbove("background", 5000, 65));
+        feed(70, 4000);
+        feed(50, BLOCK_MILLIS);
+        feed(70, 4000);
+        assertTrue(mAlerts.isEmpty());
+        feed(70, 2000);
+        assertEquals(1, mAlerts.size());
+    }
+
+    @Test
+    public void exceedancesCountCrossingsNotBlocks() {
+        mEngine.addRule(AlertRule.exceedances("twice", 10 * 1000, 95, 2));
+        feed(60, 1000);
+        feed(100, 2000); // one long crossing
+        feed(60, 12 * 1000);
+        assertTrue(mAlerts.isEmpty());
+        feed(100, 200);
+        feed(60, 3000);
+        feed(100, 200);
+        assertEquals(1, mAlerts.size());
+    }
+
+    @Test
+    public void rulesCanBeRemoved() {
+        AlertRule rule = AlertRule.maxAbove("max", 1000, 90);
+        mEngine.addRule(rule);
+        mEngine.addRule(AlertRule.maxAbove("other", 1000, 90));
+        mEngine.removeRule(rule);
+        assertEquals(1, mEngine.getRuleCount());
+        feed(95, 1000);
+        assertEquals(1, mAlerts.size());
+        assertEquals("other", mAlerts.get(0));
+    }
+}
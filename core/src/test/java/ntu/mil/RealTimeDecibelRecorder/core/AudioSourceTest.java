@@ -0,0 +1,120 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class AudioSourceTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final long START = 1577923200000L;
+
+    private static short[] readAll(AudioSource source, int total) throws IOException {
+        short[] all = new short[total];
+        short[] frame = new short[source.getFrameSamples()];
+        int position = 0;
+        int read;
+        while ((read = source.read(frame, 0, frame.length)) != AudioSource.END_OF_STREAM) {
+            System.arraycopy(frame, 0, all, position, read);
+            position += read;
+        }
+        assertEquals(total, position);
+        return all;
+    }
+
+    @Test
+    public void syntheticSourceIsDeterministicAndFinite() throws IOException {
+        SyntheticSource source = new SyntheticSource(SAMPLE_RATE, 1500, START, 640, 3);
+        source.start();
+        short[] first = readAll(source, 24000);
+        assertEquals(START + 1500, source.getTimestampMillis());
+        source.start();
+        assertArrayEquals(first, readAll(source, 24000));
+        assertFalse(source.isRealTime());
+    }
+
+    @Test
+    public void wavFileSourceReplaysWhatWasWritten() throws IOException {
+        File file = File.createTempFile("source", ".wav");
+        file.deleteOnExit();
+        SyntheticSource synthetic = new SyntheticSource(SAMPLE_RATE, 1000, START, 640, 5);
+        synthetic.start();
+        short[] pcm = readAll(synthetic, SAMPLE_RATE);
+        WavWriter writer = new WavWriter(file, SAMPLE_RATE, 1, 640);
+        writer.write(pcm, 0, pcm.length);
+        writer.close();
+
+        WavFileSource source = new WavFileSource(file, START, 500);
+        try {
+            assertEquals(SAMPLE_RATE, source.getSampleRate());
+            assertEquals(1, source.getChannels());
+            assertEquals(SAMPLE_RATE, source.getTotalSamples());
+            source.start();
+            assertArrayEquals(pcm, readAll(source, SAMPLE_RATE));
+            assertEquals(START + 1000, source.getTimestampMillis());
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void wavFileSourceRejectsAdpcm() throws IOException {
+        File file = File.createTempFile("source", ".wav");
+        file.deleteOnExit();
+        ImaAdpcmWavWriter writer = new ImaAdpcmWavWriter(file, SAMPLE_RATE, 1);
+        writer.write(new short[1000], 0, 1000);
+        writer.close();
+        new WavFileSource(file, START, 500);
+    }
+
+    @Test
+    public void losslessBusDeliversEveryFrameToASlowConsumer() throws Exception {
+        final SyntheticSource source = new SyntheticSource(SAMPLE_RATE, 5000, START, 640, 7);
+        final AudioFramePool pool = new AudioFramePool(source.getFrameSamples(), SAMPLE_RATE, 1, 4);
+        final FrameBus bus = new FrameBus();
+        bus.setLossless(true);
+        final FrameBus.Subscription frames = bus.subscribe(4);
+        final SoundLevelMeter replayed = new SoundLevelMeter(FrequencyWeighting.A, SoundLevelMeter.TimeWeighting.FAST, SAMPLE_RATE);
+        final long[] lastTimestamp = new long[1];
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!frames.isDrained()) {
+                    AudioFrame frame = frames.take(10);
+                    if (frame == null) continue;
+                    if (frame.getSequence() % 8 == 0) Thread.yield();
+                    replayed.process(frame.getSamples(), 0, frame.getLength());
+                    lastTimestamp[0] = frame.getTimestampMillis();
+                    frame.release();
+                }
+            }
+        });
+        consumer.start();
+        source.start();
+        while (true) {
+            AudioFrame frame = pool.acquire();
+            int read = source.read(frame.getSamples(), 0, frame.getSamples().length);
+            if (read == AudioSource.END_OF_STREAM) {
+                frame.release();
+                break;
+            }
+            bus.publish(frame, read, source.getTimestampMillis());
+        }
+        bus.close();
+        consumer.join();
+
+        source.start();
+        SoundLevelMeter direct = new SoundLevelMeter(FrequencyWeighting.A, SoundLevelMeter.TimeWeighting.FAST, SAMPLE_RATE);
+        short[] pcm = readAll(source, 5 * SAMPLE_RATE);
+        direct.process(pcm, 0, pcm.length);
+
+        assertEquals(0, frames.getDroppedFrames());
+        assertEquals(START + 5000, lastTimestamp[0]);
+        assertEquals(direct.getLeqSamples(), replayed.getLeqSamples());
+        assertEquals(direct.getLeq(), replayed.getLeq(), 1e-9);
+        assertTrue(pool.getAllocatedFrames() <= 6);
+    }
+}
@@ -0,0 +1,129 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class BatchAnalyzerTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    private static File writeWav(int seconds, long seed, double noise) throws IOException {
+        File file = File.createTempFile("batch", ".wav");
+        file.deleteOnExit();
+        SyntheticSource source = new SyntheticSource(SAMPLE_RATE, seconds * 1000L, 0, 4000, seed);
+        source.setNoise(noise);
+        source.start();
+        WavWriter writer = new WavWriter(file, SAMPLE_RATE, 1, 4000);
+        short[] frame = new short[4000];
+        int read;
+        while ((read = source.read(frame, 0, frame.length)) != AudioSource.END_OF_STREAM) {
+            writer.write(frame, 0, read);
+        }
+        writer.close();
+        return file;
+    }
+
+    private static LevelSummary analyzeSequentially(File file) throws IOException {
+        WavFileSource source = new WavFileSource(file, 0, SAMPLE_RATE / 25);
+        SoundLevelMeter meter = new SoundLevelMeter(FrequencyWeighting.A, SoundLevelMeter.TimeWeighting.FAST, SAMPLE_RATE);
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        LevelSummary summary = new LevelSummary();
+        short[] block = new short[source.getFrameSamples()];
+        int read;
+        source.start();
+        while ((read = source.read(block, 0, block.length)) != AudioSource.END_OF_STREAM) {
+            meter.process(block, 0, read);
+            summary.add(meter, read, vad.process(block, 0, read));
+        }
+        source.close();
+        return summary;
+    }
+
+    @Test
+    public void chunkedParallelAnalysisMatchesOnePass() throws IOException {
+        File file = writeWav(60, 1, 300);
+        LevelSummary expected = analyzeSequentially(file);
+
+        BatchAnalyzer analyzer = new BatchAnalyzer(new ForkJoinPool(4), FrequencyWeighting.A,
+                SoundLevelMeter.TimeWeighting.FAST);
+        analyzer.setChunkMillis(7000);
+        LevelSummary actual = analyzer.analyze(new File[]{file}).getTotal();
+
+        assertEquals(expected.getSamples(), actual.getSamples());
+        assertEquals(60.0, actual.getSeconds(), 1e-6);
+        assertEquals(expected.getLeq(), actual.getLeq(), 0.01);
+        assertEquals(expected.getMaxLevel(), actual.getMaxLevel(), 0.01);
+        assertEquals(expected.getExceededLevel(50), actual.getExceededLevel(50), 0.21);
+        assertEquals(expected.getExceededLevel(90), actual.getExceededLevel(90), 0.21);
+        assertEquals(expected.getVoiceFraction(), actual.getVoiceFraction(), 0.02);
+    }
+
+    @Test
+    public void stereoFilesAreMixedToMono() throws IOException {
+        File mono = writeWav(12, 4, 300);
+        File stereo = File.createTempFile("batch", ".wav");
+        stereo.deleteOnExit();
+        WavFileSource source = new WavFileSource(mono, 0, 4000);
+        WavWriter writer = new WavWriter(stereo, SAMPLE_RATE, 2, 8000);
+        short[] block = new short[4000];
+        short[] both = new short[8000];
+        int read;
+        source.start();
+        while ((read = source.read(block, 0, block.length)) != AudioSource.END_OF_STREAM) {
+            for (int i = 0; i < read; i++) {
+                both[2 * i] = block[i];
+                both[2 * i + 1] = block[i];
+            }
+            writer.write(both, 0, 2 * read);
+        }
+        writer.close();
+        source.close();
+
+        BatchAnalyzer analyzer = new BatchAnalyzer(new ForkJoinPool(2), FrequencyWeighting.A,
+                SoundLevelMeter.TimeWeighting.FAST);
+        analyzer.setChunkMillis(5000);
+        BatchAnalyzer.Report report = analyzer.analyze(new File[]{mono, stereo});
+        LevelSummary m = report.getFiles().get(0).summary;
+        LevelSummary s = report.getFiles().get(1).summary;
+        assertNotNull(s);
+        assertEquals(12.0, s.getSeconds(), 1e-6);
+        assertEquals(m.getLeq(), s.getLeq(), 1e-9);
+        assertEquals(m.getVoiceFraction(), s.getVoiceFraction(), 1e-9);
+    }
+
+    @Test
+    public void reportsEveryFileAndMergesTheTotal() throws IOException {
+        File quiet = writeWav(10, 2, 100);
+        File loud = writeWav(20, 3, 3000);
+        File broken = File.createTempFile("batch", ".wav");
+        broken.deleteOnExit();
+
+        BatchAnalyzer analyzer = new BatchAnalyzer(new ForkJoinPool(), FrequencyWeighting.A,
+                SoundLevelMeter.TimeWeighting.FAST);
+        BatchAnalyzer.Report report = analyzer.analyze(new File[]{quiet, broken, loud});
+
+        assertEquals(3, report.getFiles().size());
+        LevelSummary q = report.getFiles().get(0).summary;
+        LevelSummary l = report.getFiles().get(2).summary;
+        assertNull(report.getFiles().get(1).summary);
+        assertNotNull(report.getFiles().get(1).error);
+        assertTrue(l.getLeq() > q.getLeq());
+
+        LevelSummary total = report.getTotal();
+        assertEquals(30.0, total.getSeconds(), 1e-6);
+        double energy = (Math.pow(10, q.getLeq() / 10) * 10 + Math.pow(10, l.getLeq() / 10) * 20) / 30;
+        assertEquals(10 * Math.log10(energy), total.getLeq(), 1e-6);
+        assertEquals(Math.max(q.getMaxLevel(), l.getMaxLevel()), total.getMaxLevel(), 1e-9);
+
+        StringBuilder csv = new StringBuilder();
+        report.writeCsv(csv);
+        String[] lines = csv.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[2], lines[2].startsWith(broken.getName() + ",,"));
+        assertTrue(lines[4], lines[4].startsWith("total,30.000,"));
+    }
+}
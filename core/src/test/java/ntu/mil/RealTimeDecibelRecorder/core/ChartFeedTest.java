@@ -0,0 +1,46 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ChartFeedTest {
+    @Test
+    public void shortHistoryIsNotDecimated() {
+        ChartFeed feed = new ChartFeed(16, 4);
+        float[] xs = new float[feed.getMaxPoints()];
+        float[] ys = new float[feed.getMaxPoints()];
+        feed.push(1);
+        feed.push(2);
+        feed.push(3);
+
+        assertTrue(feed.hasNewData());
+        assertEquals(3, feed.pull(xs, ys));
+        assertFalse(feed.hasNewData());
+        assertEquals(2, xs[2], 0);
+        assertEquals(3, ys[2], 0);
+    }
+
+    @Test
+    public void decimationKeepsPeaksAndStaysBounded() {
+        ChartFeed feed = new ChartFeed(64, 4);
+        float[] xs = new float[feed.getMaxPoints()];
+        float[] ys = new float[feed.getMaxPoints()];
+        for (int i = 0; i < 1000; i++) {
+            feed.push(i == 990 ? 100 : (i == 980 ? -5 : 50));
+        }
+
+        int points = feed.pull(xs, ys);
+        assertTrue(points <= feed.getMaxPoints());
+        float max = -Float.MAX_VALUE, min = Float.MAX_VALUE;
+        for (int i = 0; i < points; i++) {
+            max = Math.max(max, ys[i]);
+            min = Math.min(min, ys[i]);
+            assertTrue(xs[i] >= 1000 - 64 && xs[i] < 1000);
+            if (i > 0) assertTrue(xs[i] > xs[i - 1]);
+        }
+        assertEquals(100, max, 0);
+        assertEquals(-5, min, 0);
+        assertEquals(50, feed.getLatest(), 0);
+    }
+}
@@ -0,0 +1,105 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DutyCycleSchedulerTest {
+    private static short[] tone(double frequency, double amplitude, int sampleRate, double seconds) {
+        short[] samples = new short[(int) (sampleRate * seconds)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+        }
+        return samples;
+    }
+
+    @Test
+    public void goesQuietAfterTheHoldAndWakesOnTheFirstLoudBlock() {
+        DutyCycleScheduler scheduler = new DutyCycleScheduler(16000, 40);
+        scheduler.setHoldMillis(1000);
+        assertEquals(DutyCycleScheduler.Mode.ACTIVE, scheduler.getMode());
+
+        // 0.5 s below the floor, interrupted by a loud block: the hold starts over.
+        scheduler.onActiveBlock(30, 8000, false);
+        scheduler.onActiveBlock(50, 800, false);
+        scheduler.onActiveBlock(30, 8000, false);
+        assertEquals(DutyCycleScheduler.Mode.ACTIVE, scheduler.getMode());
+        // Within the hysteresis band does not count as quiet.
+        scheduler.onActiveBlock(38, 8000, false);
+        assertEquals(DutyCycleScheduler.Mode.ACTIVE, scheduler.getMode());
+        scheduler.onActiveBlock(30, 8000, false);
+        scheduler.onActiveBlock(30, 8000, false);
+        assertEquals(DutyCycleScheduler.Mode.QUIET, scheduler.getMode());
+
+        assertTrue(scheduler.offerQuiet(20));
+        assertFalse(scheduler.offerQuiet(60));
+        assertEquals(DutyCycleScheduler.Mode.ACTIVE, scheduler.getMode());
+        assertEquals(2, scheduler.getSwitches());
+    }
+
+    @Test
+    public void leqStaysContinuousAcrossSwitchesOnALowFrequencyTone() {
+        // 50 Hz at 0.1 full scale: about 67 dB unweighted, but 30 dB less A-weighted, below the floor.
+        final int sampleRate = 16000;
+        // Five whole cycles per block, so a steady tone gives the same block Leq every time.
+        final int block = 1600;
+        short[] samples = tone(50, 0.1, sampleRate, 8.0);
+        SoundLevelMeter meter = new SoundLevelMeter(FrequencyWeighting.A, SoundLevelMeter.TimeWeighting.FAST, sampleRate);
+        DutyCycleScheduler scheduler = new DutyCycleScheduler(sampleRate, 45);
+        scheduler.setHoldMillis(1000);
+
+        double previous = Double.NaN;
+        double maxStep = 0;
+        int quietBlocks = 0;
+        for (int offset = 0; offset + block <= samples.length; offset += block) {
+            if (offset == block * 50) {
+                // Back to full analysis mid-tone, as on a restart.
+                scheduler.wake();
+            }
+            // The analysis loop: meter first, then full analysis unless it stays quiet.
+            meter.process(samples, offset, block);
+            final double leq = meter.getBlockLeq();
+            if (scheduler.offerQuiet(leq)) {
+                quietBlocks++;
+            } else {
+                scheduler.onActiveBlock(leq, block, false);
+            }
+            // Past the filter and detector settling, the block level of a steady tone must not move.
+            if (offset >= sampleRate / 2 && !Double.isNaN(previous)) {
+                maxStep = Math.max(maxStep, Math.abs(leq - previous));
+            }
+            previous = leq;
+        }
+
+        assertEquals(36.8, meter.getLeq(), 1.0);
+        assertTrue(quietBlocks > 30);
+        // Quiet after the hold, woken (wake() is not counted), quiet again.
+        assertEquals(2, scheduler.getSwitches());
+        assertEquals(DutyCycleScheduler.Mode.QUIET, scheduler.getMode());
+        assertTrue("step " + maxStep, maxStep < 0.1);
+    }
+
+    @Test
+    public void busyHoldsItActive() {
+        DutyCycleScheduler scheduler = new DutyCycleScheduler(16000, 40);
+        scheduler.setHoldMillis(100);
+        scheduler.onActiveBlock(0, 16000, true);
+        assertEquals(DutyCycleScheduler.Mode.ACTIVE, scheduler.getMode());
+        scheduler.onActiveBlock(0, 16000, false);
+        assertEquals(DutyCycleScheduler.Mode.QUIET, scheduler.getMode());
+    }
+
+    @Test
+    public void disabledNeverGoesQuietButStillAccounts() {
+        DutyCycleScheduler scheduler = new DutyCycleScheduler(16000, Double.NEGATIVE_INFINITY);
+        assertFalse(scheduler.isEnabled());
+        scheduler.onActiveBlock(-100, 1600000, false);
+        assertEquals(DutyCycleScheduler.Mode.ACTIVE, scheduler.getMode());
+
+        assertTrue(Double.isNaN(scheduler.getCpuMillisPerAudioSecond(DutyCycleScheduler.Mode.QUIET)));
+        scheduler.recordAudio(DutyCycleScheduler.Mode.ACTIVE, 32000);
+        scheduler.recordCpu(DutyCycleScheduler.Mode.ACTIVE, 10000000L);
+        assertEquals(2.0, scheduler.getAudioSeconds(DutyCycleScheduler.Mode.ACTIVE), 1e-9);
+        assertEquals(5.0, scheduler.getCpuMillisPerAudioSecond(DutyCycleScheduler.Mode.ACTIVE), 1e-9);
+    }
+}
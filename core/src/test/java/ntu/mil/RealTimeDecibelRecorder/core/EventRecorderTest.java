@@ -0,0 +1,207 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventRecorderTest {
+    private static final int SAMPLE_RATE = 1000;
+    private static final int BLOCK = 10;
+    private static final short LOUD = 20000;
+
+    private File mDirectory;
+    private final List<File> mFinished = new ArrayList<>();
+
+    private final SegmentedRecorder.Namer mNamer = new SegmentedRecorder.Namer() {
+        @Override
+        public File fileFor(long startMillis) {
+            return new File(mDirectory, startMillis + ".wav");
+        }
+    };
+    private final EventRecorder.Listener mListener = new EventRecorder.Listener() {
+        @Override
+        public void onEventStarted(File file) {
+        }
+
+        @Override
+        public void onEventFinished(File file, long dataBytes) {
+            assertEquals(file.length() - WavWriter.HEADER_SIZE, dataBytes);
+            mFinished.add(file);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("events", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static short[] readSamples(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            short[] samples = new short[(int) (in.length() - WavWriter.HEADER_SIZE) / 2];
+            in.seek(WavWriter.HEADER_SIZE);
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = Short.reverseBytes(in.readShort());
+            }
+            return samples;
+        } finally {
+            in.close();
+        }
+    }
+
+    // Quiet samples are a small ramp so their order can be checked; loud ones are constant.
+    private static short[] signal(int quietBefore, int loud, int quietAfter) {
+        short[] samples = new short[quietBefore + loud + quietAfter];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i >= quietBefore && i < quietBefore + loud ? LOUD : (short) (i % 100);
+        }
+        return samples;
+    }
+
+    private static void feed(EventRecorder recorder, short[] samples) throws IOException {
+        for (int i = 0; i < samples.length; i += BLOCK) {
+            recorder.process(samples, i, BLOCK, i + BLOCK);
+        }
+    }
+
+    @Test
+    public void savesPreRollEventAndPostRoll() throws IOException {
+        EventRecorder recorder = new EventRecorder(mNamer, mListener, new LevelTrigger(70, 90), SAMPLE_RATE, 1,
+                BLOCK, 500, 300);
+        short[] samples = signal(1000, 200, 1000);
+        feed(recorder, samples);
+        assertFalse(recorder.isInEvent());
+        recorder.close();
+
+        assertEquals(1, mFinished.size());
+        assertEquals(new File(mDirectory, "500.wav"), mFinished.get(0));
+        short[] saved = readSamples(mFinished.get(0));
+        assertEquals(500 + 200 + 300, saved.length);
+        for (int i = 0; i < saved.length; i++) {
+            assertEquals(samples[500 + i], saved[i]);
+        }
+    }
+
+    @Test
+    public void quietInputWritesNothing() throws IOException {
+        EventRecorder recorder = new EventRecorder(mNamer, mListener, new LevelTrigger(70, 90), SAMPLE_RATE, 1,
+                BLOCK, 500, 300);
+        feed(recorder, signal(5000, 0, 0));
+        recorder.close();
+        assertEquals(0, recorder.getEventCount());
+        assertEquals(0, mDirectory.list().length);
+    }
+
+    @Test
+    public void closeFinishesOpenEvent() throws IOException {
+        EventRecorder recorder = new EventRecorder(mNamer, mListener, new LevelTrigger(70, 90), SAMPLE_RATE, 1,
+                BLOCK, 100, 300);
+        feed(recorder, signal(200, 100, 100));
+        assertTrue(recorder.isInEvent());
+        recorder.close();
+        assertEquals(1, mFinished.size());
+        assertEquals(100 + 100 + 100, readSamples(mFinished.get(0)).length);
+    }
+
+    @Test
+    public void preRollKeepsNewestSamplesInOrder() throws IOException {
+        PreRollBuffer buffer = new PreRollBuffer(8);
+        short[] samples = new short[13];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) i;
+        }
+        buffer.write(samples, 0, 5);
+        buffer.write(samples, 5, 8);
+        assertEquals(8, buffer.size());
+
+        File file = new File(mDirectory, "preroll.wav");
+        WavWriter writer = new WavWriter(file, SAMPLE_RATE, 1, 4);
+        buffer.drainTo(writer);
+        writer.close();
+        assertEquals(0, buffer.size());
+        short[] saved = readSamples(file);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(5 + i, saved[i]);
+        }
+    }
+
+    @Test
+    public void stereoEventWithoutPreRollStartsOnAFrame() throws IOException {
+        // Left counts up while quiet, right is its negative; loud frames are (LOUD, LOUD - 1).
+        short[] stereo = new short[2 * 250];
+        for (int frame = 0; frame < 250; frame++) {
+            boolean loud = frame >= 100 && frame < 150;
+            stereo[2 * frame] = loud ? LOUD : (short) (frame % 50);
+            stereo[2 * frame + 1] = loud ? (short) (LOUD - 1) : (short) -(frame % 50);
+        }
+        EventTrigger trigger = new EventTrigger() {
+            @Override
+            public boolean process(short[] samples, int offset, int length) {
+                return samples[offset] > LOUD / 2;
+            }
+
+            @Override
+            public void reset() {
+            }
+        };
+        EventRecorder recorder = new EventRecorder(mNamer, mListener, trigger, SAMPLE_RATE, 2, 2 * BLOCK, 0, 30);
+        for (int i = 0; i < stereo.length; i += 2 * BLOCK) {
+            recorder.process(stereo, i, 2 * BLOCK, i / 2 + BLOCK);
+        }
+        recorder.close();
+
+        assertEquals(1, mFinished.size());
+        assertEquals(new File(mDirectory, "100.wav"), mFinished.get(0));
+        short[] saved = readSamples(mFinished.get(0));
+        assertEquals(2 * (50 + 30), saved.length);
+        for (int i = 0; i < saved.length; i++) {
+            assertEquals(stereo[200 + i], saved[i]);
+        }
+    }
+
+    @Test
+    public void triggerSeesStereoMixedToMono() throws IOException {
+        final List<short[]> seen = new ArrayList<>();
+        EventTrigger trigger = new EventTrigger() {
+            @Override
+            public boolean process(short[] samples, int offset, int length) {
+                short[] copy = new short[length];
+                System.arraycopy(samples, offset, copy, 0, length);
+                seen.add(copy);
+                return false;
+            }
+
+            @Override
+            public void reset() {
+            }
+        };
+        EventRecorder recorder = new EventRecorder(mNamer, mListener, trigger, SAMPLE_RATE, 2, BLOCK, 500, 300);
+        short[] stereo = {100, 300, -200, 0, 7, 9, 0, 0};
+        recorder.process(stereo, 2, 6, 10);
+        recorder.close();
+
+        assertEquals(1, seen.size());
+        assertArrayEquals(new short[]{-100, 8, 0}, seen.get(0));
+    }
+}
@@ -0,0 +1,200 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameBusTest {
+    private static void publish(FrameBus bus, AudioFramePool pool, short value, long timestamp) {
+        AudioFrame frame = pool.acquire();
+        frame.getSamples()[0] = value;
+        bus.publish(frame, 1, timestamp);
+    }
+
+    @Test
+    public void everySubscriberSeesTheSameFrameUntilAllRelease() {
+        AudioFramePool pool = new AudioFramePool(4, 16000, 1, 2);
+        FrameBus bus = new FrameBus();
+        FrameBus.Subscription a = bus.subscribe(8);
+        FrameBus.Subscription b = bus.subscribe(8);
+
+        publish(bus, pool, (short) 7, 1000);
+        AudioFrame fromA = a.poll();
+        AudioFrame fromB = b.poll();
+        assertSame(fromA, fromB);
+        assertEquals(7, fromA.getSamples()[0]);
+        assertEquals(1, fromA.getLength());
+        assertEquals(1000, fromA.getTimestampMillis());
+        assertEquals(0, fromA.getSequence());
+        assertEquals(16000, fromA.getSampleRate());
+        assertEquals(2, fromA.getRefCount());
+
+        fromA.release();
+        assertEquals(1, pool.getFreeFrames());
+        fromB.release();
+        assertEquals(2, pool.getFreeFrames());
+        assertEquals(2, pool.getAllocatedFrames());
+    }
+
+    @Test
+    public void stereoFrameMixesToMonoAndKeepsCaptureTime() {
+        AudioFramePool pool = new AudioFramePool(6, 48000, 2, 1);
+        FrameBus bus = new FrameBus();
+        FrameBus.Subscription sub = bus.subscribe(4);
+        AudioFrame frame = pool.acquire();
+        short[] samples = frame.getSamples();
+        samples[0] = 100; samples[1] = 300;
+        samples[2] = -200; samples[3] = 0;
+        samples[4] = Short.MAX_VALUE; samples[5] = Short.MAX_VALUE;
+        bus.publish(frame, 6, 1000, 123456789L);
+
+        AudioFrame received = sub.poll();
+        assertEquals(123456789L, received.getCaptureNanos());
+        short[] mono = new short[3];
+        assertEquals(3, received.mixToMono(mono));
+        assertArrayEquals(new short[]{200, -100, Short.MAX_VALUE}, mono);
+        received.release();
+    }
+
+    @Test
+    public void steadyStateReusesFrames() {
+        AudioFramePool pool = new AudioFramePool(4, 16000, 1, 0);
+        FrameBus bus = new FrameBus();
+        FrameBus.Subscription a = bus.subscribe(4);
+        for (int i = 0; i < 1000; i++) {
+            publish(bus, pool, (short) i, i);
+            a.poll().release();
+        }
+        assertEquals(1, pool.getAllocatedFrames());
+        assertEquals(1000, bus.getPublishedFrames());
+    }
+
+    @Test
+    public void fullQueueDropsItsOldestFramesOnly() {
+        AudioFramePool pool = new AudioFramePool(4, 16000, 1, 0);
+        FrameBus bus = new FrameBus();
+        FrameBus.Subscription slow = bus.subscribe(2);
+        FrameBus.Subscription fast = bus.subscribe(8);
+        for (int i = 0; i < 5; i++) {
+            publish(bus, pool, (short) i, i);
+        }
+        assertEquals(3, slow.getDroppedFrames());
+        assertEquals(0, fast.getDroppedFrames());
+        assertEquals(2, slow.getQueueDepth());
+        AudioFrame frame = slow.poll();
+        assertEquals(3, frame.getSamples()[0]);
+        frame.release();
+
+        for (int i = 0; i < 5; i++) {
+            frame = fast.poll();
+            assertEquals(i, frame.getSamples()[0]);
+            frame.release();
+        }
+        slow.poll().release();
+        assertEquals(pool.getAllocatedFrames(), pool.getFreeFrames());
+    }
+
+    @Test
+    public void closeDrainsAndUnsubscribeReleases() {
+        AudioFramePool pool = new AudioFramePool(4, 16000, 1, 0);
+        FrameBus bus = new FrameBus();
+        FrameBus.Subscription kept = bus.subscribe(4);
+        FrameBus.Subscription dropped = bus.subscribe(4);
+        publish(bus, pool, (short) 1, 1);
+        publish(bus, pool, (short) 2, 2);
+
+        bus.unsubscribe(dropped);
+        assertTrue(dropped.isDrained());
+        publish(bus, pool, (short) 3, 3);
+        assertEquals(0, dropped.getQueueDepth());
+
+        bus.close();
+        assertFalse(kept.isDrained());
+        for (int i = 1; i <= 3; i++) {
+            AudioFrame frame = kept.take(10);
+            assertEquals(i, frame.getSamples()[0]);
+            frame.release();
+        }
+        assertTrue(kept.isDrained());
+        assertNull(kept.take(10));
+        assertEquals(pool.getAllocatedFrames(), pool.getFreeFrames());
+    }
+
+    // The producer drops from the same end the consumer takes from; every frame must end up either
+    // taken or dropped, exactly once, and taken frames must stay in order.
+    @Test
+    public void concurrentDropsAndTakesAccountForEveryFrame() throws InterruptedException {
+        final AudioFramePool pool = new AudioFramePool(4, 16000, 1, 0);
+        final FrameBus bus = new FrameBus();
+        final FrameBus.Subscription sub = bus.subscribe(2);
+        final long[] taken = new long[1];
+        final boolean[] ordered = {true};
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long last = -1;
+                while (!sub.isDrained()) {
+                    AudioFrame frame = sub.take(10);
+                    if (frame == null) {
+                        continue;
+                    }
+                    if (frame.getSequence() <= last) {
+                        ordered[0] = false;
+                    }
+                    last = frame.getSequence();
+                    taken[0]++;
+                    frame.release();
+                }
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < 200000; i++) {
+            publish(bus, pool, (short) i, i);
+        }
+        bus.close();
+        consumer.join();
+
+        assertTrue(ordered[0]);
+        assertEquals(200000, taken[0] + sub.getDroppedFrames());
+        assertEquals(pool.getAllocatedFrames(), pool.getFreeFrames());
+    }
+
+    @Test
+    public void losslessBusWaitsForASlowConsumer() throws InterruptedException {
+        final AudioFramePool pool = new AudioFramePool(4, 16000, 1, 0);
+        final FrameBus bus = new FrameBus();
+        bus.setLossless(true);
+        final FrameBus.Subscription sub = bus.subscribe(2);
+        final long[] sum = new long[1];
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!sub.isDrained()) {
+                    AudioFrame frame = sub.take(10);
+                    if (frame != null) {
+                        sum[0] += frame.getSamples()[0];
+                        frame.release();
+                    }
+                }
+            }
+        });
+        consumer.start();
+        for (int i = 0; i < 10000; i++) {
+            publish(bus, pool, (short) (i % 100), i);
+        }
+        bus.close();
+        consumer.join();
+
+        assertEquals(0, sub.getDroppedFrames());
+        assertEquals(100 * 4950, sum[0]);
+        assertEquals(pool.getAllocatedFrames(), pool.getFreeFrames());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recycledFrameCannotBeRetained() {
+        AudioFramePool pool = new AudioFramePool(4, 16000, 1, 0);
+        AudioFrame frame = pool.acquire();
+        frame.release();
+        frame.retain();
+    }
+}
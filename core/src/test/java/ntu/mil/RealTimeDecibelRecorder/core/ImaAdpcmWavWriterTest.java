@@ -0,0 +1,120 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class ImaAdpcmWavWriterTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    private static final int[] STEP_SIZES = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45,
+            50, 55, 60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066,
+            2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899,
+            15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767
+    };
+    private static final int[] INDEX_ADJUST = {-1, -1, -1, -1, 2, 4, 6, 8};
+
+    private static ByteBuffer readFile(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Reference mono decoder, following the IMA/Microsoft block layout.
+    private static short[] decodeMono(ByteBuffer data, int blockAlign, int samplesPerBlock, int frames) {
+        short[] out = new short[frames];
+        int n = 0;
+        while (n < frames) {
+            int predictor = data.getShort();
+            int index = data.get() & 0xff;
+            data.get();
+            out[n++] = (short) predictor;
+            for (int i = 0; i < blockAlign - 4; i++) {
+                int packed = data.get() & 0xff;
+                for (int shift = 0; shift <= 4; shift += 4) {
+                    int nibble = (packed >> shift) & 0xf;
+                    int step = STEP_SIZES[index];
+                    int delta = step >> 3;
+                    if ((nibble & 4) != 0) delta += step;
+                    if ((nibble & 2) != 0) delta += step >> 1;
+                    if ((nibble & 1) != 0) delta += step >> 2;
+                    predictor += (nibble & 8) != 0 ? -delta : delta;
+                    predictor = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, predictor));
+                    index = Math.max(0, Math.min(88, index + INDEX_ADJUST[nibble & 7]));
+                    if (n < frames) out[n++] = (short) predictor;
+                }
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void headerDescribesImaAdpcm() throws IOException {
+        File file = File.createTempFile("adpcm", ".wav");
+        try {
+            ImaAdpcmWavWriter writer = new ImaAdpcmWavWriter(file, SAMPLE_RATE, 1);
+            writer.write(new short[1000], 0, 1000);
+            writer.close();
+
+            ByteBuffer bytes = readFile(file);
+            assertEquals(0x11, bytes.getShort(20));
+            assertEquals(1, bytes.getShort(22));
+            assertEquals(SAMPLE_RATE, bytes.getInt(24));
+            assertEquals(256, bytes.getShort(32));
+            assertEquals(4, bytes.getShort(34));
+            assertEquals(505, bytes.getShort(38));
+            assertEquals(1000, bytes.getInt(48));
+            // 1000 samples need two 505-sample blocks.
+            assertEquals(512, bytes.getInt(56));
+            assertEquals(file.length() - 8, bytes.getInt(4));
+            assertEquals(ImaAdpcmWavWriter.HEADER_SIZE + 512, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void decodesCloseToInput() throws IOException {
+        short[] pcm = new short[SAMPLE_RATE * 13 / 10];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) Math.round(8000 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE)
+                    + 3000 * Math.sin(2 * Math.PI * 2500 * i / SAMPLE_RATE));
+        }
+        File file = File.createTempFile("adpcm", ".wav");
+        try {
+            ImaAdpcmWavWriter writer = new ImaAdpcmWavWriter(file, SAMPLE_RATE, 1);
+            for (int i = 0; i < pcm.length; i += 640) {
+                writer.write(pcm, i, Math.min(640, pcm.length - i));
+            }
+            writer.close();
+            assertTrue(file.length() < pcm.length * 2 / 3.9 + ImaAdpcmWavWriter.HEADER_SIZE + 256);
+
+            ByteBuffer bytes = readFile(file);
+            bytes.position(ImaAdpcmWavWriter.HEADER_SIZE);
+            short[] decoded = decodeMono(bytes, 256, 505, bytes.getInt(48));
+            assertEquals(pcm.length, decoded.length);
+            double signal = 0, noise = 0;
+            for (int i = 0; i < pcm.length; i++) {
+                signal += (double) pcm[i] * pcm[i];
+                noise += (double) (pcm[i] - decoded[i]) * (pcm[i] - decoded[i]);
+            }
+            double snr = 10 * Math.log10(signal / noise);
+            assertTrue("SNR " + snr, snr > 20);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LevelLogTest {
+    // 2020-01-01T23:00:00Z, so an hour of one-second records crosses into the next day file.
+    private static final long START = 1577919600000L;
+
+    private File mDirectory;
+
+    private static class Collector implements LevelLog.Visitor {
+        final List<Long> starts = new ArrayList<>();
+        final List<Float> leqs = new ArrayList<>();
+
+        @Override
+        public void onRecord(long startMillis, float leq, float maxLevel, float minLevel) {
+            starts.add(startMillis);
+            leqs.add(leq);
+            assertTrue(minLevel <= leq && leq <= maxLevel);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("levels", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static double leqAt(int second) {
+        return 40 + (second % 500) / 10.0;
+    }
+
+    private void writeSeconds(LevelLogWriter writer, int from, int to) throws IOException {
+        for (int s = from; s < to; s++) {
+            assertTrue(writer.append(START + s * 1000L, leqAt(s), leqAt(s) + 5, leqAt(s) - 5));
+        }
+    }
+
+    @Test
+    public void rangeQueriesAcrossDaysAndStrides() throws IOException {
+        LevelLogWriter writer = new LevelLogWriter(mDirectory);
+        writeSeconds(writer, 0, 7200);
+        writer.close();
+        assertTrue(LevelLog.dataFile(mDirectory, LevelLog.dayOf(START)).exists());
+        assertTrue(LevelLog.dataFile(mDirectory, LevelLog.dayOf(START) + 1).exists());
+
+        LevelLogReader reader = new LevelLogReader(mDirectory);
+        Collector all = new Collector();
+        assertEquals(7200, reader.scan(START, START + 7200 * 1000L, all));
+        for (int s = 0; s < 7200; s++) {
+            assertEquals(START + s * 1000L, (long) all.starts.get(s));
+            assertEquals(leqAt(s), all.leqs.get(s), 0.005);
+        }
+
+        // Boundaries fall inside an index stride and the range spans midnight.
+        Collector part = new Collector();
+        assertEquals(1000, reader.scan(START + 3100 * 1000L - 1, START + 4100 * 1000L - 1, part));
+        assertEquals(START + 3100 * 1000L, (long) part.starts.get(0));
+        assertEquals(0, reader.scan(START - 10000, START, new Collector()));
+    }
+
+    @Test
+    public void reopeningContinuesTheDay() throws IOException {
+        LevelLogWriter writer = new LevelLogWriter(mDirectory);
+        writeSeconds(writer, 0, 300);
+        writer.close();
+
+        writer = new LevelLogWriter(mDirectory);
+        // Older than the last record, e.g. the clock went back: dropped.
+        assertFalse(writer.append(START + 100 * 1000L, 50, 55, 45));
+        // Same start as the last record: rewritten in place.
+        assertTrue(writer.append(START + 299 * 1000L, 80, 85, 75));
+        writeSeconds(writer, 300, 600);
+        writer.close();
+
+        Collector all = new Collector();
+        assertEquals(600, new LevelLogReader(mDirectory).scan(START, START + 3600 * 1000L, all));
+        assertEquals(START + 599 * 1000L, (long) all.starts.get(599));
+        assertEquals(80, all.leqs.get(299), 0.005);
+    }
+
+    @Test
+    public void readerSeesRecordsWhileWriting() throws IOException {
+        LevelLogWriter writer = new LevelLogWriter(mDirectory);
+        writeSeconds(writer, 0, 10);
+        LevelLogReader reader = new LevelLogReader(mDirectory);
+        assertEquals(10, reader.scan(START, START + 3600 * 1000L, new Collector()));
+        writeSeconds(writer, 10, 20);
+        assertEquals(20, reader.scan(START, START + 3600 * 1000L, new Collector()));
+        writer.close();
+    }
+
+    @Test
+    public void accumulatorAveragesEnergyPerInterval() {
+        LevelAccumulator accumulator = new LevelAccumulator(1000);
+        assertFalse(accumulator.add(START + 500, 60, 100, 62, 58));
+        assertFalse(accumulator.add(START + 999, 70, 100, 72, Double.NaN));
+        assertTrue(accumulator.add(START + 1200, 50, 100, 51, 49));
+        assertEquals(START, accumulator.getStartMillis());
+        // Equal-length blocks at 60 and 70 dB: 10 log10((1e6 + 1e7) / 2).
+        assertEquals(67.4, accumulator.getLeq(), 0.05);
+        assertEquals(72, accumulator.getMaxLevel(), 1e-9);
+        assertEquals(58, accumulator.getMinLevel(), 1e-9);
+        assertTrue(accumulator.flush());
+        assertEquals(START + 1000, accumulator.getStartMillis());
+        assertFalse(accumulator.flush());
+    }
+}
@@ -0,0 +1,52 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LevelMeterTest {
+    private static short[] sine(double frequency, double phase, double amplitude, int sampleRate, int length) {
+        short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / sampleRate + phase));
+        }
+        return samples;
+    }
+
+    @Test
+    public void fullScaleSineReadsMinusThreeDbfs() {
+        LevelMeter meter = new LevelMeter();
+        short[] samples = sine(1000, 0, 1.0, 16000, 1600);
+        meter.process(samples, 0, samples.length);
+        assertEquals(-3.01, meter.getRmsDbfs(), 0.05);
+        assertEquals(0.0, meter.getPeakDbfs(), 0.05);
+    }
+
+    @Test
+    public void truePeakFindsInterSamplePeak() {
+        LevelMeter meter = new LevelMeter();
+        // Quarter sample rate at 45 degrees: every sample sits at 0.707 of the real peak.
+        short[] samples = sine(4000, Math.PI / 4, 0.5, 16000, 1600);
+        meter.process(samples, 0, samples.length);
+        assertEquals(-9.03, meter.getPeakDbfs(), 0.1);
+        assertEquals(-6.02, meter.getTruePeakDbfs(), 0.5);
+    }
+
+    @Test
+    public void calibrationOffsetShiftsSplOnly() {
+        LevelMeter meter = new LevelMeter();
+        meter.setCalibrationOffset(100);
+        short[] samples = sine(1000, 0, 0.1, 16000, 1600);
+        meter.process(samples, 0, samples.length);
+        assertEquals(-23.01, meter.getRmsDbfs(), 0.05);
+        assertEquals(76.99, meter.getDbSpl(), 0.05);
+    }
+
+    @Test
+    public void silenceIsClampedToFloor() {
+        LevelMeter meter = new LevelMeter();
+        meter.process(new short[256], 0, 256);
+        assertEquals(LevelMeter.MIN_DBFS, meter.getRmsDbfs(), 0);
+        assertEquals(LevelMeter.MIN_DBFS, meter.getTruePeakDbfs(), 0);
+    }
+}
@@ -0,0 +1,130 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LevelPyramidTest {
+    // 2020-01-02T00:00:00Z
+    private static final long START = 1577923200000L;
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+
+    private File mDirectory;
+
+    private static class Collector implements LevelLog.Visitor {
+        final List<Long> starts = new ArrayList<>();
+        final List<float[]> levels = new ArrayList<>();
+
+        @Override
+        public void onRecord(long startMillis, float leq, float maxLevel, float minLevel) {
+            starts.add(startMillis);
+            levels.add(new float[]{leq, maxLevel, minLevel});
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("pyramid", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        delete(mDirectory);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // Alternating 50/60 dB seconds: every minute has Leq 10 log10((1e5 + 1e6) / 2) = 57.40 dB.
+    private static double leqAt(int second) {
+        return second % 2 == 0 ? 50 : 60;
+    }
+
+    private void writeSeconds(LevelPyramid pyramid, int from, int to) throws IOException {
+        for (int s = from; s < to; s++) {
+            pyramid.append(START + s * 1000L, leqAt(s), leqAt(s) + 3, leqAt(s) - 3);
+        }
+    }
+
+    @Test
+    public void rollsUpMinutesAndHours() throws IOException {
+        LevelPyramid pyramid = new LevelPyramid(mDirectory);
+        writeSeconds(pyramid, 0, 7200 + 90);
+        pyramid.close();
+
+        Collector minutes = new Collector();
+        new LevelLogReader(LevelPyramid.rollupDirectory(mDirectory, MINUTE)).scan(START, START + 3 * HOUR, minutes);
+        assertEquals(122, minutes.starts.size());
+        assertEquals(START + 121 * MINUTE, (long) minutes.starts.get(121));
+        assertEquals(57.40, minutes.levels.get(0)[0], 0.01);
+        assertEquals(63, minutes.levels.get(0)[1], 0.01);
+        assertEquals(47, minutes.levels.get(0)[2], 0.01);
+        // The open minute holds 30 seconds so far and is already visible.
+        assertEquals(57.40, minutes.levels.get(121)[0], 0.01);
+
+        Collector hours = new Collector();
+        new LevelLogReader(LevelPyramid.rollupDirectory(mDirectory, HOUR)).scan(START, START + 3 * HOUR, hours);
+        assertEquals(3, hours.starts.size());
+        assertEquals(57.40, hours.levels.get(1)[0], 0.01);
+    }
+
+    @Test
+    public void restartContinuesTheOpenInterval() throws IOException {
+        LevelPyramid pyramid = new LevelPyramid(mDirectory);
+        writeSeconds(pyramid, 0, 20);
+        pyramid.close();
+        pyramid = new LevelPyramid(mDirectory);
+        // 40 loud seconds: the minute is 20 s of 50/60 dB and 40 s of 80 dB.
+        for (int s = 20; s < 60; s++) {
+            pyramid.append(START + s * 1000L, 80, 80, 80);
+        }
+        pyramid.close();
+
+        Collector minutes = new Collector();
+        new LevelLogReader(LevelPyramid.rollupDirectory(mDirectory, MINUTE)).scan(START, START + HOUR, minutes);
+        assertEquals(1, minutes.starts.size());
+        double expected = 10 * Math.log10((10 * 1e5 + 10 * 1e6 + 40 * 1e8) / 60);
+        assertEquals(expected, minutes.levels.get(0)[0], 0.01);
+        assertEquals(47, minutes.levels.get(0)[2], 0.01);
+    }
+
+    @Test
+    public void historyStaysWithinPointBudgetAtEveryZoom() throws IOException {
+        LevelPyramid pyramid = new LevelPyramid(mDirectory);
+        writeSeconds(pyramid, 0, 3 * 3600);
+        pyramid.close();
+
+        LevelHistory history = new LevelHistory(mDirectory, 1000);
+        long[] spans = {30 * 1000L, 10 * MINUTE, HOUR, 3 * HOUR, 7 * 24 * HOUR};
+        for (long span : spans) {
+            Collector points = new Collector();
+            int count = history.query(START + 500, START + 500 + span, 100, points);
+            assertEquals(points.starts.size(), count);
+            assertTrue(span + " gave " + count, count > 0 && count <= 100);
+        }
+        assertEquals(1000, history.getResolutionMillis(START, START + 30 * 1000L, 100));
+        assertEquals(MINUTE, history.getResolutionMillis(START, START + HOUR, 100));
+        assertEquals(2 * HOUR, history.getResolutionMillis(START, START + 7 * 24 * HOUR, 100));
+
+        // Merged points keep the energy mean: every hour here is 57.40 dB.
+        Collector week = new Collector();
+        history.query(START, START + 7 * 24 * HOUR, 100, week);
+        assertEquals(57.40, week.levels.get(0)[0], 0.01);
+    }
+}
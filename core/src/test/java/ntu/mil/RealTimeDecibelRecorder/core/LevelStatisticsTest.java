@@ -0,0 +1,83 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LevelStatisticsTest {
+    // 2020-01-02T00:00:00Z
+    private static final long START = 1577923200000L;
+
+    @Test
+    public void percentilesOfUniformLevels() {
+        LevelHistogram histogram = new LevelHistogram();
+        // 40.0 to 79.9 dB in 0.1 dB steps, equal time each.
+        for (int i = 0; i < 400; i++) {
+            histogram.add(40 + i / 10.0 + 0.05, 100);
+        }
+        assertEquals(76.0, histogram.getExceededLevel(10), 0.11);
+        assertEquals(60.0, histogram.getExceededLevel(50), 0.11);
+        assertEquals(44.0, histogram.getExceededLevel(90), 0.11);
+        assertTrue(Double.isNaN(new LevelHistogram().getExceededLevel(50)));
+    }
+
+    @Test
+    public void mergedHistogramsMatchOneOverTheWholeWindow() {
+        LevelHistogram quiet = new LevelHistogram();
+        LevelHistogram loud = new LevelHistogram();
+        LevelHistogram all = new LevelHistogram();
+        for (int i = 0; i < 1000; i++) {
+            double a = 35 + (i % 50) / 10.0;
+            double b = 70 + (i % 30) / 10.0;
+            quiet.add(a, 1);
+            loud.add(b, 3);
+            all.add(a, 1);
+            all.add(b, 3);
+        }
+        quiet.merge(loud);
+        for (double percent : new double[]{1, 10, 50, 90, 99}) {
+            assertEquals(all.getExceededLevel(percent), quiet.getExceededLevel(percent), 1e-9);
+        }
+        assertEquals(4000, quiet.getTotal());
+        // Loud 75% of the time: L50 is loud, L90 is quiet.
+        assertTrue(quiet.getExceededLevel(50) >= 70);
+        assertTrue(quiet.getExceededLevel(90) < 40);
+    }
+
+    @Test
+    public void windowsRollOverAndCarryUp() {
+        final List<LevelStatistics.Window> windows = new ArrayList<>();
+        final List<Long> totals = new ArrayList<>();
+        LevelStatistics statistics = new LevelStatistics(new LevelStatistics.Listener() {
+            @Override
+            public void onWindowFinished(LevelStatistics.Window window, long startMillis, LevelHistogram histogram) {
+                windows.add(window);
+                totals.add(histogram.getTotal());
+            }
+        });
+        // Two hours and a bit of 100 ms blocks at 1 sample each.
+        for (long t = 0; t < 2 * 3600 * 1000L + 500; t += 100) {
+            statistics.add(START + t, 60, 1);
+        }
+        // 120 minutes, each hour reported right after its last minute.
+        assertEquals(122, windows.size());
+        assertEquals(LevelStatistics.Window.HOUR, windows.get(60));
+        assertEquals(36000L, (long) totals.get(60));
+
+        LevelHistogram current = new LevelHistogram();
+        statistics.getCurrent(LevelStatistics.Window.DAY, current);
+        assertEquals(72005, current.getTotal());
+        statistics.getCurrent(LevelStatistics.Window.MINUTE, current);
+        assertEquals(5, current.getTotal());
+
+        windows.clear();
+        totals.clear();
+        statistics.finishAll();
+        assertEquals(3, windows.size());
+        assertEquals(LevelStatistics.Window.DAY, windows.get(2));
+        assertEquals(72005L, (long) totals.get(2));
+    }
+}
@@ -0,0 +1,102 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetricHistogramTest {
+    @Test
+    public void percentilesAreInterpolatedWithinBuckets() {
+        MetricHistogram histogram = new MetricHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        MetricHistogram.Snapshot s = new MetricHistogram.Snapshot();
+        histogram.snapshot(s);
+        assertEquals(1000, s.getCount());
+        assertEquals(1000, s.getMax());
+        assertEquals(500.5, s.getMean(), 1e-9);
+        // 500 falls in [448, 512), 990 in [896, 1024).
+        assertEquals(500, s.getPercentile(50), 2);
+        assertEquals(990, s.getPercentile(99), 20);
+        assertEquals(1, s.getPercentile(0));
+    }
+
+    @Test
+    public void percentilesStayCloseForTensOfMilliseconds() {
+        MetricHistogram histogram = new MetricHistogram();
+        for (int i = 0; i < 100; i++) {
+            histogram.record(23000000 + i * 10000);
+        }
+        MetricHistogram.Snapshot s = new MetricHistogram.Snapshot();
+        histogram.snapshot(s);
+        assertEquals(23500000, s.getPercentile(50), 23500000 * 0.02);
+    }
+
+    @Test
+    public void zeroAndHugeValuesHaveBuckets() {
+        assertEquals(0, MetricHistogram.bucketOf(0));
+        assertEquals(1, MetricHistogram.bucketOf(1));
+        assertEquals(7, MetricHistogram.bucketOf(7));
+        assertEquals(MetricHistogram.bucketOf(8), MetricHistogram.bucketOf(9));
+        assertEquals(MetricHistogram.bucketOf(9) + 1, MetricHistogram.bucketOf(10));
+        for (int b = 1; b < MetricHistogram.BUCKETS; b++) {
+            assertEquals(MetricHistogram.upperBound(b - 1) + 1, MetricHistogram.lowerBound(b));
+            assertEquals(b, MetricHistogram.bucketOf(MetricHistogram.lowerBound(b)));
+            assertEquals(b, MetricHistogram.bucketOf(MetricHistogram.upperBound(b)));
+        }
+        assertEquals(Long.MAX_VALUE, MetricHistogram.upperBound(MetricHistogram.BUCKETS - 1));
+        assertEquals(MetricHistogram.BUCKETS - 1, MetricHistogram.bucketOf(Long.MAX_VALUE));
+
+        MetricHistogram histogram = new MetricHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        MetricHistogram.Snapshot s = new MetricHistogram.Snapshot();
+        histogram.snapshot(s);
+        assertEquals(1, s.getBucketCount(0));
+        assertEquals(0, s.getPercentile(50));
+        assertEquals(Long.MAX_VALUE, s.getPercentile(100));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        final MetricHistogram histogram = new MetricHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i & 1023);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        MetricHistogram.Snapshot s = new MetricHistogram.Snapshot();
+        histogram.snapshot(s);
+        assertEquals(400000, s.getCount());
+        assertEquals(1023, s.getMax());
+
+        histogram.reset();
+        histogram.snapshot(s);
+        assertEquals(0, s.getCount());
+    }
+
+    @Test
+    public void pipelineSummaryListsOnlyRecordedMetrics() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.record(PipelineMetrics.Metric.READ_LATENCY, 20000000);
+        metrics.record(PipelineMetrics.Metric.READ_SIZE, 320);
+        StringBuilder out = new StringBuilder();
+        metrics.format(out);
+        String text = out.toString();
+        assertTrue(text, text.contains("read "));
+        assertTrue(text, text.contains("max=20000 us"));
+        assertTrue(text, text.contains("max=320 samples"));
+        assertFalse(text, text.contains("write"));
+    }
+}
@@ -0,0 +1,152 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PeakWriterTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    private static short[] noise(int length, long seed) {
+        final Random random = new Random(seed);
+        final short[] samples = new short[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (short) (random.nextGaussian() * 2000);
+        }
+        return samples;
+    }
+
+    private static File tempWav(String prefix) throws IOException {
+        final File file = File.createTempFile(prefix, ".wav");
+        file.deleteOnExit();
+        PeakFile.sidecarFor(file).deleteOnExit();
+        return file;
+    }
+
+    // Odd block sizes, so entries straddle writes.
+    private static void writeAll(AudioSink sink, short[] samples) throws IOException {
+        for (int offset = 0; offset < samples.length; offset += 1234) {
+            sink.write(samples, offset, Math.min(1234, samples.length - offset));
+        }
+        sink.close();
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void writesPeaksNextToTheRecording() throws IOException {
+        // About 62 seconds, with a spike in the middle.
+        final short[] samples = noise(1000003, 1);
+        samples[500000] = 32000;
+        samples[500001] = -32000;
+        final File wav = tempWav("peaks");
+        writeAll(PeakWriter.factory(WavWriter.factory(SAMPLE_RATE, 1, 4096), SAMPLE_RATE, 1).open(wav), samples);
+
+        assertEquals(WavWriter.HEADER_SIZE + samples.length * 2, wav.length());
+        assertFalse(PeakFile.needsBackfill(wav));
+        final PeakReader reader = PeakReader.open(wav);
+        assertNotNull(reader);
+        try {
+            assertEquals(samples.length, reader.getFrames());
+            assertEquals(SAMPLE_RATE, reader.getSampleRate());
+            // 3907, 977 and 245 entries: the third level is the first with at most 256.
+            assertEquals(3, reader.getLevels());
+
+            // Whole recording at 100 columns: level 2 (4096 frames per entry) is the coarsest with enough entries.
+            final short[] min = new short[100];
+            final short[] max = new short[100];
+            assertEquals(100, reader.read(0, samples.length, 100, min, max));
+            assertEquals(PeakFile.entries(samples.length, reader.getBlockFrames(2)) * 4, reader.getBytesRead());
+            assertEquals(-32000, min[50]);
+            assertEquals(32000, max[50]);
+            for (int b = 0; b < 100; b++) {
+                short lo = Short.MAX_VALUE;
+                short hi = Short.MIN_VALUE;
+                for (long i = (long) samples.length * b / 100; i < (long) samples.length * (b + 1) / 100; i++) {
+                    lo = (short) Math.min(lo, samples[(int) i]);
+                    hi = (short) Math.max(hi, samples[(int) i]);
+                }
+                // Whole entries are merged, so a bucket may reach a little past its edges.
+                assertTrue(min[b] <= lo);
+                assertTrue(max[b] >= hi);
+            }
+
+            // Block-aligned zoom at one level 0 entry per column is exact.
+            final long from = 256 * 1000;
+            final short[] zoomMin = new short[64];
+            final short[] zoomMax = new short[64];
+            final long before = reader.getBytesRead();
+            assertEquals(64, reader.read(from, from + 64 * 256, 64, zoomMin, zoomMax));
+            assertEquals(64 * 4, reader.getBytesRead() - before);
+            for (int b = 0; b < 64; b++) {
+                final int start = (int) from + b * 256;
+                final short[] block = Arrays.copyOfRange(samples, start, start + 256);
+                Arrays.sort(block);
+                assertEquals(block[0], zoomMin[b]);
+                assertEquals(block[255], zoomMax[b]);
+            }
+
+            assertEquals(0, reader.read(samples.length, samples.length + 1000, 10, min, max));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void levelsGrowWithTheRecording() {
+        assertEquals(1, PeakFile.levelsFor(0));
+        assertEquals(1, PeakFile.levelsFor(256 * 256));
+        assertEquals(2, PeakFile.levelsFor(256 * 256 + 1));
+        // A day at 48 kHz: the top level covers it in a few hundred entries.
+        final long day = 24 * 3600 * 48000L;
+        final int levels = PeakFile.levelsFor(day);
+        assertEquals(9, levels);
+        final long top = PeakFile.entries(day,
+                PeakFile.blockFrames(PeakFile.DEFAULT_BASE_BLOCK, PeakFile.DEFAULT_FACTOR, levels - 1));
+        assertTrue(top <= PeakFile.MAX_TOP_ENTRIES && top * PeakFile.DEFAULT_FACTOR > PeakFile.MAX_TOP_ENTRIES);
+    }
+
+    @Test
+    public void backfillMatchesPeaksWrittenWhileRecording() throws IOException {
+        final short[] samples = noise(2 * 300001, 2);
+        final File live = tempWav("live");
+        writeAll(PeakWriter.factory(WavWriter.factory(SAMPLE_RATE, 2, 4096), SAMPLE_RATE, 2).open(live), samples);
+        final File old = tempWav("old");
+        writeAll(new WavWriter(old, SAMPLE_RATE, 2, 4096), samples);
+        assertTrue(PeakFile.needsBackfill(old));
+
+        assertEquals(PeakFile.sidecarFor(old), PeakWriter.backfill(old));
+        assertFalse(PeakFile.needsBackfill(old));
+        assertArrayEquals(readAll(PeakFile.sidecarFor(live)), readAll(PeakFile.sidecarFor(old)));
+        assertFalse(new File(PeakFile.sidecarFor(old).getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void unfinishedPeaksAreNotRead() throws IOException {
+        final File wav = tempWav("unfinished");
+        final AudioSink sink = PeakWriter.factory(WavWriter.factory(SAMPLE_RATE, 1, 4096), SAMPLE_RATE, 1).open(wav);
+        sink.write(noise(10000, 3), 0, 10000);
+        assertTrue(PeakFile.needsBackfill(wav));
+        assertNull(PeakReader.open(wav));
+        sink.close();
+        final PeakReader reader = PeakReader.open(wav);
+        assertNotNull(reader);
+        assertEquals(10000, reader.getFrames());
+        reader.close();
+    }
+}
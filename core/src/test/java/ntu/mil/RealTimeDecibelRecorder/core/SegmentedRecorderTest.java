@@ -0,0 +1,157 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentedRecorderTest {
+    private static final int SAMPLE_RATE = 1000;
+
+    private File mDirectory;
+    private final List<File> mStarted = Collections.synchronizedList(new ArrayList<File>());
+    private final List<File> mFinished = Collections.synchronizedList(new ArrayList<File>());
+
+    private final SegmentedRecorder.Namer mNamer = new SegmentedRecorder.Namer() {
+        @Override
+        public File fileFor(long startMillis) {
+            return new File(mDirectory, startMillis + ".wav");
+        }
+    };
+    private final SegmentedRecorder.Listener mListener = new SegmentedRecorder.Listener() {
+        @Override
+        public void onSegmentStarted(File file) {
+            mStarted.add(file);
+        }
+
+        @Override
+        public void onSegmentFinished(File file, long dataBytes) {
+            mFinished.add(file);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("segments", "");
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static short[] readSamples(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            short[] samples = new short[(int) (in.length() - WavWriter.HEADER_SIZE) / 2];
+            in.seek(WavWriter.HEADER_SIZE);
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = Short.reverseBytes(in.readShort());
+            }
+            return samples;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeRamp(SegmentedRecorder recorder, int total) throws IOException {
+        short[] block = new short[64];
+        for (int written = 0; written < total; ) {
+            int length = Math.min(block.length, total - written);
+            for (int i = 0; i < length; i++) {
+                block[i] = (short) (written + i);
+            }
+            recorder.write(block, 0, length);
+            written += length;
+        }
+    }
+
+    @Test
+    public void rollsOverWithoutLosingSamples() throws IOException {
+        // 100 ms at 1 kHz = 100 samples per segment.
+        SegmentedRecorder recorder = new SegmentedRecorder(mNamer, mListener, SAMPLE_RATE, 1, 64, 100, SegmentedRecorder.UNLIMITED);
+        recorder.open(0);
+        writeRamp(recorder, 350);
+        recorder.close();
+
+        assertEquals(4, mStarted.size());
+        assertEquals(4, mFinished.size());
+        assertEquals(new File(mDirectory, "300.wav"), mStarted.get(3));
+        // The segment prepared for 400 ms was never used and must be gone.
+        assertFalse(new File(mDirectory, "400.wav").exists());
+
+        int expected = 0;
+        for (File file : mStarted) {
+            for (short sample : readSamples(file)) {
+                assertEquals(expected++, sample);
+            }
+        }
+        assertEquals(350, expected);
+    }
+
+    @Test
+    public void unlimitedRotationOpensASingleFile() throws IOException {
+        final List<Long> starts = Collections.synchronizedList(new ArrayList<Long>());
+        final SegmentedRecorder.Namer namer = new SegmentedRecorder.Namer() {
+            @Override
+            public File fileFor(long startMillis) {
+                starts.add(startMillis);
+                return mNamer.fileFor(startMillis);
+            }
+        };
+        SegmentedRecorder recorder = new SegmentedRecorder(namer, mListener, SAMPLE_RATE, 1, 64,
+                SegmentedRecorder.UNLIMITED, SegmentedRecorder.UNLIMITED);
+        recorder.open(1000);
+        writeRamp(recorder, 350);
+        recorder.close();
+
+        assertEquals(Collections.singletonList(1000L), starts);
+        assertEquals(1, mDirectory.listFiles().length);
+        assertEquals(350, readSamples(new File(mDirectory, "1000.wav")).length);
+
+        // A limit of centuries still names the next segment after the first, without overflow.
+        starts.clear();
+        recorder = new SegmentedRecorder(namer, mListener, SAMPLE_RATE, 1, 64, Long.MAX_VALUE / 2, Long.MAX_VALUE - 1);
+        recorder.open(2000);
+        recorder.write(new short[10], 0, 10);
+        recorder.close();
+        assertEquals(2, starts.size());
+        assertEquals(2000 + (Long.MAX_VALUE - 1) / 2, (long) starts.get(1));
+    }
+
+    @Test
+    public void sizeLimitAndRetention() throws IOException {
+        File old = new File(mDirectory, "old.wav");
+        assertTrue(old.createNewFile());
+        // 200 bytes = 100 samples per segment; keep at most two segments including the old file.
+        SegmentedRecorder recorder = new SegmentedRecorder(mNamer, mListener, SAMPLE_RATE, 1, 64, SegmentedRecorder.UNLIMITED, 200);
+        recorder.setRetention(new File[]{old}, 2, SegmentedRecorder.UNLIMITED);
+        recorder.open(0);
+        writeRamp(recorder, 300);
+        recorder.close();
+
+        assertFalse(old.exists());
+        assertFalse(new File(mDirectory, "0.wav").exists());
+        assertTrue(new File(mDirectory, "100.wav").exists());
+        assertTrue(new File(mDirectory, "200.wav").exists());
+        // Stopping exactly on a boundary leaves no empty trailing segment.
+        assertFalse(new File(mDirectory, "300.wav").exists());
+        assertEquals(3, mFinished.size());
+    }
+}
@@ -0,0 +1,80 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SessionManagerTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    @Test
+    public void sessionsShareTheWorkersAndLoseNothing() throws IOException {
+        SessionManager manager = new SessionManager(1, 2);
+        File[] files = new File[4];
+        try {
+            for (int i = 0; i < files.length; i++) {
+                files[i] = File.createTempFile("session" + i, ".wav");
+                SyntheticSource source = new SyntheticSource(SAMPLE_RATE, 2000 + 500 * i, 0, 640, i);
+                source.setTone(1000, 1000 * (i + 1));
+                source.setBursts(1000, 1000);
+                manager.add("s" + i, source, WavWriter.factory(SAMPLE_RATE, 1, 640), files[i], null);
+            }
+            List<CaptureSession> sessions = manager.getSessions();
+            manager.startAll();
+            for (CaptureSession session : sessions) {
+                // Replays end by themselves.
+                session.join();
+            }
+
+            for (int i = 0; i < files.length; i++) {
+                CaptureSession session = sessions.get(i);
+                long expected = (2000 + 500 * i) * SAMPLE_RATE / 1000;
+                assertFalse(session.isRunning());
+                assertEquals(expected, session.getCapturedSamples());
+                assertEquals(expected, session.getWrittenSamples());
+                assertEquals(expected, session.getAnalyzedSamples());
+                assertEquals(0, session.getWriterDroppedFrames() + session.getAnalysisDroppedFrames());
+                assertEquals(0, session.getWriterBacklog());
+                assertEquals(WavWriter.HEADER_SIZE + expected * 2, files[i].length());
+            }
+            // Each tone is twice as loud as the one before: about 6 dB apart.
+            assertEquals(6.0, sessions.get(1).getLeq() - sessions.get(0).getLeq(), 0.2);
+
+            StringBuilder metrics = new StringBuilder();
+            manager.formatMetrics(metrics);
+            assertEquals(files.length, metrics.toString().split("\n").length);
+        } finally {
+            manager.close();
+            for (File file : files) {
+                if (file != null) file.delete();
+            }
+        }
+        assertTrue(manager.getSessions().isEmpty());
+    }
+
+    @Test
+    public void meteringOnlySessionReportsLevels() throws IOException {
+        SessionManager manager = new SessionManager(1, 1);
+        final double[] last = new double[1];
+        try {
+            CaptureSession session = manager.add("meter", new SyntheticSource(SAMPLE_RATE, 1000, 0, 320, 7), null, null,
+                    new CaptureSession.Listener() {
+                        @Override
+                        public void onLevel(CaptureSession session, long timeMillis, double level, double leq) {
+                            last[0] = leq;
+                        }
+                    });
+            session.start();
+            session.join();
+            assertEquals(0, session.getWrittenSamples());
+            assertEquals(SAMPLE_RATE, session.getAnalyzedSamples());
+            assertEquals(session.getLeq(), last[0], 0);
+        } finally {
+            manager.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SoundLevelMeterTest {
+    private static final int[] SAMPLE_RATES = new int[]{16000, 11025, 22050, 44100};
+
+    // IEC 61672-1 nominal weightings in dB.
+    private static final double[] FREQUENCIES = new double[]{31.5, 63, 125, 250, 500, 1000, 2000, 4000};
+    private static final double[] A_WEIGHTING = new double[]{-39.4, -26.2, -16.1, -8.6, -3.2, 0.0, 1.2, 1.0};
+    private static final double[] C_WEIGHTING = new double[]{-3.0, -0.8, -0.2, 0.0, 0.0, 0.0, -0.2, -0.8};
+
+    private static short[] tone(double frequency, double amplitude, int sampleRate, double seconds) {
+        short[] samples = new short[(int) (sampleRate * seconds)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+        }
+        return samples;
+    }
+
+    // Leq of a steady tone in dBFS, measured after the filters settle.
+    private static double leqDbfs(FrequencyWeighting weighting, double frequency, int sampleRate) {
+        SoundLevelMeter meter = new SoundLevelMeter(weighting, SoundLevelMeter.TimeWeighting.FAST, sampleRate);
+        meter.setCalibrationOffset(0);
+        short[] samples = tone(frequency, 0.5, sampleRate, 2.0);
+        meter.process(samples, 0, samples.length / 2);
+        meter.resetLeq();
+        meter.process(samples, samples.length / 2, samples.length / 2);
+        return meter.getLeq();
+    }
+
+    private static void assertWeighting(FrequencyWeighting weighting, double[] expected) {
+        for (int sampleRate : SAMPLE_RATES) {
+            double reference = leqDbfs(weighting, 1000, sampleRate);
+            for (int i = 0; i < FREQUENCIES.length; i++) {
+                // Bilinear warping pulls the top octave down at low sample rates.
+                if (FREQUENCIES[i] > sampleRate / 8.0) continue;
+                double relative = leqDbfs(weighting, FREQUENCIES[i], sampleRate) - reference;
+                assertEquals(weighting + " at " + FREQUENCIES[i] + " Hz, fs " + sampleRate, expected[i], relative, 0.5);
+            }
+        }
+    }
+
+    @Test
+    public void aWeightingMatchesReferenceTones() {
+        assertWeighting(FrequencyWeighting.A, A_WEIGHTING);
+    }
+
+    @Test
+    public void cWeightingMatchesReferenceTones() {
+        assertWeighting(FrequencyWeighting.C, C_WEIGHTING);
+    }
+
+    @Test
+    public void oneKilohertzIsUnweightedAndCalibrated() {
+        for (FrequencyWeighting weighting : FrequencyWeighting.values()) {
+            for (int sampleRate : SAMPLE_RATES) {
+                // Half-scale sine: -6.02 dB amplitude, -3.01 dB crest factor.
+                assertEquals(-9.03, leqDbfs(weighting, 1000, sampleRate), 0.1);
+            }
+        }
+        SoundLevelMeter meter = new SoundLevelMeter(FrequencyWeighting.Z, SoundLevelMeter.TimeWeighting.FAST, 16000);
+        meter.setCalibrationOffset(94);
+        short[] samples = tone(1000, 0.5, 16000, 1.0);
+        meter.process(samples, 0, samples.length);
+        assertEquals(84.97, meter.getLevel(), 0.2);
+    }
+
+    @Test
+    public void timeWeightingDecayRates() {
+        int sampleRate = 16000;
+        short[] samples = tone(1000, 0.5, sampleRate, 2.0);
+        short[] silence = new short[sampleRate / 2];
+
+        SoundLevelMeter fast = new SoundLevelMeter(FrequencyWeighting.Z, SoundLevelMeter.TimeWeighting.FAST, sampleRate);
+        fast.process(samples, 0, samples.length);
+        double before = fast.getLevel();
+        fast.process(silence, 0, silence.length);
+        // 10 log10(e) / 0.125 s = 34.7 dB/s
+        assertEquals(17.4, before - fast.getLevel(), 0.5);
+
+        SoundLevelMeter slow = new SoundLevelMeter(FrequencyWeighting.Z, SoundLevelMeter.TimeWeighting.SLOW, sampleRate);
+        slow.process(samples, 0, samples.length);
+        before = slow.getLevel();
+        slow.process(silence, 0, silence.length);
+        // 4.3 dB/s
+        assertEquals(2.2, before - slow.getLevel(), 0.2);
+        assertEquals(before, slow.getMaxLevel(), 0.1);
+    }
+}
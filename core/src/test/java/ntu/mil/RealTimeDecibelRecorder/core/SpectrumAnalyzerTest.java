@@ -0,0 +1,102 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpectrumAnalyzerTest {
+    @Test
+    public void realFftMatchesDirectDft() {
+        int n = 64;
+        double[] input = new double[n];
+        Random random = new Random(3);
+        for (int i = 0; i < n; i++) {
+            input[i] = random.nextGaussian();
+        }
+        double[] power = new double[n / 2 + 1];
+        new RealFft(n).powerSpectrum(input, power);
+
+        for (int k = 0; k <= n / 2; k++) {
+            double re = 0, im = 0;
+            for (int i = 0; i < n; i++) {
+                re += input[i] * Math.cos(2 * Math.PI * k * i / n);
+                im -= input[i] * Math.sin(2 * Math.PI * k * i / n);
+            }
+            assertEquals("bin " + k, re * re + im * im, power[k], 1e-9 * n * n);
+        }
+    }
+
+    private static short[] tone(double frequency, double amplitude, int sampleRate, double seconds) {
+        short[] samples = new short[(int) (sampleRate * seconds)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+        }
+        return samples;
+    }
+
+    private static int indexOf(float[] centers, int count, double frequency) {
+        for (int i = 0; i < count; i++) {
+            if (Math.abs(centers[i] / frequency - 1) < 0.03) return i;
+        }
+        fail("no band at " + frequency);
+        return -1;
+    }
+
+    @Test
+    public void toneLandsInItsBands() {
+        int[] sampleRates = new int[]{16000, 44100};
+        for (int sampleRate : sampleRates) {
+            SpectrumAnalyzer analyzer = new SpectrumAnalyzer(sampleRate, SpectrumAnalyzer.DEFAULT_REPORT_MILLIS);
+            analyzer.setCalibrationOffset(0);
+            short[] samples = tone(1000, 0.5, sampleRate, 1.0);
+            boolean reported = false;
+            for (int i = 0; i + 512 <= samples.length; i += 512) {
+                reported |= analyzer.process(samples, i, 512);
+            }
+            assertTrue(reported);
+
+            float[] centers = new float[analyzer.getOctaveBandCount()];
+            float[] levels = new float[analyzer.getOctaveBandCount()];
+            analyzer.getOctaveFrequencies(centers);
+            analyzer.getOctaveLevels(levels);
+            int band = indexOf(centers, centers.length, 1000);
+            assertEquals(-9.03, levels[band], 0.3);
+            assertTrue(levels[band - 2] < -60);
+            assertTrue(levels[band + 2] < -60);
+
+            float[] thirdCenters = new float[analyzer.getThirdOctaveBandCount()];
+            float[] thirdLevels = new float[analyzer.getThirdOctaveBandCount()];
+            analyzer.getThirdOctaveFrequencies(thirdCenters);
+            analyzer.getThirdOctaveLevels(thirdLevels);
+            band = indexOf(thirdCenters, thirdCenters.length, 1000);
+            assertEquals(-9.03, thirdLevels[band], 0.5);
+            assertTrue(thirdCenters[thirdCenters.length - 1] * 1.12 <= sampleRate / 2.0);
+        }
+    }
+
+    @Test
+    public void whiteNoiseBandsSumToTotal() {
+        int sampleRate = 16000;
+        SpectrumAnalyzer analyzer = new SpectrumAnalyzer(sampleRate, 1024, 1000);
+        analyzer.setCalibrationOffset(0);
+        short[] samples = new short[sampleRate];
+        Random random = new Random(5);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) Math.round(random.nextGaussian() * 3000);
+        }
+        assertTrue(analyzer.process(samples, 0, samples.length));
+
+        float[] levels = new float[analyzer.getThirdOctaveBandCount()];
+        analyzer.getThirdOctaveLevels(levels);
+        double sum = 0;
+        for (float level : levels) {
+            sum += Math.pow(10, level / 10);
+        }
+        // Bands stop at the last full band below Nyquist (7.1 kHz), which loses about 0.5 dB of white noise.
+        assertEquals(20 * Math.log10(3000 / 32768.0), 10 * Math.log10(sum), 0.8);
+        // White noise rises 1 dB per third-octave band.
+        assertTrue(levels[levels.length - 1] > levels[levels.length - 10] + 6);
+    }
+}
@@ -0,0 +1,56 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SummaryFeedTest {
+    @Test
+    public void readerSeesOnlyTheLatestValues() {
+        SummaryFeed feed = new SummaryFeed(16, 4);
+        SummaryFeed.Summary summary = new SummaryFeed.Summary();
+        assertFalse(feed.read(summary));
+
+        feed.pushLevel(40, 41, 42);
+        feed.pushLevel(50, 51, 52);
+        assertTrue(feed.read(summary));
+        assertEquals(50, summary.getLevel(), 0);
+        assertEquals(51, summary.getLeq(), 0);
+        assertEquals(52, summary.getMaxLevel(), 0);
+        assertFalse(summary.isBandsChanged());
+        assertFalse(feed.read(summary));
+        // Every level still reaches the decimated history.
+        assertEquals(2, feed.getHistory().getCount());
+    }
+
+    @Test
+    public void bandsAreCopiedWhenTheyChange() {
+        SummaryFeed feed = new SummaryFeed(16, 4);
+        SummaryFeed.Summary summary = new SummaryFeed.Summary();
+        float[] levels = {10, 20, 30};
+        feed.pushBands(new float[]{250, 500, 1000}, levels);
+        levels[0] = 99;
+
+        assertTrue(feed.read(summary));
+        assertTrue(summary.isBandsChanged());
+        assertArrayEquals(new float[]{10, 20, 30}, summary.getBandLevels(), 0f);
+        assertEquals(500, summary.getBandFrequencies()[1], 0);
+        assertFalse(feed.read(summary));
+        assertFalse(summary.isBandsChanged());
+    }
+
+    @Test
+    public void clearResetsReadersToo() {
+        SummaryFeed feed = new SummaryFeed(16, 4);
+        SummaryFeed.Summary summary = new SummaryFeed.Summary();
+        feed.pushLevel(60, 60, 60);
+        feed.setLabel("a.wav");
+        feed.read(summary);
+
+        feed.clear();
+        assertTrue(feed.read(summary));
+        assertEquals(0, summary.getLevel(), 0);
+        assertNull(feed.getLabel());
+        assertEquals(0, feed.getHistory().getCount());
+    }
+}
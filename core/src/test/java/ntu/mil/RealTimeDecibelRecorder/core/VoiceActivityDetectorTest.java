@@ -0,0 +1,78 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class VoiceActivityDetectorTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int BLOCK = 640;
+
+    private final Random mRandom = new Random(7);
+
+    private short[] noise(double rms, double seconds) {
+        short[] samples = new short[(int) (SAMPLE_RATE * seconds)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) Math.round(mRandom.nextGaussian() * rms);
+        }
+        return samples;
+    }
+
+    private short[] toneOverNoise(double amplitude, double noiseRms, double seconds) {
+        short[] samples = noise(noiseRms, seconds);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] += (short) Math.round(amplitude * Math.sin(2 * Math.PI * 300 * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    // Feeds in blocks and returns the sample index at which activity first flips to the given state, or -1.
+    private static int feedUntil(VoiceActivityDetector vad, short[] samples, boolean state) {
+        for (int i = 0; i + BLOCK <= samples.length; i += BLOCK) {
+            vad.process(samples, i, BLOCK);
+            if (vad.isActive() == state) return i + BLOCK;
+        }
+        return -1;
+    }
+
+    @Test
+    public void singleClickDoesNotStartActivity() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        short[] samples = noise(100, 2);
+        samples[SAMPLE_RATE] = 30000;
+        assertEquals(-1, feedUntil(vad, samples, true));
+    }
+
+    @Test
+    public void burstStartsAndEndsAfterHangover() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        vad.setHangoverMillis(300);
+        assertEquals(-1, feedUntil(vad, noise(100, 1), true));
+        double floor = vad.getNoiseFloorDb();
+        assertEquals(-50.3, floor, 1.0);
+
+        assertTrue(feedUntil(vad, toneOverNoise(3000, 100, 0.5), true) <= SAMPLE_RATE / 10);
+
+        int end = feedUntil(vad, noise(100, 1), false);
+        assertTrue("ended after " + end, end >= SAMPLE_RATE * 3 / 10 && end <= SAMPLE_RATE * 4 / 10);
+        assertEquals(floor, vad.getNoiseFloorDb(), 3.0);
+    }
+
+    @Test
+    public void steadyLoudRoomBecomesTheFloor() {
+        VoiceActivityDetector vad = new VoiceActivityDetector(SAMPLE_RATE);
+        feedUntil(vad, noise(100, 1), true);
+        assertTrue(feedUntil(vad, noise(3000, 0.5), true) > 0);
+        // 29.5 dB above the old floor: the floor has to climb most of it at the active rate.
+        int end = feedUntil(vad, noise(3000, 120), false);
+        assertTrue(end > 0);
+        assertFalse(vad.isActive());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void onsetMustNotBeBelowRelease() {
+        new VoiceActivityDetector(SAMPLE_RATE).setThresholds(3, 6);
+    }
+}
@@ -0,0 +1,53 @@
+package ntu.mil.RealTimeDecibelRecorder.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class WavWriterTest {
+    private static ByteBuffer readAll(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void patchesSizesAndWritesOnlyReadSamples() throws IOException {
+        File file = File.createTempFile("wavwriter", ".wav");
+        file.deleteOnExit();
+        short[] frame = new short[]{1, -1, 0x1234, 7, 7, 7};
+
+        WavWriter writer = new WavWriter(file, 22050, 1, 4);
+        writer.write(frame, 0, 3); // short read: the tail of the buffer must not be written
+        writer.write(frame, 0, 6); // longer than the internal buffer
+        writer.close();
+
+        ByteBuffer wav = readAll(file);
+        assertEquals(WavWriter.HEADER_SIZE + 18, wav.limit());
+        assertEquals(0x46464952, wav.getInt(0)); // "RIFF"
+        assertEquals(36 + 18, wav.getInt(4));
+        assertEquals(1, wav.getShort(20));
+        assertEquals(1, wav.getShort(22));
+        assertEquals(22050, wav.getInt(24));
+        assertEquals(44100, wav.getInt(28));
+        assertEquals(2, wav.getShort(32));
+        assertEquals(16, wav.getShort(34));
+        assertEquals(18, wav.getInt(40));
+        assertEquals(1, wav.getShort(44));
+        assertEquals(-1, wav.getShort(46));
+        assertEquals(0x1234, wav.getShort(48));
+        assertEquals(1, wav.getShort(50));
+        assertEquals(7, wav.getShort(60));
+    }
+}